@@ -16,10 +16,18 @@ public class Config {
     public static final ForgeConfigSpec.BooleanValue SERVER_SYNC_ENABLED;
     public static final ForgeConfigSpec.IntValue SERVER_MAX_UPLOAD_PER_SECOND;
     public static final ForgeConfigSpec.IntValue SERVER_MAX_DOWNLOAD_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue SERVER_MAX_UPLOAD_KB_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue SERVER_MAX_DOWNLOAD_KB_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue SERVER_MAX_TOTAL_KB_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue SERVER_MAX_TOTAL_DOWNLOAD_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue SERVER_INITIAL_SYNC_WEIGHT;
     public static final ForgeConfigSpec.IntValue SERVER_REGISTRY_BATCH_SIZE;
     public static final ForgeConfigSpec.IntValue SERVER_REGISTRY_PACKETS_PER_SECOND;
     public static final ForgeConfigSpec.IntValue SERVER_MAX_CHUNK_DATA_SIZE;
     public static final ForgeConfigSpec.IntValue SERVER_MIN_UPDATE_INTERVAL_MINUTES;
+    public static final ForgeConfigSpec.IntValue SERVER_IO_THREADS;
+    public static final ForgeConfigSpec.IntValue SERVER_IO_QUEUE_SIZE;
+    public static final ForgeConfigSpec.IntValue SERVER_CHUNK_CACHE_MB;
     public static final ForgeConfigSpec.ConfigValue<List<? extends String>> DIMENSION_WHITELIST;
     public static final ForgeConfigSpec.ConfigValue<List<? extends String>> DIMENSION_BLACKLIST;
 
@@ -38,13 +46,34 @@ public class Config {
                 .comment("Maximum chunks per second the server will send to a single client")
                 .defineInRange("maxDownloadPerSecond", 10, 1, 100);
 
+        SERVER_MAX_UPLOAD_KB_PER_SECOND = SERVER_BUILDER
+                .comment("Maximum chunk data in KB per second the server will accept from a single client (0 = unlimited)")
+                .defineInRange("maxUploadKBPerSecond", 0, 0, 1048576);
+
+        SERVER_MAX_DOWNLOAD_KB_PER_SECOND = SERVER_BUILDER
+                .comment("Maximum chunk data in KB per second the server will send to a single client (0 = unlimited)")
+                .defineInRange("maxDownloadKBPerSecond", 0, 0, 1048576);
+
+        SERVER_MAX_TOTAL_KB_PER_SECOND = SERVER_BUILDER
+                .comment("Maximum chunk data in KB per second for uploads and downloads of all players combined (0 = unlimited)")
+                .defineInRange("maxTotalKBPerSecond", 0, 0, 1048576);
+
+        SERVER_MAX_TOTAL_DOWNLOAD_PER_SECOND = SERVER_BUILDER
+                .comment("Maximum chunks per second the server will send to all players combined, shared fairly between them")
+                .defineInRange("maxTotalDownloadPerSecond", 200, 1, 10000);
+
+        SERVER_INITIAL_SYNC_WEIGHT = SERVER_BUILDER
+                .comment("Share of the total download rate given to players still receiving the registry, relative to other players")
+                .defineInRange("initialSyncWeight", 2, 1, 16);
+
         SERVER_REGISTRY_BATCH_SIZE = SERVER_BUILDER
-                .comment("Number of chunk entries per registry packet")
-                .defineInRange("registryBatchSize", 50, 1, 500);
+                .comment("Number of chunk entries per registry packet (entries take around 6-10 bytes each)")
+                .defineInRange("registryBatchSize", 1000, 1, 8192);
 
         SERVER_REGISTRY_PACKETS_PER_SECOND = SERVER_BUILDER
-                .comment("Registry packets per second during initial sync")
-                .defineInRange("registryPacketsPerSecond", 3, 1, 20);
+                .comment("Maximum registry packets per second during initial sync",
+                        "The actual rate adapts to each player's connection and the server's tick time")
+                .defineInRange("registryPacketsPerSecond", 20, 1, 100);
 
         SERVER_MAX_CHUNK_DATA_SIZE = SERVER_BUILDER
                 .comment("Maximum chunk data size in bytes (for validation)")
@@ -54,6 +83,18 @@ public class Config {
                 .comment("Minimum time (in minutes) before a chunk can be re-uploaded. Prevents excessive updates from small changes like doors opening.")
                 .defineInRange("minUpdateIntervalMinutes", 5, 1, 60);
 
+        SERVER_IO_THREADS = SERVER_BUILDER
+                .comment("Number of background threads reading and writing chunk storage")
+                .defineInRange("ioThreads", 2, 1, 16);
+
+        SERVER_IO_QUEUE_SIZE = SERVER_BUILDER
+                .comment("Maximum storage reads/writes waiting for an I/O thread. When full, uploads are rejected as rate limited and downloads wait in the player's queue.")
+                .defineInRange("ioQueueSize", 256, 16, 4096);
+
+        SERVER_CHUNK_CACHE_MB = SERVER_BUILDER
+                .comment("Memory (in MB) for caching recently read or uploaded chunk data. 0 disables the cache.")
+                .defineInRange("chunkCacheMB", 32, 0, 1024);
+
         DIMENSION_WHITELIST = SERVER_BUILDER
                 .comment("Whitelist of dimensions to sync (empty = all allowed). Format: \"minecraft:overworld\"")
                 .defineListAllowEmpty(List.of("dimensionWhitelist"), List::of, obj -> obj instanceof String);
@@ -74,6 +115,9 @@ public class Config {
     public static final ForgeConfigSpec.BooleanValue CLIENT_AUTO_DOWNLOAD;
     public static final ForgeConfigSpec.IntValue CLIENT_MAX_UPLOAD_PER_SECOND;
     public static final ForgeConfigSpec.IntValue CLIENT_MAX_DOWNLOAD_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue CLIENT_MAX_UPLOAD_KB_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue CLIENT_MAX_DOWNLOAD_KB_PER_SECOND;
+    public static final ForgeConfigSpec.IntValue CLIENT_APPLY_BUDGET_MICROS;
 
     static {
         CLIENT_BUILDER.comment("Client-side sync configuration").push("client");
@@ -94,6 +138,18 @@ public class Config {
                 .comment("Maximum chunks per second to request")
                 .defineInRange("maxDownloadPerSecond", 10, 1, 100);
 
+        CLIENT_MAX_UPLOAD_KB_PER_SECOND = CLIENT_BUILDER
+                .comment("Maximum chunk data in KB per second to upload (0 = unlimited)")
+                .defineInRange("maxUploadKBPerSecond", 0, 0, 1048576);
+
+        CLIENT_MAX_DOWNLOAD_KB_PER_SECOND = CLIENT_BUILDER
+                .comment("Maximum chunk data in KB per second to download (0 = unlimited)")
+                .defineInRange("maxDownloadKBPerSecond", 0, 0, 1048576);
+
+        CLIENT_APPLY_BUDGET_MICROS = CLIENT_BUILDER
+                .comment("Time in microseconds per frame spent applying downloaded chunks to the map (at least one chunk is always applied)")
+                .defineInRange("applyBudgetMicros", 2000, 100, 50000);
+
         CLIENT_BUILDER.pop();
     }
 
@@ -113,6 +169,15 @@ public class Config {
         return !blacklist.contains(dimensionId);
     }
 
+    /**
+     * Combine two KB/s limits where 0 means unlimited, returning the stricter one.
+     */
+    public static int minBandwidthLimit(int a, int b) {
+        if (a <= 0) return Math.max(b, 0);
+        if (b <= 0) return a;
+        return Math.min(a, b);
+    }
+
     @SubscribeEvent
     static void onLoad(final ModConfigEvent event) {
         // Config loaded/reloaded
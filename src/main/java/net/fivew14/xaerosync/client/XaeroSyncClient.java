@@ -53,6 +53,13 @@ public class XaeroSyncClient {
             }
         }
 
+        @SubscribeEvent
+        public void onRenderTick(TickEvent.RenderTickEvent event) {
+            if (event.phase == TickEvent.Phase.END) {
+                ClientSyncManager.getInstance().onFrame();
+            }
+        }
+
         @SubscribeEvent
         public void onRegisterClientCommands(RegisterClientCommandsEvent event) {
             XaeroSyncClientCommands.register(event.getDispatcher());
@@ -3,6 +3,7 @@ package net.fivew14.xaerosync.client.commands;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.context.CommandContext;
 import net.fivew14.xaerosync.Config;
+import net.fivew14.xaerosync.client.sync.ChunkApplyPipeline;
 import net.fivew14.xaerosync.client.sync.ClientSyncManager;
 import net.fivew14.xaerosync.client.sync.ClientTimestampTracker;
 import net.minecraft.client.Minecraft;
@@ -74,6 +75,19 @@ public class XaeroSyncClientCommands {
         source.sendSuccess(() -> Component.literal("Pending Downloads: " + manager.getPendingDownloadsSize()), false);
         source.sendSuccess(() -> Component.literal("Cached Chunks: " + manager.getCachedChunksCount()), false);
 
+        ChunkApplyPipeline.Stats pipeline = manager.getApplyPipelineStats();
+        source.sendSuccess(() -> Component.literal("--- Apply Pipeline ---"), false);
+        source.sendSuccess(() -> Component.literal("Waiting for Decode: " + pipeline.decodeQueued()
+                + ", Ready to Apply: " + pipeline.readyToApply()), false);
+        source.sendSuccess(() -> Component.literal(String.format("Decode: %.0fus avg (%d chunks, %d failed)",
+                pipeline.averageDecodeMicros(), pipeline.decoded(), pipeline.decodeFailures())), false);
+        source.sendSuccess(() -> Component.literal(String.format("Apply: %.0fus avg, %.0fus max per frame",
+                pipeline.averageApplyMicros(), pipeline.maxFrameNanos() / 1000.0)), false);
+        source.sendSuccess(() -> Component.literal("Applied: " + pipeline.applied() + ", Deferred: " + pipeline.deferred()
+                + ", Superseded: " + pipeline.superseded()), false);
+        source.sendSuccess(() -> Component.literal(String.format("Cache Writes: %d, %.0fus avg",
+                pipeline.cached(), pipeline.averageCacheMicros())), false);
+
         ClientTimestampTracker tracker = manager.getTimestampTracker();
         int needingUpload = tracker.getChunksNeedingUpload().size();
         int needingDownload = tracker.getChunksNeedingDownload().size();
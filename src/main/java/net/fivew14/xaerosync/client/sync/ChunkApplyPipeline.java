@@ -0,0 +1,319 @@
+package net.fivew14.xaerosync.client.sync;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCodec;
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.minecraft.core.HolderLookup;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gets downloaded chunks into Xaero's map without stalling the client thread.
+ * <p>
+ * Stages:
+ * - Network: packet handlers {@link #submit} payloads on the client thread
+ * - Decode: worker threads decode each payload in memory, staying at most a pool's worth of
+ * chunks ahead of apply so a bulk download waits compressed rather than decoded
+ * - Apply: {@link #applyReady} writes decoded chunks into loaded regions on the client thread,
+ * once per frame for as long as its time budget allows
+ * <p>
+ * Only chunks that can't be applied right away are written to the {@link SyncedChunkCache},
+ * by the workers, so {@link SyncedChunkApplier} picks them up when their region loads. That
+ * covers regions that aren't loaded, chunks being explored locally, and payloads referring to
+ * palette IDs not known yet.
+ */
+public class ChunkApplyPipeline {
+
+    private static final int DECODE_THREADS = 2;
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+
+    private ExecutorService decoder = createDecoder();
+    private final Queue<Payload> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<ReadyChunk> ready = new ConcurrentLinkedQueue<>();
+
+    // Chunks being decoded or decoded and not applied yet, at most DecodedChunk.POOL_SIZE
+    private final AtomicInteger decodeSlots = new AtomicInteger();
+
+    // Timestamp of the newest payload submitted per chunk, until it's applied or cached.
+    // Older ones are skipped, and cache writes for a chunk happen under cacheLock in this order.
+    private final Map<ChunkCoord, Long> latest = new ConcurrentHashMap<>();
+    private final Object cacheLock = new Object();
+
+    // Queue depths
+    private final AtomicInteger decodeQueued = new AtomicInteger();
+    private final AtomicInteger readyCount = new AtomicInteger();
+
+    // Stage statistics
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong decodeFailures = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong applyNanos = new AtomicLong();
+    private final AtomicLong maxFrameNanos = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong cacheNanos = new AtomicLong();
+
+    private static ExecutorService createDecoder() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "XaeroSync-Decode-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // Decodes are started a few at a time (see startDecodes), so the queue stays short
+        return new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    // ==================== Stages ====================
+
+    /**
+     * Queue a downloaded payload for decoding. Without registries, it goes straight to the cache.
+     */
+    public void submit(ChunkCoord coord, byte[] data, long timestamp,
+                       @Nullable HolderLookup.Provider registryAccess, ChunkCodec codec, SessionPalette palette) {
+        latest.put(coord, timestamp);
+        decodeQueued.incrementAndGet();
+        pending.add(new Payload(coord, data, timestamp, registryAccess, codec, palette));
+        startDecodes();
+    }
+
+    /**
+     * Hand queued payloads to the workers while a decode slot is free. Slots are given back
+     * once a chunk is applied, or right away if it's cached instead, and whoever gives one back
+     * calls this again.
+     */
+    private void startDecodes() {
+        while (!pending.isEmpty()) {
+            int used = decodeSlots.get();
+            if (used >= DecodedChunk.POOL_SIZE) {
+                return;
+            }
+            if (!decodeSlots.compareAndSet(used, used + 1)) {
+                continue;
+            }
+            Payload payload = pending.poll();
+            if (payload == null) {
+                decodeSlots.decrementAndGet();
+                return;
+            }
+            try {
+                decoder.execute(() -> runDecode(payload));
+            } catch (RejectedExecutionException e) {
+                // Flushing, which writes whatever is still pending to the cache
+                pending.add(payload);
+                decodeSlots.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void runDecode(Payload payload) {
+        boolean madeReady = false;
+        try {
+            madeReady = decode(payload);
+        } catch (Exception e) {
+            XaeroSync.LOGGER.error("Failed to decode downloaded chunk {}", payload.coord(), e);
+        } finally {
+            decodeQueued.decrementAndGet();
+            if (!madeReady) {
+                decodeSlots.decrementAndGet();
+                startDecodes();
+            }
+        }
+    }
+
+    /**
+     * Decode a payload into the ready queue. Returns false if it was skipped or cached instead.
+     */
+    private boolean decode(Payload payload) {
+        ChunkCoord coord = payload.coord();
+        long timestamp = payload.timestamp();
+        if (!isLatest(coord, timestamp)) {
+            return false;
+        }
+        if (payload.registryAccess() == null) {
+            writeToCache(coord, payload.data(), timestamp);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        DecodedChunk chunk = ChunkSerializer.deserialize(payload.data(), payload.registryAccess(),
+                payload.codec(), payload.palette());
+        decodeNanos.addAndGet(System.nanoTime() - start);
+        if (chunk == null) {
+            // Retried from the cache once the region loads
+            decodeFailures.incrementAndGet();
+            writeToCache(coord, payload.data(), timestamp);
+            return false;
+        }
+        decoded.incrementAndGet();
+
+        ready.add(new ReadyChunk(coord, timestamp, payload.data(), chunk));
+        readyCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Apply decoded chunks until the budget is used up. At least one chunk is applied if any
+     * is ready, so the pipeline keeps moving however small the budget is.
+     */
+    public void applyReady(long budgetNanos) {
+        long start = System.nanoTime();
+        long elapsed = 0;
+        ReadyChunk next;
+        while (elapsed < budgetNanos && (next = ready.poll()) != null) {
+            readyCount.decrementAndGet();
+            try {
+                apply(next);
+            } finally {
+                next.chunk().release();
+                decodeSlots.decrementAndGet();
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        if (elapsed > 0) {
+            applyNanos.addAndGet(elapsed);
+            maxFrameNanos.accumulateAndGet(elapsed, Math::max);
+            startDecodes();
+        }
+    }
+
+    private void apply(ReadyChunk next) {
+        ChunkCoord coord = next.coord();
+        long timestamp = next.timestamp();
+        if (!isLatest(coord, timestamp)) {
+            // A newer download for this chunk is on its way
+            superseded.incrementAndGet();
+            return;
+        }
+
+        if (!SyncedChunkApplier.tryApplyDecoded(coord, next.chunk())) {
+            deferred.incrementAndGet();
+            decoder.execute(() -> writeToCache(coord, next.data(), timestamp));
+            return;
+        }
+        applied.incrementAndGet();
+        latest.remove(coord, timestamp);
+        // An older copy deferred earlier must not be applied over this one later, so it leaves
+        // the index now and only its file is deleted in the background
+        SyncedChunkCache cache = SyncedChunkCache.getInstance();
+        if (cache.forgetUpTo(coord, timestamp)) {
+            decoder.execute(() -> cache.deleteIfUntracked(coord));
+        }
+    }
+
+    // ==================== Cache ====================
+
+    private void writeToCache(ChunkCoord coord, byte[] data, long timestamp) {
+        long start = System.nanoTime();
+        synchronized (cacheLock) {
+            if (!isLatest(coord, timestamp)) {
+                return;
+            }
+            // Stored before it stops counting as in flight, so it's never seen as neither
+            SyncedChunkCache.getInstance().store(coord, data, timestamp);
+            latest.remove(coord, timestamp);
+        }
+        cacheNanos.addAndGet(System.nanoTime() - start);
+        cached.incrementAndGet();
+    }
+
+    /**
+     * Check whether a payload for a chunk is still being decoded, applied or cached.
+     */
+    public boolean isInFlight(ChunkCoord coord) {
+        return latest.containsKey(coord);
+    }
+
+    private boolean isLatest(ChunkCoord coord, long timestamp) {
+        Long newest = latest.get(coord);
+        return newest != null && newest == timestamp;
+    }
+
+    /**
+     * Write everything still in flight to the cache, on disconnect before the cache is closed,
+     * so downloads already marked as synced aren't lost. Blocks until the workers are done.
+     */
+    public void flush() {
+        decoder.shutdown();
+        try {
+            if (!decoder.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                XaeroSync.LOGGER.warn("Chunk decoding did not finish within {}s, {} downloads abandoned",
+                        FLUSH_TIMEOUT_SECONDS, decoder.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            decoder.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        ReadyChunk next;
+        while ((next = ready.poll()) != null) {
+            readyCount.decrementAndGet();
+            next.chunk().release();
+            writeToCache(next.coord(), next.data(), next.timestamp());
+        }
+        Payload payload;
+        while ((payload = pending.poll()) != null) {
+            decodeQueued.decrementAndGet();
+            writeToCache(payload.coord(), payload.data(), payload.timestamp());
+        }
+        decodeSlots.set(0);
+        latest.clear();
+        decoder = createDecoder();
+    }
+
+    // ==================== Statistics ====================
+
+    public Stats getStats() {
+        return new Stats(decodeQueued.get(), readyCount.get(), decoded.get(), decodeFailures.get(),
+                applied.get(), deferred.get(), superseded.get(), cached.get(),
+                decodeNanos.get(), applyNanos.get(), maxFrameNanos.get(), cacheNanos.get());
+    }
+
+    /**
+     * Queue depths, counts and total stage times since the pipeline was created.
+     */
+    public record Stats(int decodeQueued, int readyToApply, long decoded, long decodeFailures,
+                        long applied, long deferred, long superseded, long cached,
+                        long decodeNanos, long applyNanos, long maxFrameNanos, long cacheNanos) {
+
+        public double averageDecodeMicros() {
+            return average(decodeNanos, decoded + decodeFailures);
+        }
+
+        public double averageApplyMicros() {
+            return average(applyNanos, applied + deferred + superseded);
+        }
+
+        public double averageCacheMicros() {
+            return average(cacheNanos, cached);
+        }
+
+        private static double average(long nanos, long count) {
+            return count > 0 ? nanos / 1000.0 / count : 0;
+        }
+    }
+
+    private record Payload(ChunkCoord coord, byte[] data, long timestamp,
+                           @Nullable HolderLookup.Provider registryAccess, ChunkCodec codec, SessionPalette palette) {
+    }
+
+    // The payload is kept in case the chunk has to be cached after all
+    private record ReadyChunk(ChunkCoord coord, long timestamp, byte[] data, DecodedChunk chunk) {
+    }
+}
@@ -1,6 +1,8 @@
 package net.fivew14.xaerosync.client.sync;
 
 import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCodec;
+import net.fivew14.xaerosync.common.TileSections;
 import net.fivew14.xaerosync.mixin.accessor.MapPixelAccessor;
 import net.minecraft.core.HolderLookup;
 import net.minecraft.core.registries.Registries;
@@ -20,16 +22,22 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Serializes and deserializes Xaero MapTileChunk data for network transmission.
  * Uses a simplified format optimized for sync rather than full file storage.
+ * Each tile is serialized as a separate section, see {@link TileSections}. Section palettes
+ * refer to the server's global palette where it has an ID for an entry.
  */
 public class ChunkSerializer {
 
-    private static final byte CURRENT_VERSION = 2;
+    // Last version with a single palette for the whole chunk, newer payloads are TileSections
+    private static final byte LEGACY_VERSION = 2;
+
+    private static final int TILE_BLOCKS = 16 * 16;
+
+    // Far above what Xaero keeps per block, guards against bogus overlay counts
+    private static final int MAX_OVERLAYS_PER_BLOCK = 255;
 
     private static byte getLight(MapPixel pixel) {
         if (pixel instanceof MapPixelAccessor accessor) {
@@ -48,11 +56,17 @@ public class ChunkSerializer {
     }
 
     /**
-     * Serialize a MapTileChunk to compressed byte array.
+     * Serialize a MapTileChunk to compressed byte array, along with its content hash.
      * Returns null if the chunk is not fully loaded (all 4 tiles must be present and loaded).
+     *
+     * @param dirtyTiles mask of tiles changed since the last upload, also serialized on their
+     *                   own as a delta unless it covers none or all of the tiles
+     * @param codec      compression agreed with the server
+     * @param palette    IDs the server has assigned so far
      */
     @Nullable
-    public static byte[] serialize(MapTileChunk chunk, HolderLookup.Provider registryAccess) {
+    public static SerializedChunk serialize(MapTileChunk chunk, HolderLookup.Provider registryAccess, int dirtyTiles,
+                                            ChunkCodec codec, SessionPalette palette) {
         if (chunk == null) return null;
 
         // Check if all 4 tiles are present and loaded - don't sync partial chunks
@@ -68,297 +82,455 @@ public class ChunkSerializer {
         }
 
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (GZIPOutputStream gzip = new GZIPOutputStream(baos);
-                 DataOutputStream dos = new DataOutputStream(gzip)) {
-
-                // Header
-                dos.writeByte(CURRENT_VERSION);
-                dos.writeInt(chunk.getX());
-                dos.writeInt(chunk.getZ());
-
-                // Build block state palette for this chunk
-                Map<BlockState, Integer> blockPalette = new HashMap<>();
-                List<BlockState> blockPaletteList = new ArrayList<>();
-
-                // Build biome palette
-                Map<ResourceKey<Biome>, Integer> biomePalette = new HashMap<>();
-                List<ResourceKey<Biome>> biomePaletteList = new ArrayList<>();
-
-                // First pass: collect palette entries
-                for (int tx = 0; tx < 4; tx++) {
-                    for (int tz = 0; tz < 4; tz++) {
-                        MapTile tile = chunk.getTile(tx, tz);
-                        if (tile == null || !tile.isLoaded()) continue;
-
-                        for (int x = 0; x < 16; x++) {
-                            for (int z = 0; z < 16; z++) {
-                                MapBlock block = tile.getBlock(x, z);
-                                if (block == null) continue;
-
-                                BlockState state = block.getState();
-                                if (state != null && !blockPalette.containsKey(state)) {
-                                    blockPalette.put(state, blockPaletteList.size());
-                                    blockPaletteList.add(state);
-                                }
-
-                                ResourceKey<Biome> biome = block.getBiome();
-                                if (biome != null && !biomePalette.containsKey(biome)) {
-                                    biomePalette.put(biome, biomePaletteList.size());
-                                    biomePaletteList.add(biome);
-                                }
-
-                                // Also check overlays
-                                ArrayList<Overlay> overlays = block.getOverlays();
-                                if (overlays != null) {
-                                    for (Overlay overlay : overlays) {
-                                        BlockState overlayState = overlay.getState();
-                                        if (overlayState != null && !blockPalette.containsKey(overlayState)) {
-                                            blockPalette.put(overlayState, blockPaletteList.size());
-                                            blockPaletteList.add(overlayState);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+            // Each tile is a section of its own, so tiles can be uploaded and merged separately
+            HolderLookup<Block> blockLookup = registryAccess.lookupOrThrow(Registries.BLOCK);
+            TileSections sections = new TileSections(chunk.getX(), chunk.getZ());
+            for (int tx = 0; tx < 4; tx++) {
+                for (int tz = 0; tz < 4; tz++) {
+                    sections.setTile(TileSections.tileIndex(tx, tz), 0,
+                            serializeTile(chunk.getTile(tx, tz), palette, blockLookup));
                 }
+            }
 
-                // Write palettes
-                writeBlockPalette(dos, blockPaletteList);
-                writeBiomePalette(dos, biomePaletteList);
-
-                // Write tiles
-                for (int tx = 0; tx < 4; tx++) {
-                    for (int tz = 0; tz < 4; tz++) {
-                        MapTile tile = chunk.getTile(tx, tz);
-                        if (tile == null || !tile.isLoaded()) {
-                            dos.writeByte(0); // not present
-                            continue;
-                        }
+            byte[] delta = null;
+            dirtyTiles &= TileSections.ALL_TILES;
+            if (dirtyTiles != 0 && dirtyTiles != TileSections.ALL_TILES) {
+                delta = sections.subset(dirtyTiles).toCompressed(codec);
+            }
+            return new SerializedChunk(sections.toCompressed(codec), sections.contentHash(), delta);
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to serialize chunk", e);
+            return null;
+        }
+    }
 
-                        dos.writeByte(1); // present
-                        dos.writeByte(tile.getWorldInterpretationVersion());
-                        dos.writeInt(tile.getWrittenCaveStart());
-                        dos.writeByte(tile.getWrittenCaveDepth());
+    /**
+     * Serialize one tile with its own palettes.
+     */
+    private static byte[] serializeTile(MapTile tile, SessionPalette palette,
+                                        HolderLookup<Block> blockLookup) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            // Build block state palette for this tile
+            Map<BlockState, Integer> blockPalette = new HashMap<>();
+            List<BlockState> blockPaletteList = new ArrayList<>();
+
+            // Build biome palette
+            Map<ResourceKey<Biome>, Integer> biomePalette = new HashMap<>();
+            List<ResourceKey<Biome>> biomePaletteList = new ArrayList<>();
+
+            // First pass: collect palette entries
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    MapBlock block = tile.getBlock(x, z);
+                    if (block == null) continue;
+
+                    BlockState state = block.getState();
+                    if (state != null && !blockPalette.containsKey(state)) {
+                        blockPalette.put(state, blockPaletteList.size());
+                        blockPaletteList.add(state);
+                    }
 
-                        // Write blocks
-                        for (int x = 0; x < 16; x++) {
-                            for (int z = 0; z < 16; z++) {
-                                MapBlock block = tile.getBlock(x, z);
-                                serializeBlock(dos, block, blockPalette, biomePalette);
+                    ResourceKey<Biome> biome = block.getBiome();
+                    if (biome != null && !biomePalette.containsKey(biome)) {
+                        biomePalette.put(biome, biomePaletteList.size());
+                        biomePaletteList.add(biome);
+                    }
+
+                    // Also check overlays
+                    ArrayList<Overlay> overlays = block.getOverlays();
+                    if (overlays != null) {
+                        for (Overlay overlay : overlays) {
+                            BlockState overlayState = overlay.getState();
+                            if (overlayState != null && !blockPalette.containsKey(overlayState)) {
+                                blockPalette.put(overlayState, blockPaletteList.size());
+                                blockPaletteList.add(overlayState);
                             }
                         }
                     }
                 }
             }
 
-            return baos.toByteArray();
-        } catch (IOException e) {
-            XaeroSync.LOGGER.error("Failed to serialize chunk", e);
-            return null;
+            // Write palettes
+            writeBlockPalette(dos, blockPaletteList, palette, blockLookup);
+            writeBiomePalette(dos, biomePaletteList, palette);
+
+            // Write tile header and blocks
+            dos.writeByte(tile.getWorldInterpretationVersion());
+            dos.writeInt(tile.getWrittenCaveStart());
+            dos.writeByte(tile.getWrittenCaveDepth());
+            writeBlockColumns(dos, tile, blockPalette, biomePalette);
         }
+        return baos.toByteArray();
     }
 
-    private static void writeBlockPalette(DataOutputStream dos, List<BlockState> palette) throws IOException {
+    /**
+     * Write each entry as its global ID + 1, or as 0 followed by the entry itself if the server
+     * hasn't assigned it an ID yet.
+     */
+    private static void writeBlockPalette(DataOutputStream dos, List<BlockState> palette,
+                                          SessionPalette globalPalette, HolderLookup<Block> blockLookup) throws IOException {
         writeVarInt(dos, palette.size());
         for (BlockState state : palette) {
-            CompoundTag tag = NbtUtils.writeBlockState(state);
-            NbtIo.write(tag, dos);
+            int id = globalPalette.getBlockStateId(state, blockLookup);
+            writeVarInt(dos, id + 1);
+            if (id < 0) {
+                CompoundTag tag = NbtUtils.writeBlockState(state);
+                NbtIo.write(tag, dos);
+            }
         }
     }
 
-    private static void writeBiomePalette(DataOutputStream dos, List<ResourceKey<Biome>> palette) throws IOException {
+    private static void writeBiomePalette(DataOutputStream dos, List<ResourceKey<Biome>> palette,
+                                          SessionPalette globalPalette) throws IOException {
         writeVarInt(dos, palette.size());
         for (ResourceKey<Biome> biome : palette) {
-            dos.writeUTF(biome.location().toString());
+            int id = globalPalette.getBiomeId(biome);
+            writeVarInt(dos, id + 1);
+            if (id < 0) {
+                dos.writeUTF(biome.location().toString());
+            }
         }
     }
 
-    private static void serializeBlock(DataOutputStream dos, @Nullable MapBlock block,
-                                       Map<BlockState, Integer> blockPalette,
-                                       Map<ResourceKey<Biome>, Integer> biomePalette) throws IOException {
-        if (block == null) {
-            dos.writeByte(0); // null block marker
-            return;
-        }
+    /**
+     * Decode a compressed payload into a pooled {@link DecodedChunk}, which the caller must release
+     * once applied. Tiles missing from a delta payload are left out. Fails if the payload refers
+     * to global palette IDs the server hasn't announced yet.
+     */
+    @Nullable
+    public static DecodedChunk deserialize(byte[] data, HolderLookup.Provider registryAccess, ChunkCodec codec,
+                                           SessionPalette palette) {
+        if (data == null || data.length == 0) return null;
 
-        dos.writeByte(1); // block present
+        DecodedChunk chunk = null;
+        try {
+            byte[] raw = codec.decompress(data);
+            HolderLookup<Block> blockLookup = registryAccess.lookupOrThrow(Registries.BLOCK);
+
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw));
+            byte version = dis.readByte();
+            if (version < 1 || version > TileSections.FORMAT_VERSION) {
+                XaeroSync.LOGGER.warn("Unknown chunk serialization version: {}", version);
+                return null;
+            }
 
-        // Write state palette index
-        BlockState state = block.getState();
-        if (state == null) {
-            writeVarInt(dos, -1);
-        } else {
-            writeVarInt(dos, blockPalette.getOrDefault(state, -1));
+            chunk = DecodedChunk.acquire(dis.readInt(), dis.readInt());
+            if (version >= TileSections.NAMED_PALETTE_VERSION) {
+                readSections(dis, version, chunk, blockLookup, palette);
+            } else {
+                readLegacyTiles(dis, version, chunk, blockLookup);
+            }
+            return chunk;
+        } catch (UnknownPaletteIdException e) {
+            // Expected while the server's palette announcement is still on its way
+            XaeroSync.LOGGER.debug("Deferring chunk ({}, {}): {}", chunk.getChunkX(), chunk.getChunkZ(), e.getMessage());
+            chunk.release();
+            return null;
+        } catch (IOException e) {
+            if (chunk != null) {
+                chunk.release();
+            }
+            XaeroSync.LOGGER.error("Failed to deserialize chunk", e);
+            return null;
         }
+    }
 
-        // Height data
-        dos.writeShort(block.getHeight());
-        dos.writeShort(block.getTopHeight());
-
-        // Light and glow (using reflection)
-        dos.writeByte(getLight(block));
-        dos.writeBoolean(isGlowing(block));
+    /**
+     * A payload refers to a global palette ID the server hasn't announced yet. Not an error,
+     * the chunk is decoded again once the announcement arrives.
+     */
+    private static final class UnknownPaletteIdException extends IOException {
+        UnknownPaletteIdException(String kind, int id) {
+            super("unknown global palette " + kind + " " + id);
+        }
+    }
 
-        // Slopes
-        dos.writeByte(block.getVerticalSlope());
-        dos.writeByte(block.getDiagonalSlope());
+    /**
+     * Read the tiles of a {@link TileSections} payload in place, after the chunk coordinates,
+     * rather than copying each section out first.
+     */
+    private static void readSections(DataInputStream dis, byte version, DecodedChunk chunk,
+                                     HolderLookup<Block> blockLookup, SessionPalette palette) throws IOException {
+        int mask = dis.readUnsignedShort();
+        for (int i = 0; i < TileSections.TILE_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+
+            dis.readLong(); // Tile timestamp, only the server uses it
+            int length = dis.readInt();
+            int remaining = dis.available() - length;
+            if (length < 0 || remaining < 0) {
+                throw new IOException("Tile section length " + length + " exceeds payload");
+            }
 
-        // Biome
-        ResourceKey<Biome> biome = block.getBiome();
-        if (biome == null) {
-            writeVarInt(dos, -1);
-        } else {
-            writeVarInt(dos, biomePalette.getOrDefault(biome, -1));
-        }
+            DecodedChunk.Tile tile = chunk.beginTile(i);
+            if (version == TileSections.NAMED_PALETTE_VERSION) {
+                readBlockPalette(dis, blockLookup, tile.blockPalette);
+                readBiomePalette(dis, tile.biomePalette);
+            } else {
+                readBlockPalette(dis, blockLookup, palette, tile.blockPalette);
+                readBiomePalette(dis, palette, tile.biomePalette);
+            }
+            if (version == TileSections.FORMAT_VERSION) {
+                readBlockColumns(dis, tile);
+            } else {
+                readBlocks(dis, version, tile);
+            }
 
-        // Overlays
-        ArrayList<Overlay> overlays = block.getOverlays();
-        if (overlays == null || overlays.isEmpty()) {
-            dos.writeByte(0);
-        } else {
-            dos.writeByte(overlays.size());
-            for (Overlay overlay : overlays) {
-                BlockState overlayState = overlay.getState();
-                if (overlayState == null) {
-                    writeVarInt(dos, -1);
-                } else {
-                    writeVarInt(dos, blockPalette.getOrDefault(overlayState, -1));
-                }
-                dos.writeByte(getLight(overlay));
-                dos.writeBoolean(isGlowing(overlay));
-                int opacity = overlay.getOpacity();
-                dos.writeByte((byte) opacity);
+            if (dis.available() != remaining) {
+                throw new IOException("Tile section " + i + " doesn't match its length " + length);
             }
         }
     }
 
     /**
-     * Deserialize compressed byte array back to chunk data.
+     * Versions 1 and 2: one palette for the whole chunk, then each tile behind a presence byte.
      */
-    @Nullable
-    public static DeserializedChunk deserialize(byte[] data, HolderLookup.Provider registryAccess) {
-        if (data == null || data.length == 0) return null;
+    private static void readLegacyTiles(DataInputStream dis, byte version, DecodedChunk chunk,
+                                        HolderLookup<Block> blockLookup) throws IOException {
+        List<BlockState> blockPalette = new ArrayList<>();
+        List<ResourceKey<Biome>> biomePalette = new ArrayList<>();
+        readBlockPalette(dis, blockLookup, blockPalette);
+        readBiomePalette(dis, biomePalette);
 
-        try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            try (GZIPInputStream gzip = new GZIPInputStream(bais);
-                 DataInputStream dis = new DataInputStream(gzip)) {
-
-                byte version = dis.readByte();
-                if (version < 1 || version > CURRENT_VERSION) {
-                    XaeroSync.LOGGER.warn("Unknown chunk serialization version: {}", version);
-                    return null;
-                }
-
-                int chunkX = dis.readInt();
-                int chunkZ = dis.readInt();
-
-                // Read palettes
-                HolderLookup<Block> blockLookup = registryAccess.lookupOrThrow(Registries.BLOCK);
-                List<BlockState> blockPalette = readBlockPalette(dis, blockLookup);
-                List<ResourceKey<Biome>> biomePalette = readBiomePalette(dis);
-
-                // Read tiles
-                DeserializedTile[][] tiles = new DeserializedTile[4][4];
-                for (int tx = 0; tx < 4; tx++) {
-                    for (int tz = 0; tz < 4; tz++) {
-                        byte present = dis.readByte();
-                        if (present == 0) {
-                            tiles[tx][tz] = null;
-                            continue;
-                        }
-
-                        byte worldInterpretationVersion = dis.readByte();
-                        int writtenCaveStart = dis.readInt();
-                        byte writtenCaveDepth = dis.readByte();
+        for (int tx = 0; tx < 4; tx++) {
+            for (int tz = 0; tz < 4; tz++) {
+                if (dis.readByte() == 0) continue;
 
-                        DeserializedBlock[][] blocks = new DeserializedBlock[16][16];
-                        for (int x = 0; x < 16; x++) {
-                            for (int z = 0; z < 16; z++) {
-                                blocks[x][z] = deserializeBlock(dis, version, blockPalette, biomePalette);
-                            }
-                        }
+                DecodedChunk.Tile tile = chunk.beginTile(TileSections.tileIndex(tx, tz));
+                tile.blockPalette.addAll(blockPalette);
+                tile.biomePalette.addAll(biomePalette);
+                readBlocks(dis, version, tile);
+            }
+        }
+    }
 
-                        tiles[tx][tz] = new DeserializedTile(
-                                worldInterpretationVersion, writtenCaveStart, writtenCaveDepth, blocks
-                        );
-                    }
-                }
+    private static void readTileHeader(DataInputStream dis, DecodedChunk.Tile tile) throws IOException {
+        tile.worldInterpretationVersion = dis.readByte();
+        tile.writtenCaveStart = dis.readInt();
+        tile.writtenCaveDepth = dis.readByte();
+    }
 
-                return new DeserializedChunk(chunkX, chunkZ, tiles);
+    /**
+     * Read a tile's blocks written one after another, as before version 5.
+     */
+    private static void readBlocks(DataInputStream dis, byte version, DecodedChunk.Tile tile) throws IOException {
+        readTileHeader(dis, tile);
+        for (int i = 0; i < DecodedChunk.Tile.BLOCKS; i++) {
+            if (dis.readByte() == 0) continue;
+
+            tile.setPresent(i);
+            int block = tile.blockCount++;
+            // Palette indices were written as they are, -1 for none
+            tile.states[block] = readVarInt(dis) + 1;
+            tile.heights[block] = dis.readShort();
+            tile.topHeights[block] = dis.readShort();
+            tile.light[block] = dis.readByte();
+            tile.glowing[block] = dis.readBoolean() ? 1 : 0;
+            tile.verticalSlopes[block] = dis.readByte();
+            tile.diagonalSlopes[block] = dis.readByte();
+            tile.biomes[block] = readVarInt(dis) + 1;
+
+            int overlayCount = dis.readByte() & 0xFF;
+            tile.overlayCounts[block] = overlayCount;
+            tile.ensureOverlayCapacity(tile.overlayCount + overlayCount);
+            for (int j = 0; j < overlayCount; j++) {
+                int overlay = tile.overlayCount++;
+                tile.overlayStates[overlay] = readVarInt(dis) + 1;
+                tile.overlayLight[overlay] = dis.readByte();
+                // Version 2+ includes glowing for overlays
+                tile.overlayGlowing[overlay] = version >= 2 && dis.readBoolean() ? 1 : 0;
+                tile.overlayOpacity[overlay] = dis.readByte();
             }
-        } catch (IOException e) {
-            XaeroSync.LOGGER.error("Failed to deserialize chunk", e);
-            return null;
         }
     }
 
-    private static List<BlockState> readBlockPalette(DataInputStream dis, HolderLookup<Block> blockLookup) throws IOException {
+    private static void readBlockPalette(DataInputStream dis, HolderLookup<Block> blockLookup,
+                                         List<BlockState> palette) throws IOException {
         int size = readVarInt(dis);
-        List<BlockState> palette = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
             CompoundTag tag = NbtIo.read(dis);
             BlockState state = NbtUtils.readBlockState(blockLookup, tag);
             palette.add(state);
         }
-        return palette;
     }
 
-    private static List<ResourceKey<Biome>> readBiomePalette(DataInputStream dis) throws IOException {
+    private static void readBiomePalette(DataInputStream dis, List<ResourceKey<Biome>> palette) throws IOException {
         int size = readVarInt(dis);
-        List<ResourceKey<Biome>> palette = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
-            String biomeId = dis.readUTF();
-            ResourceLocation loc = ResourceLocation.tryParse(biomeId);
-            if (loc != null) {
-                palette.add(ResourceKey.create(Registries.BIOME, loc));
-            } else {
-                palette.add(null);
+            palette.add(readBiome(dis));
+        }
+    }
+
+    /**
+     * Read a palette of global IDs, see {@link #writeBlockPalette}.
+     */
+    private static void readBlockPalette(DataInputStream dis, HolderLookup<Block> blockLookup,
+                                         SessionPalette globalPalette, List<BlockState> palette) throws IOException {
+        int size = readVarInt(dis);
+        for (int i = 0; i < size; i++) {
+            int code = readVarInt(dis);
+            if (code == 0) {
+                palette.add(NbtUtils.readBlockState(blockLookup, NbtIo.read(dis)));
+                continue;
+            }
+            BlockState state = globalPalette.getBlockState(code - 1, blockLookup);
+            if (state == null) {
+                throw new UnknownPaletteIdException("block state", code - 1);
             }
+            palette.add(state);
         }
-        return palette;
     }
 
-    @Nullable
-    private static DeserializedBlock deserializeBlock(DataInputStream dis,
-                                                      byte version,
-                                                      List<BlockState> blockPalette,
-                                                      List<ResourceKey<Biome>> biomePalette) throws IOException {
-        byte present = dis.readByte();
-        if (present == 0) {
-            return null;
+    private static void readBiomePalette(DataInputStream dis, SessionPalette globalPalette,
+                                         List<ResourceKey<Biome>> palette) throws IOException {
+        int size = readVarInt(dis);
+        for (int i = 0; i < size; i++) {
+            int code = readVarInt(dis);
+            if (code == 0) {
+                palette.add(readBiome(dis));
+                continue;
+            }
+            if (code - 1 >= globalPalette.getBiomeCount()) {
+                throw new UnknownPaletteIdException("biome", code - 1);
+            }
+            palette.add(globalPalette.getBiome(code - 1));
         }
+    }
 
-        int stateIdx = readVarInt(dis);
-        BlockState state = stateIdx >= 0 && stateIdx < blockPalette.size() ? blockPalette.get(stateIdx) : null;
+    @Nullable
+    private static ResourceKey<Biome> readBiome(DataInputStream dis) throws IOException {
+        ResourceLocation loc = ResourceLocation.tryParse(dis.readUTF());
+        return loc != null ? ResourceKey.create(Registries.BIOME, loc) : null;
+    }
 
-        short height = dis.readShort();
-        short topHeight = dis.readShort();
-        byte light = dis.readByte();
-        boolean glowing = dis.readBoolean();
-        byte verticalSlope = dis.readByte();
-        byte diagonalSlope = dis.readByte();
+    // ==================== Block Columns ====================
 
-        int biomeIdx = readVarInt(dis);
-        ResourceKey<Biome> biome = biomeIdx >= 0 && biomeIdx < biomePalette.size() ? biomePalette.get(biomeIdx) : null;
+    /**
+     * Write a tile's blocks field by field, each field a column over the present blocks in
+     * x-major order. Neighbouring blocks have similar heights and mostly equal light, slopes and
+     * biomes, which compresses far better than fields interleaved block by block.
+     * <p>
+     * Layout: 32 byte presence bitmap, then packed block state codes, height deltas, then runs
+     * of top height minus height, light, glowing, vertical slope, diagonal slope, biome code and
+     * overlay count. Then for all overlays of all blocks in order: packed state codes, then runs
+     * of light, glowing and opacity. Palette codes are index + 1, 0 for none.
+     */
+    private static void writeBlockColumns(DataOutputStream dos, MapTile tile,
+                                          Map<BlockState, Integer> blockPalette,
+                                          Map<ResourceKey<Biome>, Integer> biomePalette) throws IOException {
+        MapBlock[] blocks = new MapBlock[TILE_BLOCKS];
+        byte[] presence = new byte[TILE_BLOCKS / 8];
+        int count = 0;
+        for (int i = 0; i < TILE_BLOCKS; i++) {
+            MapBlock block = tile.getBlock(i >> 4, i & 15);
+            if (block != null) {
+                presence[i >> 3] |= (byte) (1 << (i & 7));
+                blocks[count++] = block;
+            }
+        }
+        dos.write(presence);
+
+        int[] states = new int[count];
+        int[] heights = new int[count];
+        int[] topHeights = new int[count];
+        int[] light = new int[count];
+        int[] glowing = new int[count];
+        int[] verticalSlopes = new int[count];
+        int[] diagonalSlopes = new int[count];
+        int[] biomes = new int[count];
+        int[] overlayCounts = new int[count];
+        List<Overlay> overlays = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MapBlock block = blocks[i];
+            states[i] = paletteCode(blockPalette, block.getState());
+            heights[i] = block.getHeight();
+            topHeights[i] = block.getTopHeight() - block.getHeight();
+            light[i] = getLight(block);
+            glowing[i] = isGlowing(block) ? 1 : 0;
+            verticalSlopes[i] = block.getVerticalSlope();
+            diagonalSlopes[i] = block.getDiagonalSlope();
+            biomes[i] = paletteCode(biomePalette, block.getBiome());
+            ArrayList<Overlay> blockOverlays = block.getOverlays();
+            if (blockOverlays != null) {
+                overlayCounts[i] = blockOverlays.size();
+                overlays.addAll(blockOverlays);
+            }
+        }
 
-        int overlayCount = dis.readByte() & 0xFF;
-        List<DeserializedOverlay> overlays = new ArrayList<>(overlayCount);
+        int stateBits = ColumnEncoding.bitsFor(blockPalette.size());
+        ColumnEncoding.writePacked(dos, states, count, stateBits);
+        ColumnEncoding.writeDeltas(dos, heights, count);
+        ColumnEncoding.writeRuns(dos, topHeights, count);
+        ColumnEncoding.writeRuns(dos, light, count);
+        ColumnEncoding.writeRuns(dos, glowing, count);
+        ColumnEncoding.writeRuns(dos, verticalSlopes, count);
+        ColumnEncoding.writeRuns(dos, diagonalSlopes, count);
+        ColumnEncoding.writeRuns(dos, biomes, count);
+        ColumnEncoding.writeRuns(dos, overlayCounts, count);
+
+        int overlayCount = overlays.size();
+        int[] overlayStates = new int[overlayCount];
+        int[] overlayLight = new int[overlayCount];
+        int[] overlayGlowing = new int[overlayCount];
+        int[] overlayOpacity = new int[overlayCount];
         for (int i = 0; i < overlayCount; i++) {
-            int overlayStateIdx = readVarInt(dis);
-            BlockState overlayState = overlayStateIdx >= 0 && overlayStateIdx < blockPalette.size()
-                    ? blockPalette.get(overlayStateIdx) : null;
-            byte overlayLight = dis.readByte();
-            // Version 2+ includes glowing for overlays
-            boolean overlayGlowing = version >= 2 && dis.readBoolean();
-            byte overlayOpacity = dis.readByte();
-            overlays.add(new DeserializedOverlay(overlayState, overlayLight, overlayGlowing, overlayOpacity));
+            Overlay overlay = overlays.get(i);
+            overlayStates[i] = paletteCode(blockPalette, overlay.getState());
+            overlayLight[i] = getLight(overlay);
+            overlayGlowing[i] = isGlowing(overlay) ? 1 : 0;
+            overlayOpacity[i] = (byte) overlay.getOpacity();
+        }
+        ColumnEncoding.writePacked(dos, overlayStates, overlayCount, stateBits);
+        ColumnEncoding.writeRuns(dos, overlayLight, overlayCount);
+        ColumnEncoding.writeRuns(dos, overlayGlowing, overlayCount);
+        ColumnEncoding.writeRuns(dos, overlayOpacity, overlayCount);
+    }
+
+    /**
+     * Read blocks written by {@link #writeBlockColumns}, straight into the tile's columns.
+     */
+    private static void readBlockColumns(DataInputStream dis, DecodedChunk.Tile tile) throws IOException {
+        readTileHeader(dis, tile);
+        dis.readFully(tile.presence);
+        int count = 0;
+        for (byte bits : tile.presence) {
+            count += Integer.bitCount(bits & 0xFF);
+        }
+        tile.blockCount = count;
+
+        int stateBits = ColumnEncoding.bitsFor(tile.blockPalette.size());
+        ColumnEncoding.readPacked(dis, tile.states, count, stateBits);
+        ColumnEncoding.readDeltas(dis, tile.heights, count);
+        ColumnEncoding.readRuns(dis, tile.topHeights, count);
+        for (int i = 0; i < count; i++) {
+            tile.topHeights[i] += tile.heights[i];
         }
+        ColumnEncoding.readRuns(dis, tile.light, count);
+        ColumnEncoding.readRuns(dis, tile.glowing, count);
+        ColumnEncoding.readRuns(dis, tile.verticalSlopes, count);
+        ColumnEncoding.readRuns(dis, tile.diagonalSlopes, count);
+        ColumnEncoding.readRuns(dis, tile.biomes, count);
+        ColumnEncoding.readRuns(dis, tile.overlayCounts, count);
+
+        int overlayCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (tile.overlayCounts[i] < 0 || tile.overlayCounts[i] > MAX_OVERLAYS_PER_BLOCK) {
+                throw new IOException("Invalid overlay count " + tile.overlayCounts[i]);
+            }
+            overlayCount += tile.overlayCounts[i];
+        }
+        tile.ensureOverlayCapacity(overlayCount);
+        tile.overlayCount = overlayCount;
+        ColumnEncoding.readPacked(dis, tile.overlayStates, overlayCount, stateBits);
+        ColumnEncoding.readRuns(dis, tile.overlayLight, overlayCount);
+        ColumnEncoding.readRuns(dis, tile.overlayGlowing, overlayCount);
+        ColumnEncoding.readRuns(dis, tile.overlayOpacity, overlayCount);
+    }
 
-        return new DeserializedBlock(state, height, topHeight, light, glowing,
-                verticalSlope, diagonalSlope, biome, overlays);
+    private static <T> int paletteCode(Map<T, Integer> palette, @Nullable T entry) {
+        Integer index = entry != null ? palette.get(entry) : null;
+        return index != null ? index + 1 : 0;
     }
 
     // ==================== VarInt Helpers ====================
@@ -385,35 +557,10 @@ public class ChunkSerializer {
 
     // ==================== Data Classes ====================
 
-    public record DeserializedChunk(int chunkX, int chunkZ, DeserializedTile[][] tiles) {
-    }
-
-    public record DeserializedTile(
-            byte worldInterpretationVersion,
-            int writtenCaveStart,
-            byte writtenCaveDepth,
-            DeserializedBlock[][] blocks
-    ) {
-    }
-
-    public record DeserializedBlock(
-            BlockState state,
-            short height,
-            short topHeight,
-            byte light,
-            boolean glowing,
-            byte verticalSlope,
-            byte diagonalSlope,
-            ResourceKey<Biome> biome,
-            List<DeserializedOverlay> overlays
-    ) {
-    }
-
-    public record DeserializedOverlay(
-            BlockState state,
-            byte light,
-            boolean glowing,
-            byte opacity
-    ) {
+    /**
+     * A serialized chunk. The delta holds only the dirty tiles, or is null if there's no point
+     * sending them separately.
+     */
+    public record SerializedChunk(byte[] data, long contentHash, @Nullable byte[] delta) {
     }
 }
@@ -2,12 +2,17 @@ package net.fivew14.xaerosync.client.sync;
 
 import net.fivew14.xaerosync.Config;
 import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCodec;
 import net.fivew14.xaerosync.common.ChunkCoord;
 import net.fivew14.xaerosync.common.RateLimiter;
+import net.fivew14.xaerosync.common.RegistryHashTree;
+import net.fivew14.xaerosync.common.SpatialQueue;
+import net.fivew14.xaerosync.common.TileSections;
 import net.fivew14.xaerosync.networking.XaeroSyncNetworking;
 import net.fivew14.xaerosync.networking.packets.*;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.core.HolderLookup;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraftforge.network.PacketDistributor;
 import xaero.map.MapProcessor;
@@ -36,6 +41,20 @@ public class ClientSyncManager {
     private boolean connected = false;
     private boolean registryComplete = false;
 
+    // Registry request, sent once the world ID is known so saved server timestamps can be used
+    private boolean registryRequestPending = false;
+    private long registryRequestDeadline = 0;
+    private long serverRegistryEpoch = 0;
+    // Registry asked for this connection; a config resent later (e.g. with a new dictionary) doesn't ask again
+    private boolean registryRequested = false;
+
+    // Registry reconciliation: hash trees of the saved server state, the nodes last asked
+    // about, and the hashes received so far for them. Trees are null when not reconciling.
+    @Nullable
+    private Map<ResourceLocation, RegistryHashTree> reconcileTrees = null;
+    private List<C2SRegistryReconcilePacket.Node> reconcileRequested = new ArrayList<>();
+    private final List<S2CRegistryHashesPacket.NodeHash> reconcileHashes = new ArrayList<>();
+
     // Server config (received from S2CSyncConfigPacket)
     private int serverMaxUploadPerSec = 2;
     private int serverMaxDownloadPerSec = 2;
@@ -43,24 +62,40 @@ public class ClientSyncManager {
     private List<String> allowedDimensions = new ArrayList<>();
     private List<String> blacklistedDimensions = new ArrayList<>();
 
+    // Chunk payload compression, with the server's dictionary once it has sent it
+    private ChunkCodec chunkCodec = ChunkCodec.DEFAULT;
+
+    // Server-assigned IDs for block states and biomes in chunk payloads
+    private final SessionPalette sessionPalette = new SessionPalette();
+
+    // Stores and decodes downloads off the client thread, then applies them within a frame budget
+    private final ChunkApplyPipeline applyPipeline = new ChunkApplyPipeline();
+
     // Tracking
     private final ClientTimestampTracker timestampTracker = new ClientTimestampTracker();
 
     // Rate limiters (use minimum of client and server limits)
     private RateLimiter uploadLimiter;
     private RateLimiter downloadLimiter;
+    private RateLimiter uploadByteLimiter;
+    private RateLimiter downloadByteLimiter;
 
     // Queues - priority based on distance to player (closer = higher priority)
-    private final Set<ChunkCoord> uploadQueueSet = ConcurrentHashMap.newKeySet();
-    private final Set<ChunkCoord> downloadQueueSet = ConcurrentHashMap.newKeySet();
-
-    // Current player chunk position for distance calculations
-    private volatile int playerChunkX = 0;
-    private volatile int playerChunkZ = 0;
+    private final SpatialQueue uploadQueue = new SpatialQueue();
+    private final SpatialQueue downloadQueue = new SpatialQueue();
 
     // Pending chunks (waiting for data from server)
     private final Set<ChunkCoord> pendingDownloads = Collections.synchronizedSet(new HashSet<>());
 
+    // Uploads waiting for the server's answer
+    private final Map<ChunkCoord, UploadAttempt> uploadsInFlight = new HashMap<>();
+
+    // Tiles changed since each chunk was last uploaded, as TileSections masks
+    private final Map<ChunkCoord, Integer> dirtyTiles = new ConcurrentHashMap<>();
+
+    // Chunks whose upload the server turned down, until when to hold off retrying. Not saved.
+    private final Map<ChunkCoord, Long> uploadBackoff = new ConcurrentHashMap<>();
+
     // Local timestamp update interval - don't update localTimestamp more often than this
     // This prevents constant timestamp updates from Xaero's per-tile writeChunk calls
     // Should match or be close to server's min update interval since we can't upload more often anyway
@@ -73,9 +108,15 @@ public class ClientSyncManager {
     private static final long CACHE_PROCESS_INTERVAL_MS = 1_000; // Every second
     private static final int CACHE_PROCESS_MAX_CHUNKS = 5; // Max chunks per tick
 
+    // How long to wait for the world ID before requesting a full registry without it
+    private static final long REGISTRY_REQUEST_TIMEOUT_MS = 5_000;
+
     // Re-queue timer for failed uploads (every 30 seconds)
     private static final long REQUEUE_INTERVAL_MS = 30_000;
 
+    // Minimum wait before retrying an upload the server rejected as outdated or too soon
+    private static final long REJECTED_UPLOAD_BACKOFF_MS = 5 * 60 * 1000;
+
     // Debounce map: tracks when chunks were last queued for upload to avoid rapid re-queueing
     private static final long DEBOUNCE_INTERVAL_MS = 5_000;
     private final Map<ChunkCoord, Long> recentlyQueuedChunks = new ConcurrentHashMap<>();
@@ -86,9 +127,14 @@ public class ClientSyncManager {
     private long lastDebounceCleanupTime = 0;
     private long lastRequeueTime = 0;
 
+    // Download requests wait until this time after the server's queue for us was full
+    private long downloadRetryTime = 0;
+
     private ClientSyncManager() {
         uploadLimiter = new RateLimiter(Config.CLIENT_MAX_UPLOAD_PER_SECOND.get());
         downloadLimiter = new RateLimiter(Config.CLIENT_MAX_DOWNLOAD_PER_SECOND.get());
+        uploadByteLimiter = RateLimiter.ofKilobytesPerSecond(Config.CLIENT_MAX_UPLOAD_KB_PER_SECOND.get());
+        downloadByteLimiter = RateLimiter.ofKilobytesPerSecond(Config.CLIENT_MAX_DOWNLOAD_KB_PER_SECOND.get());
     }
 
     public static ClientSyncManager getInstance() {
@@ -110,10 +156,18 @@ public class ClientSyncManager {
     public void onConnect() {
         connected = true;
         registryComplete = false;
+        registryRequestPending = false;
+        registryRequested = false;
+        reconcileTrees = null;
+        reconcileHashes.clear();
         timestampTracker.clearServerTimestamps();
-        uploadQueueSet.clear();
-        downloadQueueSet.clear();
+        uploadQueue.clear();
+        downloadQueue.clear();
         pendingDownloads.clear();
+        uploadsInFlight.clear();
+        dirtyTiles.clear();
+        uploadBackoff.clear();
+        downloadRetryTime = 0;
         XaeroSync.LOGGER.debug("Connected to server");
     }
 
@@ -124,12 +178,22 @@ public class ClientSyncManager {
         connected = false;
         syncEnabled = false;
         registryComplete = false;
+        registryRequestPending = false;
+        registryRequested = false;
+        reconcileTrees = null;
+        reconcileHashes.clear();
         timestampTracker.clearServerTimestamps();
-        uploadQueueSet.clear();
-        downloadQueueSet.clear();
+        uploadQueue.clear();
+        downloadQueue.clear();
         pendingDownloads.clear();
+        uploadsInFlight.clear();
+        dirtyTiles.clear();
+        uploadBackoff.clear();
         recentlyQueuedChunks.clear();
+        applyPipeline.flush();
         SyncedChunkCache.getInstance().clear();
+        chunkCodec = ChunkCodec.DEFAULT;
+        sessionPalette.clear();
         XaeroSync.LOGGER.debug("Disconnected from server");
     }
 
@@ -142,6 +206,7 @@ public class ClientSyncManager {
         serverMinUpdateIntervalMinutes = packet.getMinUpdateIntervalMinutes();
         allowedDimensions = new ArrayList<>(packet.getAllowedDimensions());
         blacklistedDimensions = new ArrayList<>(packet.getBlacklistedDimensions());
+        chunkCodec = ChunkCodec.withDictionary(packet.getCompressionDictionary());
 
         // Update rate limiters to use minimum of client and server limits
         int uploadRate = Math.min(Config.CLIENT_MAX_UPLOAD_PER_SECOND.get(), serverMaxUploadPerSec);
@@ -149,24 +214,190 @@ public class ClientSyncManager {
         uploadLimiter = new RateLimiter(uploadRate);
         downloadLimiter = new RateLimiter(downloadRate);
 
-        // Load persisted local timestamps for this server
-        if (syncEnabled) {
+        // Same for bandwidth, where 0 means unlimited
+        int uploadKbRate = Config.minBandwidthLimit(
+                Config.CLIENT_MAX_UPLOAD_KB_PER_SECOND.get(), packet.getMaxUploadKbPerSecond());
+        int downloadKbRate = Config.minBandwidthLimit(
+                Config.CLIENT_MAX_DOWNLOAD_KB_PER_SECOND.get(), packet.getMaxDownloadKbPerSecond());
+        uploadByteLimiter = RateLimiter.ofKilobytesPerSecond(uploadKbRate);
+        downloadByteLimiter = RateLimiter.ofKilobytesPerSecond(downloadKbRate);
+
+        XaeroSync.LOGGER.info("Received server config - sync={}, upload={}/s {}KB/s, download={}/s {}KB/s, minInterval={}min",
+                syncEnabled, uploadRate, uploadKbRate, downloadRate, downloadKbRate, serverMinUpdateIntervalMinutes);
+
+        // Load persisted timestamps for this server and ask for the registry
+        if (syncEnabled && !registryRequested) {
+            registryRequested = true;
+            serverRegistryEpoch = packet.getRegistryEpoch();
+            registryRequestPending = true;
+            registryRequestDeadline = System.currentTimeMillis() + REGISTRY_REQUEST_TIMEOUT_MS;
+            tryRequestRegistry(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Send the registry request once the world ID is available. If the saved server timestamps
+     * belong to the server's current registry epoch, only changes since their revision are asked for.
+     * Falls back to a full request if the world ID doesn't show up in time.
+     */
+    private void tryRequestRegistry(long now) {
+        if (!registryRequestPending) return;
+
+        if (timestampTracker.getCurrentWorldId() == null) {
             String worldId = getWorldId();
             if (worldId != null) {
-                timestampTracker.loadForWorld(worldId);
+                timestampTracker.loadForWorld(worldId, true);
                 SyncedChunkCache.getInstance().initForWorld(worldId);
+            } else if (now < registryRequestDeadline) {
+                return;
             } else {
-                XaeroSync.LOGGER.warn("World ID not available yet when receiving sync config - timestamps will be loaded later");
+                XaeroSync.LOGGER.warn("World ID not available yet when requesting registry - timestamps will be loaded later");
             }
         }
 
-        XaeroSync.LOGGER.info("Received server config - sync={}, upload={}/s, download={}/s, minInterval={}min",
-                syncEnabled, uploadRate, downloadRate, serverMinUpdateIntervalMinutes);
+        long revision = 0;
+        boolean hasSavedState = false;
+        if (timestampTracker.getCurrentWorldId() != null) {
+            if (timestampTracker.getServerEpoch() == serverRegistryEpoch) {
+                revision = timestampTracker.getServerRevision();
+            }
+            hasSavedState = timestampTracker.getServerCount() > 0;
+        }
+        registryRequestPending = false;
+
+        XaeroSync.LOGGER.info("Requesting registry from revision {} (saved state: {})", revision, hasSavedState);
+        XaeroSyncNetworking.CHANNEL.send(PacketDistributor.SERVER.noArg(),
+                new C2SRegistryRequestPacket(serverRegistryEpoch, revision, hasSavedState));
+    }
+
+    /**
+     * Compare a level of the server's registry hash tree with the saved server state.
+     * Subtrees only the client has are dropped right away, matching ones are left alone,
+     * and the children of differing ones are asked for. At region level, the differing
+     * regions are dropped and their entries requested, which ends the reconciliation.
+     */
+    public void handleRegistryHashes(S2CRegistryHashesPacket packet) {
+        if (!syncEnabled) return;
+
+        if (packet.getLevel() == S2CRegistryHashesPacket.Level.DIMENSION && reconcileTrees == null) {
+            reconcileTrees = timestampTracker.buildServerHashTrees();
+            reconcileRequested = new ArrayList<>();
+            reconcileHashes.clear();
+        }
+        if (reconcileTrees == null) return;
+
+        reconcileHashes.addAll(packet.getHashes());
+        if (!packet.isLast()) return;
+
+        // Server hashes by parent node; nodes the client asked about but the server didn't list are empty there
+        Map<C2SRegistryReconcilePacket.Node, Map<Long, Long>> serverHashes = new HashMap<>();
+        for (C2SRegistryReconcilePacket.Node parent : reconcileRequested) {
+            serverHashes.put(parent, new HashMap<>());
+        }
+        List<C2SRegistryReconcilePacket.Node> differing = new ArrayList<>();
+        Set<ResourceLocation> serverDimensions = new HashSet<>();
+
+        for (S2CRegistryHashesPacket.NodeHash node : reconcileHashes) {
+            ResourceLocation dim = ResourceLocation.tryParse(node.dimension());
+            if (dim == null) continue;
+            RegistryHashTree tree = reconcileTrees.get(dim);
+            long key = ChunkCoord.pack(node.x(), node.z());
+
+            Long localHash = switch (packet.getLevel()) {
+                case DIMENSION -> {
+                    serverDimensions.add(dim);
+                    yield tree != null ? tree.getRootHash() : null;
+                }
+                case GROUP -> {
+                    serverHashes.computeIfAbsent(new C2SRegistryReconcilePacket.Node(node.dimension(), 0, 0),
+                            parent -> new HashMap<>()).put(key, node.hash());
+                    yield tree != null ? tree.getGroupHash(key) : null;
+                }
+                case REGION -> {
+                    long groupKey = RegistryHashTree.groupKeyOfRegion(node.x(), node.z());
+                    serverHashes.computeIfAbsent(new C2SRegistryReconcilePacket.Node(node.dimension(),
+                            ChunkCoord.unpackX(groupKey), ChunkCoord.unpackZ(groupKey)), parent -> new HashMap<>()).put(key, node.hash());
+                    yield tree != null ? tree.getRegionHash(groupKey, key) : null;
+                }
+            };
+            if (localHash == null || localHash != node.hash()) {
+                differing.add(new C2SRegistryReconcilePacket.Node(node.dimension(), node.x(), node.z()));
+            }
+        }
+        reconcileHashes.clear();
+
+        // Drop whatever the client has where the server has nothing
+        int dropped = switch (packet.getLevel()) {
+            case DIMENSION -> timestampTracker.removeServerTimestampsIf(coord -> !serverDimensions.contains(coord.dimension()));
+            case GROUP -> dropMissingChildren(serverHashes, false);
+            case REGION -> dropMissingChildren(serverHashes, true);
+        };
+        if (dropped > 0) {
+            XaeroSync.LOGGER.debug("Reconciliation dropped {} chunks the server no longer has", dropped);
+        }
+
+        C2SRegistryReconcilePacket.Request next = switch (packet.getLevel()) {
+            case DIMENSION -> C2SRegistryReconcilePacket.Request.GROUP_HASHES;
+            case GROUP -> C2SRegistryReconcilePacket.Request.REGION_HASHES;
+            case REGION -> C2SRegistryReconcilePacket.Request.ENTRIES;
+        };
+
+        if (differing.size() > C2SRegistryReconcilePacket.MAX_NODES) {
+            // Too much differs to be worth narrowing down
+            XaeroSync.LOGGER.info("Registry differs in {} {} nodes, requesting full registry",
+                    differing.size(), packet.getLevel());
+            next = C2SRegistryReconcilePacket.Request.FULL;
+            differing = List.of();
+        } else if (differing.isEmpty() || next == C2SRegistryReconcilePacket.Request.ENTRIES) {
+            // Differing regions are refetched whole, so their stale entries go first
+            Set<ChunkCoord> regions = new HashSet<>();
+            for (C2SRegistryReconcilePacket.Node region : differing) {
+                ResourceLocation dim = ResourceLocation.tryParse(region.dimension());
+                if (dim != null) {
+                    regions.add(new ChunkCoord(dim, region.x(), region.z()));
+                }
+            }
+            timestampTracker.removeServerTimestampsIf(coord ->
+                    regions.contains(new ChunkCoord(coord.dimension(), coord.regionX(), coord.regionZ())));
+            next = C2SRegistryReconcilePacket.Request.ENTRIES;
+        }
+
+        if (next == C2SRegistryReconcilePacket.Request.ENTRIES || next == C2SRegistryReconcilePacket.Request.FULL) {
+            XaeroSync.LOGGER.info("Registry reconciliation finished at {} level, requesting {} ({} nodes)",
+                    packet.getLevel(), next, differing.size());
+            reconcileTrees = null;
+        }
+        reconcileRequested = differing;
+        XaeroSyncNetworking.CHANNEL.send(PacketDistributor.SERVER.noArg(),
+                new C2SRegistryReconcilePacket(next, differing));
+    }
+
+    /**
+     * Drop saved server timestamps under requested parent nodes (groups, or regions when
+     * regionLevel is set) whose children the server didn't list.
+     */
+    private int dropMissingChildren(Map<C2SRegistryReconcilePacket.Node, Map<Long, Long>> serverHashes,
+                                    boolean regionLevel) {
+        return timestampTracker.removeServerTimestampsIf(coord -> {
+            long parentKey = regionLevel
+                    ? RegistryHashTree.groupKey(coord.x(), coord.z())
+                    : 0;
+            Map<Long, Long> children = serverHashes.get(new C2SRegistryReconcilePacket.Node(
+                    coord.dimension().toString(), ChunkCoord.unpackX(parentKey), ChunkCoord.unpackZ(parentKey)));
+            if (children == null) {
+                return false; // Parent wasn't asked about
+            }
+            long childKey = regionLevel
+                    ? RegistryHashTree.regionKey(coord.x(), coord.z())
+                    : RegistryHashTree.groupKey(coord.x(), coord.z());
+            return !children.containsKey(childKey);
+        });
     }
 
     public void handleRegistryChunk(S2CRegistryChunkPacket packet) {
-        XaeroSync.LOGGER.info("Received registry batch {}/{} with {} entries (syncEnabled={})",
-                packet.getBatchIndex() + 1, packet.getTotalBatches(), packet.getEntries().size(), syncEnabled);
+        XaeroSync.LOGGER.info("Received {} registry batch {}/{} with {} entries (syncEnabled={})",
+                packet.isFullTransfer() ? "full" : "delta", packet.getBatchIndex() + 1, packet.getTotalBatches(),
+                packet.getEntries().size(), syncEnabled);
 
         if (!syncEnabled) {
             XaeroSync.LOGGER.warn("Ignoring registry - sync not enabled");
@@ -177,13 +408,19 @@ public class ClientSyncManager {
         if (timestampTracker.getCurrentWorldId() == null) {
             String worldId = getWorldId();
             if (worldId != null) {
-                timestampTracker.loadForWorld(worldId);
+                // Saved server state is stale here, the server is sending the full registry
+                timestampTracker.loadForWorld(worldId, false);
                 SyncedChunkCache.getInstance().initForWorld(worldId);
             } else {
                 XaeroSync.LOGGER.warn("World ID still not available when processing registry batch");
             }
         }
 
+        // A full transfer replaces whatever server state was loaded from disk
+        if (packet.isFullTransfer() && packet.getBatchIndex() == 0) {
+            timestampTracker.clearServerTimestamps();
+        }
+
         int queuedDownloads = 0;
         int skippedAutoDownloadDisabled = 0;
         int skippedAlreadyHave = 0;
@@ -192,6 +429,11 @@ public class ClientSyncManager {
             if (dim == null) continue;
 
             ChunkCoord coord = new ChunkCoord(dim, entry.x(), entry.z());
+            if (entry.removed()) {
+                timestampTracker.removeServerTimestamp(coord);
+                downloadQueue.remove(coord);
+                continue;
+            }
             timestampTracker.setServerTimestamp(coord, entry.timestamp());
 
             // Check if we need to download this chunk
@@ -218,8 +460,20 @@ public class ClientSyncManager {
 
         if (packet.isLastBatch()) {
             registryComplete = true;
-            XaeroSync.LOGGER.info("Registry transfer complete - {} server chunks, download queue: {}",
-                    timestampTracker.getServerCount(), downloadQueueSet.size());
+            timestampTracker.setServerRevision(serverRegistryEpoch, packet.getRevision());
+            timestampTracker.save();
+
+            // A delta only lists changed chunks, older ones may still be missing locally
+            if (!packet.isFullTransfer() && Config.CLIENT_AUTO_DOWNLOAD.get()) {
+                for (ChunkCoord coord : timestampTracker.getChunksNeedingDownload().keySet()) {
+                    if (timestampTracker.needsDownload(coord)) {
+                        queueDownload(coord);
+                    }
+                }
+            }
+
+            XaeroSync.LOGGER.info("Registry transfer complete - {} server chunks at revision {}, download queue: {}",
+                    timestampTracker.getServerCount(), packet.getRevision(), downloadQueue.size());
 
             // Check for chunks that need uploading
             if (Config.CLIENT_AUTO_UPLOAD.get()) {
@@ -255,36 +509,75 @@ public class ClientSyncManager {
         XaeroSync.LOGGER.info("Registry update for {}: autoDownload={}, needsDownload={}, localTs={}, serverTs={}, inPending={}, inQueue={}",
                 coord, autoDownload, needsDownload,
                 localTs.orElse(null), serverTs.orElse(null),
-                pendingDownloads.contains(coord), downloadQueueSet.contains(coord));
+                pendingDownloads.contains(coord), downloadQueue.contains(coord));
 
         if (autoDownload && needsDownload) {
             queueDownload(coord);
             XaeroSync.LOGGER.info("Queued chunk {} for download from registry update (queue size now: {})",
-                    coord, downloadQueueSet.size());
+                    coord, downloadQueue.size());
         }
     }
 
-    public void handleChunkData(S2CChunkDataPacket packet) {
-        XaeroSync.LOGGER.debug("Received chunk data for {}:{},{} ({} bytes)",
-                packet.getDimension(), packet.getX(), packet.getZ(), packet.getData().length);
+    public void handleChunkDataBatch(S2CChunkDataBatchPacket packet) {
+        XaeroSync.LOGGER.debug("Received chunk data batch for {} with {} chunks",
+                packet.getDimension(), packet.getEntries().size());
 
         if (!syncEnabled) return;
 
         ResourceLocation dim = ResourceLocation.tryParse(packet.getDimension());
         if (dim == null) return;
 
-        ChunkCoord coord = new ChunkCoord(dim, packet.getX(), packet.getZ());
-        pendingDownloads.remove(coord);
+        Minecraft mc = Minecraft.getInstance();
+        HolderLookup.Provider registryAccess = mc.level != null ? mc.level.registryAccess() : null;
 
-        // Store in cache - the mixin will apply it when Xaero loads the region
-        SyncedChunkCache.getInstance().store(coord, packet.getData(), packet.getTimestamp());
-        timestampTracker.setLocalTimestamp(coord, packet.getTimestamp());
+        for (S2CChunkDataBatchPacket.ChunkEntry entry : packet.getEntries()) {
+            ChunkCoord coord = new ChunkCoord(dim, entry.x(), entry.z());
+            pendingDownloads.remove(coord);
+            downloadByteLimiter.consume(entry.data().length);
 
-        // Try to apply immediately if region is already loaded
-        // (The MapSaveLoadMixin will handle it if region loads later)
-        SyncedChunkApplier.tryApplyChunk(coord);
+            // Decoded in the background and applied if the region is loaded, otherwise cached
+            // (The MapSaveLoadMixin will apply it from the cache when the region loads)
+            applyPipeline.submit(coord, entry.data(), entry.timestamp(), registryAccess, chunkCodec, sessionPalette);
+            timestampTracker.setLocalTimestamp(coord, entry.timestamp());
+            timestampTracker.setSyncedTimestamp(coord, entry.timestamp());
 
-        XaeroSync.LOGGER.debug("Cached chunk {} for application", coord);
+            XaeroSync.LOGGER.debug("Queued chunk {} for application ({} bytes)", coord, entry.data().length);
+        }
+    }
+
+    /**
+     * Learn the IDs the server assigned to palette entries since its last update.
+     */
+    public void handlePaletteUpdate(S2CPaletteUpdatePacket packet) {
+        if (!sessionPalette.add(packet.getFirstBlockStateId(), packet.getBlockStates(),
+                packet.getFirstBiomeId(), packet.getBiomes())) {
+            XaeroSync.LOGGER.warn("Ignoring out of order palette update (block states from {}, biomes from {})",
+                    packet.getFirstBlockStateId(), packet.getFirstBiomeId());
+            return;
+        }
+        XaeroSync.LOGGER.debug("Global palette now has {} block states and {} biomes",
+                sessionPalette.getBlockStateCount(), sessionPalette.getBiomeCount());
+    }
+
+    /**
+     * Put requests the server couldn't queue back into the download queue, and hold off
+     * requesting more for as long as the server asked.
+     */
+    public void handleDownloadQueueFull(S2CDownloadQueueFullPacket packet) {
+        int requeued = 0;
+        for (C2SRequestChunksPacket.ChunkRequest request : packet.getRejected()) {
+            ResourceLocation dim = ResourceLocation.tryParse(request.dimension());
+            if (dim == null) continue;
+
+            ChunkCoord coord = new ChunkCoord(dim, request.x(), request.z());
+            if (pendingDownloads.remove(coord)) {
+                queueDownload(coord);
+                requeued++;
+            }
+        }
+        downloadRetryTime = System.currentTimeMillis() + packet.getRetryAfterMs();
+        XaeroSync.LOGGER.debug("Server download queue full, re-queued {} chunks, retrying in {}ms",
+                requeued, packet.getRetryAfterMs());
     }
 
     public void handleUploadResult(S2CUploadResultPacket packet) {
@@ -292,24 +585,51 @@ public class ClientSyncManager {
         if (dim == null) return;
 
         ChunkCoord coord = new ChunkCoord(dim, packet.getX(), packet.getZ());
+        UploadAttempt attempt = uploadsInFlight.remove(coord);
 
-        if (packet.isAccepted()) {
+        if (packet.getResult() == S2CUploadResultPacket.Result.NEED_DATA) {
+            // Move on to the next, bigger form of the upload
+            if (attempt != null && !attempt.next().isEmpty()) {
+                List<C2SUploadChunkPacket> next = attempt.next();
+                sendUpload(coord, new UploadAttempt(next.get(0), next.subList(1, next.size()), attempt.dirtyTiles()));
+            }
+        } else if (packet.getResult() == S2CUploadResultPacket.Result.UNCHANGED) {
+            // Server already has this content, so our copy is no newer than the server's
+            timestampTracker.getServerTimestamp(coord).ifPresent(ts -> {
+                timestampTracker.setLocalTimestamp(coord, ts);
+                timestampTracker.setSyncedTimestamp(coord, ts);
+            });
+        } else if (packet.isAccepted()) {
             // Update server timestamp to match what we uploaded
-            Optional<Long> localTs = timestampTracker.getLocalTimestamp(coord);
-            localTs.ifPresent(ts -> timestampTracker.setServerTimestamp(coord, ts));
+            Optional<Long> uploadedTs = attempt != null
+                    ? Optional.of(attempt.sent().getTimestamp())
+                    : timestampTracker.getLocalTimestamp(coord);
+            uploadedTs.ifPresent(ts -> {
+                // A full upload replaced the server's copy with ours. After a delta we only have
+                // all of the server's tiles if we were up to date before it.
+                boolean delta = attempt != null && attempt.sent().isDelta();
+                if (!delta || timestampTracker.getSyncedTimestamp(coord).equals(timestampTracker.getServerTimestamp(coord))) {
+                    timestampTracker.setSyncedTimestamp(coord, ts);
+                }
+                timestampTracker.setServerTimestamp(coord, ts);
+            });
         } else {
+            // The changed tiles still have to be uploaded
+            if (attempt != null) {
+                markTilesDirty(coord, attempt.dirtyTiles());
+            }
+
             XaeroSync.LOGGER.debug("Upload rejected for {}:{},{} - {}: {}",
                     packet.getDimension(), packet.getX(), packet.getZ(),
                     packet.getResult(), packet.getMessage());
 
-            // For certain rejection types, update server timestamp to prevent immediate retry
+            // For certain rejection types, hold off retrying. The server timestamp is left as the
+            // registry reported it, since it's saved and a made-up one would hide newer server data.
             S2CUploadResultPacket.Result result = packet.getResult();
             if (result == S2CUploadResultPacket.Result.REJECTED_OUTDATED ||
                     result == S2CUploadResultPacket.Result.REJECTED_TOO_SOON) {
-                // Server has data that's newer or recent enough - sync timestamps
-                // Set server timestamp to current time so we don't keep trying
-                Optional<Long> localTs = timestampTracker.getLocalTimestamp(coord);
-                localTs.ifPresent(ts -> timestampTracker.setServerTimestamp(coord, ts));
+                long backoffMs = Math.max(serverMinUpdateIntervalMinutes * 60 * 1000L, REJECTED_UPLOAD_BACKOFF_MS);
+                uploadBackoff.put(coord, System.currentTimeMillis() + backoffMs);
             }
         }
     }
@@ -327,6 +647,9 @@ public class ClientSyncManager {
             return;
         }
 
+        // Remember which tile changed, even if the upload itself is throttled below
+        manager.markTilesDirty(coord, 1 << TileSections.tileIndex(event.tileLocalX(), event.tileLocalZ()));
+
         long now = System.currentTimeMillis();
 
         // Throttle local timestamp updates - only update if:
@@ -353,7 +676,7 @@ public class ClientSyncManager {
             return;
         }
 
-        if (manager.timestampTracker.needsUpload(coord)) {
+        if (manager.timestampTracker.needsUpload(coord) && !manager.isUploadBackedOff(coord, now)) {
             // Debounce: skip if this chunk was recently queued
             Long lastQueued = manager.recentlyQueuedChunks.get(coord);
             if (lastQueued != null && (now - lastQueued) < DEBOUNCE_INTERVAL_MS) {
@@ -363,14 +686,22 @@ public class ClientSyncManager {
             manager.recentlyQueuedChunks.put(coord, now);
             manager.queueUpload(coord);
             XaeroSync.LOGGER.debug("Queued chunk {} for upload (queue size: {})",
-                    coord, manager.uploadQueueSet.size());
+                    coord, manager.uploadQueue.size());
         }
     }
 
     // ==================== Queue Management ====================
 
+    /**
+     * Check whether the server recently turned down an upload of this chunk.
+     */
+    private boolean isUploadBackedOff(ChunkCoord coord, long now) {
+        Long until = uploadBackoff.get(coord);
+        return until != null && now < until;
+    }
+
     private void queueUpload(ChunkCoord coord) {
-        uploadQueueSet.add(coord);
+        uploadQueue.add(coord);
     }
 
     private void queueDownload(ChunkCoord coord) {
@@ -378,16 +709,17 @@ public class ClientSyncManager {
             XaeroSync.LOGGER.debug("Not queueing {} - already in pendingDownloads", coord);
             return;
         }
-        boolean added = downloadQueueSet.add(coord);
-        XaeroSync.LOGGER.debug("queueDownload({}) - added={}, queue size now={}", coord, added, downloadQueueSet.size());
+        boolean added = downloadQueue.add(coord);
+        XaeroSync.LOGGER.debug("queueDownload({}) - added={}, queue size now={}", coord, added, downloadQueue.size());
     }
 
     private void queuePendingUploads() {
         Map<ChunkCoord, Long> needUpload = timestampTracker.getChunksNeedingUpload();
+        long now = System.currentTimeMillis();
         int queued = 0;
         int skippedNotLoaded = 0;
         for (ChunkCoord coord : needUpload.keySet()) {
-            if (!isDimensionAllowed(coord.dimension().toString())) {
+            if (!isDimensionAllowed(coord.dimension().toString()) || isUploadBackedOff(coord, now)) {
                 continue;
             }
             // Only queue chunks that actually exist in Xaero's map
@@ -415,11 +747,14 @@ public class ClientSyncManager {
 
         long now = System.currentTimeMillis();
 
+        tryRequestRegistry(now);
+
         // Periodically clean up old entries from debounce map to prevent memory growth
         if (now - lastDebounceCleanupTime > DEBOUNCE_CLEANUP_INTERVAL_MS) {
             lastDebounceCleanupTime = now;
             recentlyQueuedChunks.entrySet().removeIf(entry ->
                     (now - entry.getValue()) > DEBOUNCE_INTERVAL_MS);
+            uploadBackoff.values().removeIf(until -> until <= now);
         }
 
         // Periodically save timestamps to disk to prevent data loss on crash
@@ -437,12 +772,12 @@ public class ClientSyncManager {
 
         // Periodically re-queue chunks that need uploading but aren't in the queue
         // This handles chunks that failed serialization (e.g., partial chunks) and may be ready now
-        if (registryComplete && Config.CLIENT_AUTO_UPLOAD.get() && uploadQueueSet.isEmpty()) {
+        if (registryComplete && Config.CLIENT_AUTO_UPLOAD.get() && uploadQueue.isEmpty()) {
             if (now - lastRequeueTime > REQUEUE_INTERVAL_MS) {
                 lastRequeueTime = now;
-                int before = uploadQueueSet.size();
+                int before = uploadQueue.size();
                 queuePendingUploads();
-                int added = uploadQueueSet.size() - before;
+                int added = uploadQueue.size() - before;
                 if (added > 0) {
                     XaeroSync.LOGGER.debug("Re-queued {} chunks for upload", added);
                 }
@@ -452,17 +787,19 @@ public class ClientSyncManager {
         // Update player position for distance-based prioritization
         updatePlayerPosition();
 
-        // Process uploads - pick closest chunk to player
-        while (!uploadQueueSet.isEmpty() && uploadLimiter.tryAcquire()) {
-            ChunkCoord coord = pollClosest(uploadQueueSet);
+        // Process uploads - pick closest chunk to player. Sizes are only known once serialized,
+        // so the byte budgets are charged afterwards and just need to be out of debt here.
+        while (!uploadQueue.isEmpty() && uploadByteLimiter.canAcquire() && uploadLimiter.tryAcquire()) {
+            ChunkCoord coord = uploadQueue.poll();
             if (coord != null) {
                 processUpload(coord);
             }
         }
 
         // Process download requests - pick closest chunk to player
-        while (!downloadQueueSet.isEmpty() && downloadLimiter.tryAcquire()) {
-            ChunkCoord coord = pollClosest(downloadQueueSet);
+        while (!downloadQueue.isEmpty() && now >= downloadRetryTime
+                && downloadByteLimiter.canAcquire() && downloadLimiter.tryAcquire()) {
+            ChunkCoord coord = downloadQueue.poll();
             if (coord != null) {
                 requestDownload(coord);
             }
@@ -470,64 +807,35 @@ public class ClientSyncManager {
     }
 
     /**
-     * Update the cached player chunk position.
+     * Called every frame to apply downloaded chunks within the configured time budget.
      */
-    private void updatePlayerPosition() {
-        LocalPlayer player = Minecraft.getInstance().player;
-        if (player != null) {
-            playerChunkX = player.chunkPosition().x;
-            playerChunkZ = player.chunkPosition().z;
-        }
+    public void onFrame() {
+        if (!connected) return;
+        applyPipeline.applyReady(Config.CLIENT_APPLY_BUDGET_MICROS.get() * 1_000L);
     }
 
     /**
-     * Poll and remove the closest chunk to the player from the set.
+     * Update the position the upload and download queues are ordered around.
      */
-    @Nullable
-    private ChunkCoord pollClosest(Set<ChunkCoord> set) {
-        if (set.isEmpty()) return null;
-
-        ChunkCoord closest = null;
-        int closestDistSq = Integer.MAX_VALUE;
-
-        // Convert player chunk coords to our chunk coords (64-block chunks = 4 MC chunks)
-        int playerSyncChunkX = playerChunkX >> 2;
-        int playerSyncChunkZ = playerChunkZ >> 2;
-
-        // Get current dimension for filtering
+    private void updatePlayerPosition() {
         Minecraft mc = Minecraft.getInstance();
-        ResourceLocation currentDim = mc.level != null ? mc.level.dimension().location() : null;
-
-        for (ChunkCoord coord : set) {
-            // Only consider chunks in the current dimension for distance calculation
-            // (chunks in other dimensions get MAX_VALUE distance, effectively deprioritized)
-            int distSq;
-            if (coord.dimension().equals(currentDim)) {
-                int dx = coord.x() - playerSyncChunkX;
-                int dz = coord.z() - playerSyncChunkZ;
-                distSq = dx * dx + dz * dz;
-            } else {
-                distSq = Integer.MAX_VALUE - 1; // Other dimensions are lower priority
-            }
-
-            if (distSq < closestDistSq) {
-                closestDistSq = distSq;
-                closest = coord;
-            }
-        }
-
-        if (closest != null) {
-            boolean removed = set.remove(closest);
-            if (!removed) {
-                XaeroSync.LOGGER.warn("[DEBUG] Failed to remove {} from set! Set size: {}", closest, set.size());
-            }
+        LocalPlayer player = mc.player;
+        if (player != null && mc.level != null) {
+            // Convert player chunk coords to our chunk coords (64-block chunks = 4 MC chunks)
+            ResourceLocation dimension = mc.level.dimension().location();
+            int x = player.chunkPosition().x >> 2;
+            int z = player.chunkPosition().z >> 2;
+            uploadQueue.setCenter(dimension, x, z);
+            downloadQueue.setCenter(dimension, x, z);
         }
-        return closest;
     }
 
     private void processUpload(ChunkCoord coord) {
         // Check minimum update interval before sending (save bandwidth)
         long now = System.currentTimeMillis();
+        if (isUploadBackedOff(coord, now)) {
+            return;
+        }
         long minIntervalMs = serverMinUpdateIntervalMinutes * 60 * 1000L;
         Optional<Long> serverTimestamp = timestampTracker.getServerTimestamp(coord);
 
@@ -552,11 +860,16 @@ public class ClientSyncManager {
             return;
         }
 
-        // Serialize
-        byte[] data = ChunkSerializer.serialize(chunk, Minecraft.getInstance().level.registryAccess());
-        if (data == null) {
+        // Serialize, along with the tiles changed since the last upload
+        Integer dirty = dirtyTiles.remove(coord);
+        int changedTiles = dirty != null ? dirty : 0;
+        ChunkSerializer.SerializedChunk serialized =
+                ChunkSerializer.serialize(chunk, Minecraft.getInstance().level.registryAccess(), changedTiles, chunkCodec,
+                        sessionPalette);
+        if (serialized == null) {
             // Not a warning - this happens when tiles aren't fully loaded yet
             // The chunk will be re-queued later via periodic queuePendingUploads
+            markTilesDirty(coord, changedTiles);
             XaeroSync.LOGGER.debug("Chunk {} not ready for serialization", coord);
             return;
         }
@@ -570,21 +883,60 @@ public class ClientSyncManager {
                 coord.x(),
                 coord.z(),
                 timestamp,
-                data
+                serialized.contentHash(),
+                false,
+                serialized.data()
         );
+
+        if (serverTimestamp.isEmpty()) {
+            sendUpload(coord, new UploadAttempt(packet, List.of(), changedTiles));
+            return;
+        }
+
+        // Re-exploring a chunk often changes nothing. When the server has a copy, offer the
+        // hash first, then just the changed tiles, and only send the whole chunk if the
+        // server asks for it.
+        List<C2SUploadChunkPacket> next = new ArrayList<>(2);
+        if (serialized.delta() != null) {
+            next.add(new C2SUploadChunkPacket(coord.dimension().toString(), coord.x(), coord.z(),
+                    timestamp, serialized.contentHash(), true, serialized.delta()));
+        }
+        next.add(packet);
+        sendUpload(coord, new UploadAttempt(packet.toProbe(), next, changedTiles));
+    }
+
+    private void sendUpload(ChunkCoord coord, UploadAttempt attempt) {
+        C2SUploadChunkPacket packet = attempt.sent();
+        uploadsInFlight.put(coord, attempt);
         XaeroSyncNetworking.CHANNEL.send(PacketDistributor.SERVER.noArg(), packet);
+        uploadByteLimiter.consume(packet.getData().length);
+
+        XaeroSync.LOGGER.debug("Uploading chunk {} ({}, {} bytes)", coord,
+                packet.isProbe() ? "probe" : packet.isDelta() ? "changed tiles" : "whole chunk",
+                packet.getData().length);
+    }
 
-        XaeroSync.LOGGER.debug("Uploading chunk {} ({} bytes)", coord, data.length);
+    private void markTilesDirty(ChunkCoord coord, int tileMask) {
+        if (tileMask != 0) {
+            dirtyTiles.merge(coord, tileMask, (a, b) -> a | b);
+        }
     }
 
     private void requestDownload(ChunkCoord coord) {
         pendingDownloads.add(coord);
 
+        // With a complete copy of an older version, only the tiles changed since are needed.
+        // A copy still waiting in the cache or in the apply pipeline is replaced whole, since a
+        // delta would supersede it there and the other tiles would be lost.
+        long since = SyncedChunkCache.getInstance().hasChunk(coord) || applyPipeline.isInFlight(coord)
+                ? 0 : timestampTracker.getSyncedTimestamp(coord).orElse(0L);
+
         C2SRequestChunksPacket packet = new C2SRequestChunksPacket(List.of(
                 new C2SRequestChunksPacket.ChunkRequest(
                         coord.dimension().toString(),
                         coord.x(),
-                        coord.z()
+                        coord.z(),
+                        since
                 )
         ));
         XaeroSyncNetworking.CHANNEL.send(PacketDistributor.SERVER.noArg(), packet);
@@ -660,17 +1012,21 @@ public class ClientSyncManager {
     }
 
     public int getUploadQueueSize() {
-        return uploadQueueSet.size();
+        return uploadQueue.size();
     }
 
     public int getDownloadQueueSize() {
-        return downloadQueueSet.size();
+        return downloadQueue.size();
     }
 
     public int getPendingDownloadsSize() {
         return pendingDownloads.size();
     }
 
+    public ChunkApplyPipeline.Stats getApplyPipelineStats() {
+        return applyPipeline.getStats();
+    }
+
     public int getCachedChunksCount() {
         return SyncedChunkCache.getInstance().getCachedCount();
     }
@@ -678,4 +1034,19 @@ public class ClientSyncManager {
     public ClientTimestampTracker getTimestampTracker() {
         return timestampTracker;
     }
+
+    public ChunkCodec getChunkCodec() {
+        return chunkCodec;
+    }
+
+    public SessionPalette getSessionPalette() {
+        return sessionPalette;
+    }
+
+    /**
+     * An upload waiting for the server's answer, with the forms to send next if the server asks
+     * for more data, and the tiles it covers.
+     */
+    private record UploadAttempt(C2SUploadChunkPacket sent, List<C2SUploadChunkPacket> next, int dirtyTiles) {
+    }
 }
@@ -2,24 +2,34 @@ package net.fivew14.xaerosync.client.sync;
 
 import net.fivew14.xaerosync.XaeroSync;
 import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.RegistryHashTree;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.ResourceLocation;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * Tracks timestamps for locally explored/downloaded chunks on the client.
  * Used to determine which chunks need to be uploaded or downloaded.
  * Persists local timestamps to disk per-server to avoid re-downloading chunks.
+ * Server timestamps are persisted too, along with the registry epoch and revision they
+ * are complete up to, so a reconnect only needs the registry changes since then.
+ * Synced timestamps record which server version of a chunk the local map fully reflects,
+ * so later downloads only need the tiles changed since.
  */
 public class ClientTimestampTracker {
 
-    private static final int FILE_VERSION = 1;
+    private static final int FILE_VERSION = 3;
+    private static final int MIN_FILE_VERSION = 1;
 
     // Don't download chunks that were updated locally within this time window
     // This prevents overwriting chunks the player is actively exploring
@@ -31,6 +41,13 @@ public class ClientTimestampTracker {
     // Map from ChunkCoord to server timestamp (from registry)
     private final Map<ChunkCoord, Long> serverTimestamps = new ConcurrentHashMap<>();
 
+    // Map from ChunkCoord to the timestamp of the last server copy we have all tiles of
+    private final Map<ChunkCoord, Long> syncedTimestamps = new ConcurrentHashMap<>();
+
+    // Server registry position the server timestamps are complete up to (0 = unknown)
+    private volatile long serverEpoch = 0;
+    private volatile long serverRevision = 0;
+
     // Current world ID for persistence
     private String currentWorldId = null;
 
@@ -48,6 +65,20 @@ public class ClientTimestampTracker {
         return Optional.ofNullable(localTimestamps.get(coord));
     }
 
+    /**
+     * Record that the local map holds every tile of the server's copy at the given time.
+     */
+    public void setSyncedTimestamp(ChunkCoord coord, long timestamp) {
+        syncedTimestamps.put(coord, timestamp);
+    }
+
+    /**
+     * Get the timestamp of the last server copy we have all tiles of.
+     */
+    public Optional<Long> getSyncedTimestamp(ChunkCoord coord) {
+        return Optional.ofNullable(syncedTimestamps.get(coord));
+    }
+
     /**
      * Update server registry timestamp for a chunk.
      */
@@ -55,6 +86,35 @@ public class ClientTimestampTracker {
         serverTimestamps.put(coord, timestamp);
     }
 
+    /**
+     * Forget the server timestamp for a chunk removed from the server.
+     */
+    public void removeServerTimestamp(ChunkCoord coord) {
+        serverTimestamps.remove(coord);
+    }
+
+    /**
+     * Forget the server timestamps of all chunks matching a filter.
+     * Returns the number removed.
+     */
+    public int removeServerTimestampsIf(Predicate<ChunkCoord> filter) {
+        int before = serverTimestamps.size();
+        serverTimestamps.keySet().removeIf(filter);
+        return before - serverTimestamps.size();
+    }
+
+    /**
+     * Build a hash tree per dimension over the known server timestamps,
+     * to compare with the server's during reconciliation.
+     */
+    public Map<ResourceLocation, RegistryHashTree> buildServerHashTrees() {
+        Map<ResourceLocation, RegistryHashTree> trees = new HashMap<>();
+        serverTimestamps.forEach((coord, timestamp) ->
+                trees.computeIfAbsent(coord.dimension(), dim -> new RegistryHashTree())
+                        .add(coord.x(), coord.z(), timestamp));
+        return trees;
+    }
+
     /**
      * Get the server timestamp for a chunk.
      */
@@ -130,6 +190,7 @@ public class ClientTimestampTracker {
     public void clear() {
         localTimestamps.clear();
         serverTimestamps.clear();
+        syncedTimestamps.clear();
     }
 
     /**
@@ -137,6 +198,24 @@ public class ClientTimestampTracker {
      */
     public void clearServerTimestamps() {
         serverTimestamps.clear();
+        serverEpoch = 0;
+        serverRevision = 0;
+    }
+
+    /**
+     * Record the server registry epoch and revision the server timestamps are complete up to.
+     */
+    public void setServerRevision(long epoch, long revision) {
+        this.serverEpoch = epoch;
+        this.serverRevision = revision;
+    }
+
+    public long getServerEpoch() {
+        return serverEpoch;
+    }
+
+    public long getServerRevision() {
+        return serverRevision;
     }
 
     /**
@@ -157,9 +236,11 @@ public class ClientTimestampTracker {
 
     /**
      * Load local timestamps for the given world ID.
-     * Should be called when connecting to a server.
+     * Should be called when connecting to a server. With includeServerState, the saved
+     * server timestamps and registry revision are loaded too; they are merged with any
+     * updates received in the meantime, keeping the newest timestamp.
      */
-    public void loadForWorld(String worldId) {
+    public void loadForWorld(String worldId, boolean includeServerState) {
         if (worldId == null || worldId.isEmpty()) {
             XaeroSync.LOGGER.warn("Cannot load timestamps: no world ID");
             return;
@@ -172,6 +253,7 @@ public class ClientTimestampTracker {
 
         currentWorldId = worldId;
         localTimestamps.clear();
+        syncedTimestamps.clear();
 
         Path file = getTimestampFile(worldId);
         if (!Files.exists(file)) {
@@ -181,25 +263,34 @@ public class ClientTimestampTracker {
 
         try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
             int version = in.readInt();
-            if (version != FILE_VERSION) {
+            if (version < MIN_FILE_VERSION || version > FILE_VERSION) {
                 XaeroSync.LOGGER.warn("Timestamp file version mismatch (expected {}, got {}), ignoring", FILE_VERSION, version);
                 return;
             }
 
-            int count = in.readInt();
-            for (int i = 0; i < count; i++) {
-                String dimension = in.readUTF();
-                int x = in.readInt();
-                int z = in.readInt();
-                long timestamp = in.readLong();
-
-                ResourceLocation dim = ResourceLocation.tryParse(dimension);
-                if (dim != null) {
-                    localTimestamps.put(new ChunkCoord(dim, x, z), timestamp);
-                }
+            long epoch = 0;
+            long revision = 0;
+            if (version >= 2) {
+                epoch = in.readLong();
+                revision = in.readLong();
             }
 
+            int count = readEntries(in, localTimestamps);
             XaeroSync.LOGGER.info("Loaded {} local timestamps for world {}", count, worldId);
+
+            if (version >= 2) {
+                Map<ChunkCoord, Long> saved = new ConcurrentHashMap<>();
+                int serverCount = readEntries(in, saved);
+                if (includeServerState) {
+                    saved.forEach((coord, timestamp) -> serverTimestamps.merge(coord, timestamp, Math::max));
+                    setServerRevision(epoch, revision);
+                    XaeroSync.LOGGER.info("Loaded {} server timestamps at revision {} for world {}",
+                            serverCount, revision, worldId);
+                }
+            }
+            if (version >= 3) {
+                readEntries(in, syncedTimestamps);
+            }
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to load timestamps for world {}", worldId, e);
         }
@@ -215,7 +306,7 @@ public class ClientTimestampTracker {
             return;
         }
 
-        if (localTimestamps.isEmpty()) {
+        if (localTimestamps.isEmpty() && serverTimestamps.isEmpty()) {
             XaeroSync.LOGGER.debug("No timestamps to save for world {}", currentWorldId);
             return;
         }
@@ -228,23 +319,49 @@ public class ClientTimestampTracker {
 
             try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
                 out.writeInt(FILE_VERSION);
-                out.writeInt(localTimestamps.size());
-
-                for (Map.Entry<ChunkCoord, Long> entry : localTimestamps.entrySet()) {
-                    ChunkCoord coord = entry.getKey();
-                    out.writeUTF(coord.dimension().toString());
-                    out.writeInt(coord.x());
-                    out.writeInt(coord.z());
-                    out.writeLong(entry.getValue());
-                }
+                out.writeLong(serverEpoch);
+                out.writeLong(serverRevision);
+                writeEntries(out, localTimestamps);
+                writeEntries(out, serverTimestamps);
+                writeEntries(out, syncedTimestamps);
             }
 
-            XaeroSync.LOGGER.info("Saved {} local timestamps for world {}", localTimestamps.size(), currentWorldId);
+            XaeroSync.LOGGER.info("Saved {} local and {} server timestamps for world {}",
+                    localTimestamps.size(), serverTimestamps.size(), currentWorldId);
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to save timestamps for world {}", currentWorldId, e);
         }
     }
 
+    private static int readEntries(DataInputStream in, Map<ChunkCoord, Long> target) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String dimension = in.readUTF();
+            int x = in.readInt();
+            int z = in.readInt();
+            long timestamp = in.readLong();
+
+            ResourceLocation dim = ResourceLocation.tryParse(dimension);
+            if (dim != null) {
+                target.put(new ChunkCoord(dim, x, z), timestamp);
+            }
+        }
+        return count;
+    }
+
+    private static void writeEntries(DataOutputStream out, Map<ChunkCoord, Long> source) throws IOException {
+        // Copy first so the count matches the entries written while other threads update the map
+        List<Map.Entry<ChunkCoord, Long>> entries = new ArrayList<>(source.entrySet());
+        out.writeInt(entries.size());
+        for (Map.Entry<ChunkCoord, Long> entry : entries) {
+            ChunkCoord coord = entry.getKey();
+            out.writeUTF(coord.dimension().toString());
+            out.writeInt(coord.x());
+            out.writeInt(coord.z());
+            out.writeLong(entry.getValue());
+        }
+    }
+
     /**
      * Get the path to the timestamp file for a world.
      */
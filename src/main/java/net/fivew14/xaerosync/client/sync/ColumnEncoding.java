@@ -0,0 +1,145 @@
+package net.fivew14.xaerosync.client.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodings for columns of block fields, see {@link ChunkSerializer}.
+ * <p>
+ * - Packed: each value in a fixed number of bits, most significant bit first
+ * - Runs: pairs of zigzag varint value and varint run length
+ * - Deltas: zigzag varint difference from the previous value, starting from 0
+ * <p>
+ * Readers fill the first count entries of a caller's array, so decoding can reuse its buffers.
+ */
+final class ColumnEncoding {
+
+    private ColumnEncoding() {
+    } // Utility class
+
+    /**
+     * Bits needed to pack values from 0 to maxValue.
+     */
+    static int bitsFor(int maxValue) {
+        return 32 - Integer.numberOfLeadingZeros(maxValue);
+    }
+
+    static void writePacked(DataOutputStream out, int[] values, int count, int bits) throws IOException {
+        if (bits == 0) {
+            return;
+        }
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < count; i++) {
+            buffer = (buffer << bits) | (values[i] & mask);
+            buffered += bits;
+            while (buffered >= 8) {
+                buffered -= 8;
+                out.writeByte((int) (buffer >>> buffered));
+            }
+        }
+        if (buffered > 0) {
+            out.writeByte((int) (buffer << (8 - buffered)));
+        }
+    }
+
+    static void readPacked(DataInputStream in, int[] values, int count, int bits) throws IOException {
+        if (bits == 0) {
+            Arrays.fill(values, 0, count, 0);
+            return;
+        }
+        if (bits > 31) {
+            throw new IOException("Invalid packed column width " + bits);
+        }
+        int mask = (1 << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < count; i++) {
+            while (buffered < bits) {
+                buffer = (buffer << 8) | in.readUnsignedByte();
+                buffered += 8;
+            }
+            buffered -= bits;
+            values[i] = (int) (buffer >>> buffered) & mask;
+        }
+    }
+
+    static void writeRuns(DataOutputStream out, int[] values, int count) throws IOException {
+        int i = 0;
+        while (i < count) {
+            int value = values[i];
+            int run = 1;
+            while (i + run < count && values[i + run] == value) {
+                run++;
+            }
+            writeVarInt(out, zigZag(value));
+            writeVarInt(out, run);
+            i += run;
+        }
+    }
+
+    static void readRuns(DataInputStream in, int[] values, int count) throws IOException {
+        int i = 0;
+        while (i < count) {
+            int value = unZigZag(readVarInt(in));
+            int run = readVarInt(in);
+            if (run <= 0 || run > count - i) {
+                throw new IOException("Invalid run length " + run);
+            }
+            Arrays.fill(values, i, i + run, value);
+            i += run;
+        }
+    }
+
+    static void writeDeltas(DataOutputStream out, int[] values, int count) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, zigZag(values[i] - previous));
+            previous = values[i];
+        }
+    }
+
+    static void readDeltas(DataInputStream in, int[] values, int count) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += unZigZag(readVarInt(in));
+            values[i] = previous;
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int encoded) {
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 35) {
+                throw new IOException("VarInt too long");
+            }
+            b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+package net.fivew14.xaerosync.client.sync;
+
+import net.fivew14.xaerosync.common.TileSections;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.state.BlockState;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A decoded chunk payload held in reusable primitive arrays, filled by {@link ChunkSerializer}
+ * and copied into Xaero's map by {@link SyncedChunkApplier}.
+ * <p>
+ * Instances are pooled so applying downloads doesn't churn garbage: get one from
+ * {@link ChunkSerializer#deserialize} and {@link #release} it once applied.
+ */
+public final class DecodedChunk {
+
+    // Enough for the decode workers plus a frame's worth of chunks waiting to be applied.
+    // ChunkApplyPipeline never has more than this decoded ahead of apply, so they all come from the pool.
+    static final int POOL_SIZE = 8;
+    private static final ArrayDeque<DecodedChunk> POOL = new ArrayDeque<>();
+
+    private final Tile[] tiles = new Tile[TileSections.TILE_COUNT];
+    private int chunkX;
+    private int chunkZ;
+    private int tileMask;
+
+    private DecodedChunk() {
+    }
+
+    static DecodedChunk acquire(int chunkX, int chunkZ) {
+        DecodedChunk chunk;
+        synchronized (POOL) {
+            chunk = POOL.poll();
+        }
+        if (chunk == null) {
+            chunk = new DecodedChunk();
+        }
+        chunk.chunkX = chunkX;
+        chunk.chunkZ = chunkZ;
+        chunk.tileMask = 0;
+        return chunk;
+    }
+
+    /**
+     * Hand the arrays back for reuse. The chunk must not be used afterwards.
+     */
+    public void release() {
+        synchronized (POOL) {
+            if (POOL.size() < POOL_SIZE) {
+                POOL.push(this);
+            }
+        }
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * A decoded tile, or null if the payload didn't hold it.
+     */
+    @Nullable
+    public Tile getTile(int tileX, int tileZ) {
+        int index = TileSections.tileIndex(tileX, tileZ);
+        return (tileMask & (1 << index)) != 0 ? tiles[index] : null;
+    }
+
+    /**
+     * Start decoding a tile into reused arrays.
+     */
+    Tile beginTile(int index) {
+        Tile tile = tiles[index];
+        if (tile == null) {
+            tile = new Tile();
+            tiles[index] = tile;
+        }
+        tile.reset();
+        tileMask |= 1 << index;
+        return tile;
+    }
+
+    /**
+     * One tile's blocks as columns over its present blocks in x-major order. State and biome
+     * columns hold palette codes, index + 1 or 0 for none. Overlay columns run over the overlays
+     * of all blocks in order.
+     */
+    public static final class Tile {
+
+        public static final int BLOCKS = 16 * 16;
+
+        byte worldInterpretationVersion;
+        int writtenCaveStart;
+        byte writtenCaveDepth;
+
+        final List<BlockState> blockPalette = new ArrayList<>();
+        final List<ResourceKey<Biome>> biomePalette = new ArrayList<>();
+
+        final byte[] presence = new byte[BLOCKS / 8];
+        int blockCount;
+        final int[] states = new int[BLOCKS];
+        final int[] heights = new int[BLOCKS];
+        final int[] topHeights = new int[BLOCKS];
+        final int[] light = new int[BLOCKS];
+        final int[] glowing = new int[BLOCKS];
+        final int[] verticalSlopes = new int[BLOCKS];
+        final int[] diagonalSlopes = new int[BLOCKS];
+        final int[] biomes = new int[BLOCKS];
+        final int[] overlayCounts = new int[BLOCKS];
+
+        int overlayCount;
+        int[] overlayStates = new int[BLOCKS];
+        int[] overlayLight = new int[BLOCKS];
+        int[] overlayGlowing = new int[BLOCKS];
+        int[] overlayOpacity = new int[BLOCKS];
+
+        private Tile() {
+        }
+
+        private void reset() {
+            blockPalette.clear();
+            biomePalette.clear();
+            Arrays.fill(presence, (byte) 0);
+            blockCount = 0;
+            overlayCount = 0;
+        }
+
+        boolean isPresent(int index) {
+            return (presence[index >> 3] & (1 << (index & 7))) != 0;
+        }
+
+        void setPresent(int index) {
+            presence[index >> 3] |= (byte) (1 << (index & 7));
+        }
+
+        void ensureOverlayCapacity(int count) {
+            if (count > overlayStates.length) {
+                int size = Math.max(count, overlayStates.length * 2);
+                overlayStates = Arrays.copyOf(overlayStates, size);
+                overlayLight = Arrays.copyOf(overlayLight, size);
+                overlayGlowing = Arrays.copyOf(overlayGlowing, size);
+                overlayOpacity = Arrays.copyOf(overlayOpacity, size);
+            }
+        }
+
+        @Nullable
+        BlockState state(int code) {
+            return code > 0 && code <= blockPalette.size() ? blockPalette.get(code - 1) : null;
+        }
+
+        @Nullable
+        ResourceKey<Biome> biome(int code) {
+            return code > 0 && code <= biomePalette.size() ? biomePalette.get(code - 1) : null;
+        }
+    }
+}
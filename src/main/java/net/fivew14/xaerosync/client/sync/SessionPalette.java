@@ -0,0 +1,111 @@
+package net.fivew14.xaerosync.client.sync;
+
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The client's copy of the server's global palette for this session, built up from
+ * palette updates as the server assigns IDs.
+ * <p>
+ * Block states are resolved against the registries the first time they're needed.
+ * Thread-safe, since Xaero applies cached chunks on its own thread.
+ */
+public class SessionPalette {
+
+    private final List<CompoundTag> blockStateTags = new ArrayList<>();
+    // Resolved block states, a prefix of blockStateTags
+    private final List<BlockState> blockStates = new ArrayList<>();
+    private final Map<BlockState, Integer> blockStateIds = new HashMap<>();
+    private final List<ResourceKey<Biome>> biomes = new ArrayList<>();
+    private final Map<ResourceKey<Biome>, Integer> biomeIds = new HashMap<>();
+
+    /**
+     * Add entries announced by the server. Returns false if they don't follow on from the known
+     * ones, in which case nothing is added.
+     */
+    public synchronized boolean add(int firstBlockStateId, List<CompoundTag> newBlockStates,
+                                    int firstBiomeId, List<String> newBiomes) {
+        if (firstBlockStateId != blockStateTags.size() || firstBiomeId != biomes.size()) {
+            return false;
+        }
+        blockStateTags.addAll(newBlockStates);
+        for (String name : newBiomes) {
+            ResourceLocation location = ResourceLocation.tryParse(name);
+            ResourceKey<Biome> biome = location != null ? ResourceKey.create(Registries.BIOME, location) : null;
+            if (biome != null) {
+                biomeIds.putIfAbsent(biome, biomes.size());
+            }
+            biomes.add(biome);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        blockStateTags.clear();
+        blockStates.clear();
+        blockStateIds.clear();
+        biomes.clear();
+        biomeIds.clear();
+    }
+
+    public synchronized int getBlockStateCount() {
+        return blockStateTags.size();
+    }
+
+    public synchronized int getBiomeCount() {
+        return biomes.size();
+    }
+
+    /**
+     * ID of a block state, or -1 if the server hasn't assigned it one yet.
+     */
+    public synchronized int getBlockStateId(BlockState state, HolderLookup<Block> blockLookup) {
+        resolve(blockLookup);
+        return blockStateIds.getOrDefault(state, -1);
+    }
+
+    /**
+     * Block state with an ID, or null if the ID is unknown.
+     */
+    @Nullable
+    public synchronized BlockState getBlockState(int id, HolderLookup<Block> blockLookup) {
+        if (id < 0 || id >= blockStateTags.size()) {
+            return null;
+        }
+        resolve(blockLookup);
+        return blockStates.get(id);
+    }
+
+    public synchronized int getBiomeId(ResourceKey<Biome> biome) {
+        return biomeIds.getOrDefault(biome, -1);
+    }
+
+    /**
+     * Biome with an ID, or null if the ID is unknown or its name couldn't be parsed.
+     */
+    @Nullable
+    public synchronized ResourceKey<Biome> getBiome(int id) {
+        return id >= 0 && id < biomes.size() ? biomes.get(id) : null;
+    }
+
+    private void resolve(HolderLookup<Block> blockLookup) {
+        for (int id = blockStates.size(); id < blockStateTags.size(); id++) {
+            BlockState state = NbtUtils.readBlockState(blockLookup, blockStateTags.get(id));
+            blockStateIds.putIfAbsent(state, id);
+            blockStates.add(state);
+        }
+    }
+}
@@ -4,12 +4,13 @@ import net.fivew14.xaerosync.XaeroSync;
 import net.fivew14.xaerosync.common.ChunkCoord;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.state.BlockState;
 import xaero.map.MapProcessor;
 import xaero.map.WorldMapSession;
 import xaero.map.cache.BlockStateShortShapeCache;
 import xaero.map.region.*;
 
-import java.util.List;
+import javax.annotation.Nullable;
 import java.util.Optional;
 
 /**
@@ -21,28 +22,23 @@ public class SyncedChunkApplier {
     public static final int SURFACE_LAYER = Integer.MAX_VALUE;
 
     /**
-     * Try to apply a single cached chunk immediately.
-     * Called after storing a chunk in cache.
+     * Apply a chunk decoded by the {@link ChunkApplyPipeline} right away. The caller still owns
+     * the decoded chunk.
      * <p>
      * IMPORTANT: We never force regions to loaded state or create regions ourselves.
      * This ensures we don't interfere with Xaero's normal map generation.
      * We only apply synced data to regions that Xaero has already properly loaded.
      * <p>
-     * If the region isn't ready, the chunk stays in cache and will be applied:
+     * Returns false if the region isn't ready. The chunk stays in cache and will be applied:
      * - Via the MapSaveLoadMixin when Xaero loads the region
      * - Via processPendingChunks() periodic check
      */
-    public static void tryApplyChunk(ChunkCoord coord) {
-        SyncedChunkCache cache = SyncedChunkCache.getInstance();
-        if (!cache.hasChunk(coord)) {
-            return;
-        }
-
+    public static boolean tryApplyDecoded(ChunkCoord coord, DecodedChunk decodedChunk) {
         WorldMapSession session = WorldMapSession.getCurrentSession();
-        if (session == null) return;
+        if (session == null) return false;
 
         MapProcessor processor = session.getMapProcessor();
-        if (processor == null) return;
+        if (processor == null) return false;
 
         // Only get existing region - don't create one
         // Let Xaero handle region creation through its normal flow
@@ -53,34 +49,25 @@ public class SyncedChunkApplier {
                 false  // Don't create - let Xaero handle region lifecycle
         );
 
-        if (region == null) {
-            // Region doesn't exist yet - chunk stays in cache for later
+        if (region == null || region.getLoadState() != 2) {
             XaeroSync.LOGGER.debug("Region not ready for {}, chunk stays in cache", coord);
-            return;
-        }
-
-        int loadState = region.getLoadState();
-
-        if (loadState != 2) {
-            // Region exists but isn't fully loaded yet
-            // The mixin will apply our data when Xaero finishes loading it
-            XaeroSync.LOGGER.debug("Region not in loaded state ({}) for {}, chunk stays in cache", loadState, coord);
-            return;
+            return false;
         }
 
-        // Region is ready (loadState == 2) - apply the chunk
-        int localX = coord.localX();
-        int localZ = coord.localZ();
-
-        boolean success = applyChunk(region, coord, localX, localZ);
-        if (success) {
-            cache.remove(coord);
-            XaeroSync.LOGGER.debug("Immediately applied synced chunk {}", coord);
+        if (!canOverwrite(coord)) {
+            return false;
         }
+        return applyDecoded(region, coord, coord.localX(), coord.localZ(), decodedChunk);
     }
 
+    // How often every region with cached chunks in the current dimension is queued as ready,
+    // for regions Xaero created or loaded without going through the mixin, and chunks deferred
+    // while they were being explored
+    private static final long SWEEP_INTERVAL_MS = 10_000;
+    private static long lastSweepTime = 0;
+
     /**
-     * Process all pending cached chunks and try to apply them.
+     * Apply cached chunks in regions queued as ready.
      * Called periodically from ClientSyncManager to handle chunks whose regions
      * became ready without triggering the mixin.
      * <p>
@@ -102,29 +89,39 @@ public class SyncedChunkApplier {
         MapProcessor processor = session.getMapProcessor();
         if (processor == null) return 0;
 
+        String dimensionStr = processor.getCurrentDimension();
+        ResourceLocation dimension = dimensionStr != null ? ResourceLocation.tryParse(dimensionStr) : null;
+        if (dimension == null) return 0;
+
+        long now = System.currentTimeMillis();
+        if (now - lastSweepTime > SWEEP_INTERVAL_MS) {
+            lastSweepTime = now;
+            cache.markAllRegionsReady(dimension);
+        }
+
+        // Each region queued now is looked at once, regions queued meanwhile wait for the next call
         int applied = 0;
-        for (ChunkCoord coord : cache.getCachedCoords()) {
-            if (applied >= maxChunks) break;
+        int regionsLeft = cache.getReadyRegionCount();
+        SyncedChunkCache.RegionKey key;
+        while (applied < maxChunks && regionsLeft-- > 0 && (key = cache.pollReadyRegion()) != null) {
+            // Other dimensions' regions are queued again when Xaero loads them
+            if (!key.dimension().equals(dimension)) continue;
 
             // Only get existing region - don't create one
             MapRegion region = processor.getLeafMapRegion(
                     SURFACE_LAYER,
-                    coord.regionX(),
-                    coord.regionZ(),
+                    key.regionX(),
+                    key.regionZ(),
                     false  // Don't create - let Xaero handle region lifecycle
             );
 
-            // Only apply if region exists and is fully loaded
-            if (region != null && region.getLoadState() == 2) {
-                int localX = coord.localX();
-                int localZ = coord.localZ();
+            // Only apply if region exists and is fully loaded, otherwise the mixin applies them once it is
+            if (region == null || region.getLoadState() != 2) continue;
 
-                boolean success = applyChunk(region, coord, localX, localZ);
-                if (success) {
-                    cache.remove(coord);
-                    applied++;
-                    XaeroSync.LOGGER.debug("Applied pending cached chunk {}", coord);
-                }
+            applied += applyRegionChunks(region, dimension, maxChunks - applied);
+            if (applied >= maxChunks) {
+                // Its remaining chunks may not have been tried yet
+                cache.markRegionReady(dimension, key.regionX(), key.regionZ());
             }
         }
 
@@ -166,24 +163,10 @@ public class SyncedChunkApplier {
         int regionX = region.getRegionX();
         int regionZ = region.getRegionZ();
 
-        // Check each chunk position in this region (8x8 chunks per region)
-        int appliedCount = 0;
-        for (int localX = 0; localX < 8; localX++) {
-            for (int localZ = 0; localZ < 8; localZ++) {
-                int chunkX = regionX * 8 + localX;
-                int chunkZ = regionZ * 8 + localZ;
+        int appliedCount = applyRegionChunks(region, dimension, Integer.MAX_VALUE);
 
-                ChunkCoord coord = new ChunkCoord(dimension, chunkX, chunkZ);
-
-                if (cache.hasChunk(coord)) {
-                    boolean success = applyChunk(region, coord, localX, localZ);
-                    if (success) {
-                        appliedCount++;
-                        cache.remove(coord); // Remove from cache after successful apply
-                    }
-                }
-            }
-        }
+        // Chunks that couldn't be applied yet are retried from the client thread
+        cache.markRegionReady(dimension, regionX, regionZ);
 
         if (appliedCount > 0) {
             XaeroSync.LOGGER.info("Applied {} synced chunks to region ({}, {})",
@@ -191,17 +174,81 @@ public class SyncedChunkApplier {
         }
     }
 
+    /**
+     * Apply a region's cached chunks, going by the cache's region index.
+     *
+     * @return Number of chunks successfully applied
+     */
+    private static int applyRegionChunks(MapRegion region, ResourceLocation dimension, int maxChunks) {
+        SyncedChunkCache cache = SyncedChunkCache.getInstance();
+        int regionX = region.getRegionX();
+        int regionZ = region.getRegionZ();
+        long mask = cache.getRegionMask(dimension, regionX, regionZ);
+
+        int applied = 0;
+        while (mask != 0 && applied < maxChunks) {
+            int bit = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+
+            int localX = bit >> 3;
+            int localZ = bit & 7;
+            ChunkCoord coord = new ChunkCoord(dimension, regionX * 8 + localX, regionZ * 8 + localZ);
+            SyncedChunkCache.CachedChunk cached = applyChunk(region, coord, localX, localZ);
+            if (cached != null) {
+                // Remove from cache after successful apply, unless a newer download was cached meanwhile
+                cache.remove(coord, cached.timestamp());
+                applied++;
+                XaeroSync.LOGGER.debug("Applied pending cached chunk {}", coord);
+            }
+        }
+        return applied;
+    }
+
     // Don't overwrite chunks that were updated locally within this time window
     // This gives Xaero time to write chunks the player is actively exploring
     private static final long RECENT_UPDATE_THRESHOLD_MS = 90_000; // 1.5 minutes
 
     /**
-     * Apply a single cached chunk to the region.
+     * Apply a single cached chunk to the region. Returns the cached copy that was applied, or null.
+     */
+    @Nullable
+    private static SyncedChunkCache.CachedChunk applyChunk(MapRegion region, ChunkCoord coord, int localX, int localZ) {
+        if (!canOverwrite(coord)) {
+            return null;
+        }
+
+        SyncedChunkCache cache = SyncedChunkCache.getInstance();
+        SyncedChunkCache.CachedChunk cached = cache.load(coord);
+        if (cached == null) {
+            return null;
+        }
+
+        // Deserialize the chunk data
+        DecodedChunk decodedChunk = ChunkSerializer.deserialize(cached.data(),
+                Minecraft.getInstance().level.registryAccess(),
+                ClientSyncManager.getInstance().getChunkCodec(),
+                ClientSyncManager.getInstance().getSessionPalette());
+
+        if (decodedChunk == null) {
+            // Reason logged by the serializer; usually palette IDs not announced yet, so it's retried
+            XaeroSync.LOGGER.debug("Cached chunk {} could not be decoded, kept for later", coord);
+            return null;
+        }
+
+        try {
+            return applyDecoded(region, coord, localX, localZ, decodedChunk) ? cached : null;
+        } finally {
+            decodedChunk.release();
+        }
+    }
+
+    /**
+     * Check whether synced data may be written over a chunk.
      * <p>
      * We skip chunks that were recently updated locally - this means Xaero
      * is actively writing to them and we shouldn't overwrite.
      */
-    private static boolean applyChunk(MapRegion region, ChunkCoord coord, int localX, int localZ) {
+    private static boolean canOverwrite(ChunkCoord coord) {
         Minecraft mc = Minecraft.getInstance();
         if (mc.level == null || mc.player == null) {
             return false;
@@ -219,22 +266,14 @@ public class SyncedChunkApplier {
                 return false;
             }
         }
+        return true;
+    }
 
-        SyncedChunkCache cache = SyncedChunkCache.getInstance();
-        SyncedChunkCache.CachedChunk cached = cache.load(coord);
-        if (cached == null) {
-            return false;
-        }
-
-        // Deserialize the chunk data
-        ChunkSerializer.DeserializedChunk deserializedChunk =
-                ChunkSerializer.deserialize(cached.data(), mc.level.registryAccess());
-
-        if (deserializedChunk == null) {
-            XaeroSync.LOGGER.warn("Failed to deserialize cached chunk {}", coord);
-            return false;
-        }
-
+    /**
+     * Write a decoded chunk into the region.
+     */
+    private static boolean applyDecoded(MapRegion region, ChunkCoord coord, int localX, int localZ,
+                                        DecodedChunk decodedChunk) {
         WorldMapSession session = WorldMapSession.getCurrentSession();
         if (session == null) {
             return false;
@@ -292,10 +331,11 @@ public class SyncedChunkApplier {
             // We overwrite existing tiles because synced data may be newer
             // (The writer is paused so no conflict with active generation)
             boolean anyTilesUpdated = false;
+            OverlayBuilder overlayBuilder = new OverlayBuilder(processor.getOverlayManager());
             for (int tx = 0; tx < 4; tx++) {
                 for (int tz = 0; tz < 4; tz++) {
-                    ChunkSerializer.DeserializedTile deserializedTile = deserializedChunk.tiles()[tx][tz];
-                    if (deserializedTile == null) continue;
+                    DecodedChunk.Tile decodedTile = decodedChunk.getTile(tx, tz);
+                    if (decodedTile == null) continue;
 
                     MapTile tile = tileChunk.getTile(tx, tz);
 
@@ -311,11 +351,11 @@ public class SyncedChunkApplier {
                     }
 
                     // Apply block data (overwrites existing data with synced data)
-                    applyTile(tile, deserializedTile, processor);
+                    applyTile(tile, decodedTile, processor, overlayBuilder);
 
                     // Set tile properties
-                    tile.setWrittenCave(deserializedTile.writtenCaveStart(), deserializedTile.writtenCaveDepth());
-                    tile.setWorldInterpretationVersion(deserializedTile.worldInterpretationVersion());
+                    tile.setWrittenCave(decodedTile.writtenCaveStart, decodedTile.writtenCaveDepth);
+                    tile.setWorldInterpretationVersion(decodedTile.worldInterpretationVersion);
                     tile.setLoaded(true);
                     tile.setWrittenOnce(true);
 
@@ -343,57 +383,58 @@ public class SyncedChunkApplier {
     }
 
     /**
-     * Apply deserialized tile data to a MapTile.
+     * Apply a decoded tile to a MapTile, walking its columns in step with the present blocks.
      */
-    private static void applyTile(MapTile tile, ChunkSerializer.DeserializedTile deserializedTile,
-                                  MapProcessor processor) {
-        OverlayManager overlayManager = processor.getOverlayManager();
-        OverlayBuilder overlayBuilder = new OverlayBuilder(overlayManager);
-
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                ChunkSerializer.DeserializedBlock deserializedBlock = deserializedTile.blocks()[x][z];
-                if (deserializedBlock == null) continue;
-
-                MapBlock block = tile.getBlock(x, z);
-                if (block == null) {
-                    block = new MapBlock();
-                    tile.setBlock(x, z, block);
-                }
+    private static void applyTile(MapTile tile, DecodedChunk.Tile decodedTile, MapProcessor processor,
+                                  OverlayBuilder overlayBuilder) {
+        int blockIndex = 0;
+        int overlayIndex = 0;
+        for (int i = 0; i < DecodedChunk.Tile.BLOCKS; i++) {
+            if (!decodedTile.isPresent(i)) continue;
+            int b = blockIndex++;
+
+            int x = i >> 4;
+            int z = i & 15;
+            MapBlock block = tile.getBlock(x, z);
+            if (block == null) {
+                block = new MapBlock();
+                tile.setBlock(x, z, block);
+            }
 
-                // Update block data
-                block.write(
-                        deserializedBlock.state(),
-                        deserializedBlock.height(),
-                        deserializedBlock.topHeight(),
-                        deserializedBlock.biome(),
-                        deserializedBlock.light(),
-                        deserializedBlock.glowing(),
-                        false // cave mode - surface only
-                );
-
-                // Restore overlays
-                List<ChunkSerializer.DeserializedOverlay> overlays = deserializedBlock.overlays();
-                if (overlays != null && !overlays.isEmpty()) {
-                    overlayBuilder.startBuilding();
-                    for (ChunkSerializer.DeserializedOverlay deserializedOverlay : overlays) {
-                        if (deserializedOverlay.state() == null) continue;
-                        overlayBuilder.build(
-                                deserializedOverlay.state(),
-                                deserializedOverlay.opacity(),
-                                deserializedOverlay.light(),
-                                processor,
-                                null
-                        );
-                    }
-                    overlayBuilder.finishBuilding(block);
-                }
+            // Update block data
+            block.write(
+                    decodedTile.state(decodedTile.states[b]),
+                    decodedTile.heights[b],
+                    decodedTile.topHeights[b],
+                    decodedTile.biome(decodedTile.biomes[b]),
+                    (byte) decodedTile.light[b],
+                    decodedTile.glowing[b] != 0,
+                    false // cave mode - surface only
+            );
 
-                // Restore slope data
-                block.setVerticalSlope(deserializedBlock.verticalSlope());
-                block.setDiagonalSlope(deserializedBlock.diagonalSlope());
-                block.setSlopeUnknown(false);
+            // Restore overlays
+            int overlayCount = decodedTile.overlayCounts[b];
+            if (overlayCount > 0) {
+                overlayBuilder.startBuilding();
+                for (int j = 0; j < overlayCount; j++) {
+                    int o = overlayIndex++;
+                    BlockState state = decodedTile.state(decodedTile.overlayStates[o]);
+                    if (state == null) continue;
+                    overlayBuilder.build(
+                            state,
+                            decodedTile.overlayOpacity[o],
+                            (byte) decodedTile.overlayLight[o],
+                            processor,
+                            null
+                    );
+                }
+                overlayBuilder.finishBuilding(block);
             }
+
+            // Restore slope data
+            block.setVerticalSlope((byte) decodedTile.verticalSlopes[b]);
+            block.setDiagonalSlope((byte) decodedTile.diagonalSlopes[b]);
+            block.setSlopeUnknown(false);
         }
     }
 }
@@ -9,10 +9,11 @@ import javax.annotation.Nullable;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Cache for storing downloaded chunk data on disk.
@@ -21,6 +22,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * This cache is separate from Xaero's own storage. When Xaero loads a region/chunk,
  * we check this cache and apply synced data via mixin hooks.
+ * <p>
+ * Cached chunks are also indexed by region, so applying them only looks at regions that have
+ * some, and regions that may be able to take theirs are queued as ready.
  */
 public class SyncedChunkCache {
 
@@ -29,6 +33,16 @@ public class SyncedChunkCache {
     // In-memory index of what chunks we have cached (coord -> timestamp)
     private final Map<ChunkCoord, Long> cachedChunks = new ConcurrentHashMap<>();
 
+    // Cached chunks by dimension and packed region coords, as masks over the region's 8x8 chunks
+    private final Map<ResourceLocation, Map<Long, Long>> regionIndex = new ConcurrentHashMap<>();
+
+    // Regions to check for chunks to apply, each queued once
+    private final Queue<RegionKey> readyRegions = new ConcurrentLinkedQueue<>();
+    private final Set<RegionKey> queuedRegions = ConcurrentHashMap.newKeySet();
+
+    // Orders writing and deleting chunk files, so a removal can't take a newer copy with it
+    private final Object fileLock = new Object();
+
     // Current world ID
     private String currentWorldId;
 
@@ -56,7 +70,7 @@ public class SyncedChunkCache {
         }
 
         currentWorldId = worldId;
-        cachedChunks.clear();
+        clearIndex();
 
         // Scan cache directory to build index
         Path cacheDir = getCacheDir();
@@ -72,7 +86,7 @@ public class SyncedChunkCache {
      * Clear the cache (on disconnect).
      */
     public void clear() {
-        cachedChunks.clear();
+        clearIndex();
         currentWorldId = null;
     }
 
@@ -93,15 +107,16 @@ public class SyncedChunkCache {
         try {
             Files.createDirectories(chunkFile.getParent());
 
-            try (DataOutputStream dos = new DataOutputStream(
-                    new BufferedOutputStream(Files.newOutputStream(chunkFile)))) {
-                // Write header
-                dos.writeLong(timestamp);
-                dos.writeInt(data.length);
-                dos.write(data);
+            synchronized (fileLock) {
+                try (DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(chunkFile)))) {
+                    // Write header
+                    dos.writeLong(timestamp);
+                    dos.writeInt(data.length);
+                    dos.write(data);
+                }
+                track(coord, timestamp);
             }
-
-            cachedChunks.put(coord, timestamp);
             XaeroSync.LOGGER.debug("Stored chunk {} in cache (timestamp: {})", coord, timestamp);
 
         } catch (IOException e) {
@@ -143,7 +158,7 @@ public class SyncedChunkCache {
 
         Path chunkFile = getChunkFile(coord);
         if (chunkFile == null || !Files.exists(chunkFile)) {
-            cachedChunks.remove(coord);
+            untrack(coord);
             return null;
         }
 
@@ -158,17 +173,53 @@ public class SyncedChunkCache {
 
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to load chunk {} from cache", coord, e);
-            cachedChunks.remove(coord);
+            untrack(coord);
             return null;
         }
     }
 
     /**
-     * Remove a chunk from cache (e.g., after successfully applying it).
+     * Remove a chunk after applying it from the cache, unless a copy other than the applied
+     * one was stored since. Returns true if it was removed.
      */
-    public void remove(ChunkCoord coord) {
-        cachedChunks.remove(coord);
+    public boolean remove(ChunkCoord coord, long timestamp) {
+        synchronized (fileLock) {
+            Long cachedTs = cachedChunks.get(coord);
+            if (cachedTs == null || cachedTs != timestamp) {
+                return false;
+            }
+            untrack(coord);
+            deleteFile(coord);
+            return true;
+        }
+    }
+
+    /**
+     * Drop a cached copy no newer than data just applied directly, so it can't be applied over
+     * it later. Only the index is updated, which is cheap enough for the client thread; the file
+     * is left for {@link #deleteIfUntracked}. Returns true if a copy was dropped.
+     */
+    public boolean forgetUpTo(ChunkCoord coord, long appliedTimestamp) {
+        Long cachedTs = cachedChunks.get(coord);
+        if (cachedTs == null || cachedTs > appliedTimestamp || !cachedChunks.remove(coord, cachedTs)) {
+            return false;
+        }
+        clearRegionBit(coord);
+        return true;
+    }
+
+    /**
+     * Delete a chunk's file unless a copy was stored again since it was dropped from the index.
+     */
+    public void deleteIfUntracked(ChunkCoord coord) {
+        synchronized (fileLock) {
+            if (!cachedChunks.containsKey(coord)) {
+                deleteFile(coord);
+            }
+        }
+    }
 
+    private void deleteFile(ChunkCoord coord) {
         Path chunkFile = getChunkFile(coord);
         if (chunkFile != null) {
             try {
@@ -186,11 +237,98 @@ public class SyncedChunkCache {
         return cachedChunks.size();
     }
 
+    // ==================== Region Index ====================
+
+    /**
+     * Get the cached chunks in a region as a mask, with bit localX * 8 + localZ set for each.
+     */
+    public long getRegionMask(ResourceLocation dimension, int regionX, int regionZ) {
+        Map<Long, Long> regions = regionIndex.get(dimension);
+        if (regions == null) {
+            return 0;
+        }
+        return regions.getOrDefault(ChunkCoord.pack(regionX, regionZ), 0L);
+    }
+
+    /**
+     * Queue a region to be checked for chunks to apply, if it has any cached.
+     */
+    public void markRegionReady(ResourceLocation dimension, int regionX, int regionZ) {
+        if (getRegionMask(dimension, regionX, regionZ) == 0) {
+            return;
+        }
+        RegionKey key = new RegionKey(dimension, regionX, regionZ);
+        if (queuedRegions.add(key)) {
+            readyRegions.add(key);
+        }
+    }
+
+    /**
+     * Queue every region of a dimension that has chunks cached.
+     */
+    public void markAllRegionsReady(ResourceLocation dimension) {
+        Map<Long, Long> regions = regionIndex.get(dimension);
+        if (regions == null) {
+            return;
+        }
+        for (long packed : regions.keySet()) {
+            markRegionReady(dimension, ChunkCoord.unpackX(packed), ChunkCoord.unpackZ(packed));
+        }
+    }
+
     /**
-     * Get all cached chunk coordinates (for periodic processing).
+     * Take the next ready region, or null if none is queued.
      */
-    public Set<ChunkCoord> getCachedCoords() {
-        return new HashSet<>(cachedChunks.keySet());
+    @Nullable
+    public RegionKey pollReadyRegion() {
+        RegionKey key = readyRegions.poll();
+        if (key != null) {
+            queuedRegions.remove(key);
+        }
+        return key;
+    }
+
+    public int getReadyRegionCount() {
+        return queuedRegions.size();
+    }
+
+    private void track(ChunkCoord coord, long timestamp) {
+        cachedChunks.put(coord, timestamp);
+        long bit = regionBit(coord);
+        regionIndex.computeIfAbsent(coord.dimension(), dimension -> new ConcurrentHashMap<>())
+                .merge(ChunkCoord.pack(coord.regionX(), coord.regionZ()), bit, (a, b) -> a | b);
+    }
+
+    private void untrack(ChunkCoord coord) {
+        cachedChunks.remove(coord);
+        clearRegionBit(coord);
+    }
+
+    private void clearRegionBit(ChunkCoord coord) {
+        Map<Long, Long> regions = regionIndex.get(coord.dimension());
+        if (regions == null) {
+            return;
+        }
+        long bit = regionBit(coord);
+        // Stored again concurrently, then the bit stays
+        regions.computeIfPresent(ChunkCoord.pack(coord.regionX(), coord.regionZ()), (key, mask) -> {
+            if (cachedChunks.containsKey(coord)) {
+                return mask;
+            }
+            long remaining = mask & ~bit;
+            return remaining != 0 ? remaining : null;
+        });
+    }
+
+    private void clearIndex() {
+        cachedChunks.clear();
+        regionIndex.clear();
+        readyRegions.clear();
+        queuedRegions.clear();
+    }
+
+    private static long regionBit(ChunkCoord coord) {
+        return 1L << (coord.localX() * 8 + coord.localZ());
     }
 
     // ==================== Helpers ====================
@@ -272,7 +410,7 @@ public class SyncedChunkCache {
                 long timestamp = dis.readLong();
 
                 ChunkCoord coord = new ChunkCoord(dimLoc, chunkX, chunkZ);
-                cachedChunks.put(coord, timestamp);
+                track(coord, timestamp);
             }
 
         } catch (Exception e) {
@@ -306,4 +444,7 @@ public class SyncedChunkCache {
 
     public record CachedChunk(ChunkCoord coord, byte[] data, long timestamp) {
     }
+
+    public record RegionKey(ResourceLocation dimension, int regionX, int regionZ) {
+    }
 }
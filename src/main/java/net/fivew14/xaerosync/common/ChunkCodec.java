@@ -0,0 +1,182 @@
+package net.fivew14.xaerosync.common;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of chunk payloads, on the wire and in server storage.
+ * <p>
+ * A payload starts with a codec byte:
+ * - 1: raw DEFLATE
+ * - 2: long dictionaryId, then raw DEFLATE with the server's preset dictionary
+ * Payloads from before codecs were recorded are GZIP streams, recognised by their magic bytes.
+ * <p>
+ * Chunk payloads are small and share most of their block state palettes, which DEFLATE can only
+ * exploit across chunks through a preset dictionary. The dictionary is trained by the server
+ * and sent to clients with the sync config.
+ */
+public final class ChunkCodec {
+
+    public static final ChunkCodec DEFAULT = new ChunkCodec(null);
+
+    // DEFLATE can only look back 32KB, so a bigger dictionary wouldn't help
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte CODEC_DEFLATE = 1;
+    private static final byte CODEC_DEFLATE_DICTIONARY = 2;
+
+    // Far above any real chunk, guards against decompression bombs
+    private static final int MAX_UNCOMPRESSED_SIZE = 8 * 1024 * 1024;
+
+    @Nullable
+    private final byte[] dictionary;
+    private final long dictionaryId;
+
+    private ChunkCodec(@Nullable byte[] dictionary) {
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionary != null ? ContentHash.of(dictionary) : ContentHash.UNKNOWN;
+    }
+
+    /**
+     * A codec compressing with the given dictionary, or the default codec if there is none.
+     */
+    public static ChunkCodec withDictionary(@Nullable byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0) {
+            return DEFAULT;
+        }
+        if (dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Compression dictionary too large: " + dictionary.length + " bytes");
+        }
+        return new ChunkCodec(dictionary.clone());
+    }
+
+    /**
+     * The preset dictionary, or an empty array if there is none.
+     */
+    public byte[] getDictionary() {
+        return dictionary != null ? dictionary.clone() : new byte[0];
+    }
+
+    public boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    public long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    public byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+                out.write(CODEC_DEFLATE_DICTIONARY);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (dictionaryId >>> shift));
+                }
+            } else {
+                out.write(CODEC_DEFLATE);
+            }
+
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] decompress(byte[] data) throws IOException {
+        if (isGzip(data)) {
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                return checkSize(gzip.readNBytes(MAX_UNCOMPRESSED_SIZE + 1));
+            }
+        }
+        if (data.length == 0) {
+            throw new EOFException("Empty chunk payload");
+        }
+
+        int offset = 1;
+        Inflater inflater = new Inflater(true);
+        try {
+            if (data[0] == CODEC_DEFLATE_DICTIONARY) {
+                if (data.length < 9 || readLong(data, 1) != dictionaryId || dictionary == null) {
+                    throw new IOException("Chunk payload uses an unknown compression dictionary");
+                }
+                inflater.setDictionary(dictionary);
+                offset = 9;
+            } else if (data[0] != CODEC_DEFLATE) {
+                throw new IOException("Unknown chunk payload codec " + data[0]);
+            }
+
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated chunk payload");
+                }
+                out.write(buffer, 0, length);
+                if (out.size() > MAX_UNCOMPRESSED_SIZE) {
+                    break;
+                }
+            }
+            return checkSize(out.toByteArray());
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Check from its header alone whether a payload can be decompressed with this codec.
+     */
+    public boolean canDecode(byte[] data) {
+        if (isGzip(data)) {
+            return true;
+        }
+        if (data.length < 1) {
+            return false;
+        }
+        if (data[0] == CODEC_DEFLATE_DICTIONARY) {
+            return data.length >= 9 && dictionary != null && readLong(data, 1) == dictionaryId;
+        }
+        return data[0] == CODEC_DEFLATE;
+    }
+
+    // ==================== Helpers ====================
+
+    private static boolean isGzip(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0x1f && data[1] == (byte) 0x8b;
+    }
+
+    private static byte[] checkSize(byte[] raw) throws IOException {
+        if (raw.length > MAX_UNCOMPRESSED_SIZE) {
+            throw new IOException("Chunk payload expands beyond " + MAX_UNCOMPRESSED_SIZE + " bytes");
+        }
+        return raw;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
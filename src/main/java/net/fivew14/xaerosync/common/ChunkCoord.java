@@ -3,12 +3,20 @@ package net.fivew14.xaerosync.common;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 
+import java.util.Comparator;
+
 /**
  * Represents a 64x64 block tile chunk coordinate with dimension.
  * This corresponds to a MapTileChunk in Xaero's World Map (4 Minecraft chunks).
  */
 public record ChunkCoord(ResourceLocation dimension, int x, int z) {
 
+    /**
+     * Orders by dimension, then along a Z-order curve so nearby tiles end up next to each other.
+     */
+    public static final Comparator<ChunkCoord> MORTON_ORDER = Comparator.comparing(ChunkCoord::dimension)
+            .thenComparing((a, b) -> Long.compareUnsigned(mortonIndex(a.x, a.z), mortonIndex(b.x, b.z)));
+
     /**
      * Create a ChunkCoord from Minecraft chunk coordinates.
      * Converts from 16x16 MC chunks to 64x64 tile chunks.
@@ -54,6 +62,52 @@ public record ChunkCoord(ResourceLocation dimension, int x, int z) {
         return z & 7;
     }
 
+    /**
+     * Pack this coordinate's x/z into a single long (dimension not included).
+     */
+    public long packXZ() {
+        return pack(x, z);
+    }
+
+    /**
+     * Pack tile chunk x/z into a single long: x in the high 32 bits, z in the low 32 bits.
+     */
+    public static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the x coordinate from a packed key.
+     */
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Get the z coordinate from a packed key.
+     */
+    public static int unpackZ(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Interleave the bits of x and z into a Z-order curve index, compared as unsigned.
+     * Coordinates are offset so negative values sort before positive ones.
+     */
+    public static long mortonIndex(int x, int z) {
+        return spreadBits(x ^ Integer.MIN_VALUE) | (spreadBits(z ^ Integer.MIN_VALUE) << 1);
+    }
+
+    private static long spreadBits(int value) {
+        long bits = value & 0xFFFFFFFFL;
+        bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+        bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+        bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | (bits << 2)) & 0x3333333333333333L;
+        bits = (bits | (bits << 1)) & 0x5555555555555555L;
+        return bits;
+    }
+
     /**
      * Write to network buffer.
      */
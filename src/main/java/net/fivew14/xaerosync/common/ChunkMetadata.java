@@ -9,6 +9,8 @@ import java.util.UUID;
 
 /**
  * Metadata for a synced chunk, stored as a header in the chunk file.
+ * The content hash ({@link ContentHash}) is kept by region storage and the registry index,
+ * and isn't part of the legacy file header or network form below.
  * <p>
  * File format:
  * - int version (4 bytes)
@@ -17,11 +19,18 @@ import java.util.UUID;
  * - long timestamp (8 bytes)
  * Total: 28 bytes
  */
-public record ChunkMetadata(UUID contributor, long timestamp) {
+public record ChunkMetadata(UUID contributor, long timestamp, long contentHash) {
 
     public static final int HEADER_SIZE = 28;
     public static final int CURRENT_VERSION = 1;
 
+    /**
+     * Metadata without a known content hash.
+     */
+    public ChunkMetadata(UUID contributor, long timestamp) {
+        this(contributor, timestamp, ContentHash.UNKNOWN);
+    }
+
     /**
      * Write metadata to a DataOutput stream (for file storage).
      */
@@ -0,0 +1,119 @@
+package net.fivew14.xaerosync.common;
+
+/**
+ * Content hashes of chunk map data, used to recognise uploads that don't change anything.
+ * <p>
+ * The hash is XXH64 (seed 0) of the chunk's uncompressed sections, see
+ * {@link TileSections#contentHash}, so it doesn't depend on how the payload is compressed. 0 stands for "unknown", for chunks stored before
+ * hashes were recorded, and never matches.
+ */
+public final class ContentHash {
+
+    public static final long UNKNOWN = 0L;
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Check whether two hashes are known and equal.
+     */
+    public static boolean matches(long a, long b) {
+        return a != UNKNOWN && a == b;
+    }
+
+    public static long of(byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    /**
+     * XXH64 of a byte range, mapped away from {@link #UNKNOWN}.
+     */
+    public static long of(byte[] data, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        long h;
+
+        if (length >= 32) {
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, getLong(data, pos));
+                v2 = round(v2, getLong(data, pos + 8));
+                v3 = round(v3, getLong(data, pos + 16));
+                v4 = round(v4, getLong(data, pos + 24));
+                pos += 32;
+            } while (pos <= limit);
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME64_5;
+        }
+
+        h += length;
+
+        while (pos + 8 <= end) {
+            h ^= round(0, getLong(data, pos));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+            pos += 8;
+        }
+        if (pos + 4 <= end) {
+            h ^= (getInt(data, pos) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            pos += 4;
+        }
+        while (pos < end) {
+            h ^= (data[pos] & 0xFFL) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+            pos++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h == UNKNOWN ? 1 : h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long getLong(byte[] data, int pos) {
+        return (data[pos] & 0xFFL)
+                | (data[pos + 1] & 0xFFL) << 8
+                | (data[pos + 2] & 0xFFL) << 16
+                | (data[pos + 3] & 0xFFL) << 24
+                | (data[pos + 4] & 0xFFL) << 32
+                | (data[pos + 5] & 0xFFL) << 40
+                | (data[pos + 6] & 0xFFL) << 48
+                | (data[pos + 7] & 0xFFL) << 56;
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF)
+                | (data[pos + 1] & 0xFF) << 8
+                | (data[pos + 2] & 0xFF) << 16
+                | (data[pos + 3] & 0xFF) << 24;
+    }
+}
@@ -1,69 +1,113 @@
 package net.fivew14.xaerosync.common;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
  * Token bucket rate limiter for controlling upload/download rates.
- * Thread-safe implementation using atomic variables.
+ * Tokens can stand for operations or for bytes: {@link #tryAcquire(long)} takes a weighted cost,
+ * and {@link #consume(long)} charges a cost that's only known after the fact, letting the bucket
+ * go into debt that later refills pay off.
+ * Thread-safe implementation.
  */
 public class RateLimiter {
 
     private volatile int maxTokensPerSecond;
-    private final AtomicLong tokens;
-    private final long refillIntervalNanos;
-    private volatile long lastRefillTime;
-
-    private static final long MAX_REFRESH_INTERVAL_NS = 1_000_000_000L / 60L;
+    private final boolean unlimited;
+    private double tokens;
+    private long lastRefillTime;
 
     /**
      * Create a new rate limiter.
      *
-     * @param maxPerSecond Maximum operations per second (must be >= 1)
+     * @param maxPerSecond Maximum tokens per second (must be >= 1), also the burst size
      */
     public RateLimiter(int maxPerSecond) {
-        if (maxPerSecond <= 0) {
+        this(maxPerSecond, false);
+    }
+
+    private RateLimiter(int maxPerSecond, boolean unlimited) {
+        if (!unlimited && maxPerSecond <= 0) {
             throw new IllegalArgumentException("maxPerSecond must be positive");
         }
         this.maxTokensPerSecond = maxPerSecond;
-        this.tokens = new AtomicLong(maxPerSecond);
-        this.refillIntervalNanos = Math.min(MAX_REFRESH_INTERVAL_NS, 1_000_000_000L / maxPerSecond);
+        this.unlimited = unlimited;
+        this.tokens = maxPerSecond;
         this.lastRefillTime = System.nanoTime();
     }
 
+    /**
+     * Create a rate limiter that never limits.
+     */
+    public static RateLimiter unlimited() {
+        return new RateLimiter(0, true);
+    }
+
+    /**
+     * Create a limiter for a budget in KB per second, where 0 means unlimited.
+     */
+    public static RateLimiter ofKilobytesPerSecond(int kbPerSecond) {
+        return kbPerSecond <= 0 ? unlimited() : new RateLimiter((int) Math.min(Integer.MAX_VALUE, kbPerSecond * 1024L));
+    }
+
     /**
      * Try to acquire a token. Returns true if successful.
      * Refills tokens based on elapsed time before attempting to acquire.
      */
     public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Try to acquire {@code cost} tokens. Returns true if successful.
+     * A cost larger than the bucket succeeds once the bucket is full, leaving it in debt.
+     */
+    public synchronized boolean tryAcquire(long cost) {
+        if (unlimited) return true;
         refill();
-        long current = tokens.get();
-        if (current <= 0) {
+        if (tokens < Math.min(cost, maxTokensPerSecond)) {
             return false;
         }
-        return tokens.compareAndSet(current, current - 1);
+        tokens -= cost;
+        return true;
+    }
+
+    /**
+     * Charge {@code cost} tokens unconditionally, for costs known only after the operation.
+     */
+    public synchronized void consume(long cost) {
+        if (unlimited) return;
+        refill();
+        tokens -= cost;
     }
 
     /**
      * Check if a token is available without consuming it.
      */
     public boolean canAcquire() {
+        return canAcquire(1);
+    }
+
+    /**
+     * Check if {@code cost} tokens could be acquired without consuming them.
+     */
+    public synchronized boolean canAcquire(long cost) {
+        if (unlimited) return true;
         refill();
-        return tokens.get() > 0;
+        return tokens >= Math.min(cost, maxTokensPerSecond);
     }
 
     /**
-     * Get the current number of available tokens.
+     * Get the current number of available tokens (negative while in debt).
      */
-    public long getAvailableTokens() {
+    public synchronized long getAvailableTokens() {
+        if (unlimited) return Long.MAX_VALUE;
         refill();
-        return tokens.get();
+        return (long) Math.floor(tokens);
     }
 
     /**
      * Reset the rate limiter to full capacity.
      */
-    public void reset() {
-        tokens.set(maxTokensPerSecond);
+    public synchronized void reset() {
+        tokens = maxTokensPerSecond;
         lastRefillTime = System.nanoTime();
     }
 
@@ -80,23 +124,26 @@ public class RateLimiter {
     }
 
     /**
-     * Refill tokens based on elapsed time.
+     * Refill tokens based on elapsed time, including fractions of a token.
      * Called internally before each operation.
      */
     private void refill() {
         long now = System.nanoTime();
         long elapsed = now - lastRefillTime;
-        if (elapsed >= refillIntervalNanos) {
-            long intervals = elapsed / refillIntervalNanos;
-            tokens.updateAndGet(current -> Math.min(maxTokensPerSecond, current + intervals));
+        if (elapsed > 0) {
+            tokens = Math.min(maxTokensPerSecond, tokens + elapsed * (maxTokensPerSecond / 1_000_000_000.0));
             lastRefillTime = now;
         }
     }
 
     /**
-     * Get the configured maximum tokens per second.
+     * Get the configured maximum tokens per second, or 0 if unlimited.
      */
     public int getMaxPerSecond() {
         return maxTokensPerSecond;
     }
+
+    public boolean isUnlimited() {
+        return unlimited;
+    }
 }
@@ -0,0 +1,157 @@
+package net.fivew14.xaerosync.common;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash tree over the chunk timestamps of one dimension, used to find where a client's copy
+ * of the registry differs from the server's without sending the whole registry.
+ * <p>
+ * Levels: the dimension root, groups of 16x16 regions, Xaero regions (8x8 tile chunks), and
+ * the entries themselves. A node's hash is the sum of its entries' hashes, so it can be kept
+ * up to date by adding and subtracting single entries, and both sides get the same hashes
+ * for the same contents regardless of insertion order.
+ * <p>
+ * Not thread-safe; the server keeps one per registry shard under the shard's lock, and the
+ * client builds one on demand.
+ */
+public class RegistryHashTree {
+
+    // Group size in regions, as a shift (16x16 regions, 128x128 tile chunks)
+    public static final int GROUP_SHIFT = 4;
+
+    private final Map<Long, Group> groups = new HashMap<>();
+    private long rootHash = 0;
+    private int size = 0;
+
+    /**
+     * Hash of a single entry. Mixes the coordinate and timestamp so that neighbouring
+     * entries or nearby timestamps don't cancel out when summed.
+     */
+    public static long entryHash(int x, int z, long timestamp) {
+        return mix(ChunkCoord.pack(x, z) ^ mix(timestamp + 0x9E3779B97F4A7C15L));
+    }
+
+    private static long mix(long h) {
+        // Murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Packed key of the region holding a tile chunk.
+     */
+    public static long regionKey(int x, int z) {
+        return ChunkCoord.pack(x >> 3, z >> 3);
+    }
+
+    /**
+     * Packed key of the group holding a tile chunk.
+     */
+    public static long groupKey(int x, int z) {
+        return ChunkCoord.pack(x >> (3 + GROUP_SHIFT), z >> (3 + GROUP_SHIFT));
+    }
+
+    /**
+     * Packed key of the group holding a region.
+     */
+    public static long groupKeyOfRegion(int regionX, int regionZ) {
+        return ChunkCoord.pack(regionX >> GROUP_SHIFT, regionZ >> GROUP_SHIFT);
+    }
+
+    public void add(int x, int z, long timestamp) {
+        apply(x, z, entryHash(x, z, timestamp), 1);
+    }
+
+    public void remove(int x, int z, long timestamp) {
+        apply(x, z, -entryHash(x, z, timestamp), -1);
+    }
+
+    private void apply(int x, int z, long hashDelta, int countDelta) {
+        long groupKey = groupKey(x, z);
+        Group group = groups.computeIfAbsent(groupKey, key -> new Group());
+        group.hash += hashDelta;
+        group.count += countDelta;
+
+        long regionKey = regionKey(x, z);
+        long[] region = group.regions.computeIfAbsent(regionKey, key -> new long[2]);
+        region[0] += hashDelta;
+        region[1] += countDelta;
+
+        // Empty nodes are dropped so both sides list the same children
+        if (region[1] == 0) {
+            group.regions.remove(regionKey);
+        }
+        if (group.count == 0) {
+            groups.remove(groupKey);
+        }
+
+        rootHash += hashDelta;
+        size += countDelta;
+    }
+
+    public long getRootHash() {
+        return rootHash;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the hash of a group, or null if it's empty.
+     */
+    @Nullable
+    public Long getGroupHash(long groupKey) {
+        Group group = groups.get(groupKey);
+        return group != null ? group.hash : null;
+    }
+
+    /**
+     * Get the hash of a region, or null if it's empty.
+     */
+    @Nullable
+    public Long getRegionHash(long groupKey, long regionKey) {
+        Group group = groups.get(groupKey);
+        long[] region = group != null ? group.regions.get(regionKey) : null;
+        return region != null ? region[0] : null;
+    }
+
+    /**
+     * Get the hash of every non-empty group, keyed by packed group x/z.
+     */
+    public Map<Long, Long> getGroupHashes() {
+        Map<Long, Long> result = new HashMap<>(groups.size() * 2);
+        groups.forEach((key, group) -> result.put(key, group.hash));
+        return result;
+    }
+
+    /**
+     * Get the hash of every non-empty region in a group, keyed by packed region x/z.
+     */
+    public Map<Long, Long> getRegionHashes(long groupKey) {
+        Group group = groups.get(groupKey);
+        if (group == null) {
+            return Map.of();
+        }
+        Map<Long, Long> result = new HashMap<>(group.regions.size() * 2);
+        group.regions.forEach((key, region) -> result.put(key, region[0]));
+        return result;
+    }
+
+    private static final class Group {
+        long hash;
+        int count;
+        // Region key -> {hash, count}
+        final Map<Long, long[]> regions = new HashMap<>();
+    }
+}
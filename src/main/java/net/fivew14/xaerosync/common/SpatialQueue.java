@@ -0,0 +1,331 @@
+package net.fivew14.xaerosync.common;
+
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Queue of tile chunks that hands out the one closest to the player first.
+ * <p>
+ * Each dimension keeps a binary min-heap of packed x/z keys ordered by squared distance to a
+ * center, plus an index from key to heap position, so adding, removing and polling are
+ * O(log n) without allocating. A dimension's heap is only re-ordered when it's polled after
+ * the player has moved more than {@link #RECENTER_DISTANCE} tiles from the center it was
+ * ordered around. Chunks in the player's dimension come first, the others once it's empty.
+ * Thread-safe.
+ */
+public class SpatialQueue {
+
+    // Tiles the player can move before a dimension's heap is re-ordered around them
+    private static final int RECENTER_DISTANCE = 4;
+
+    private final Map<ResourceLocation, DimensionQueue> dimensions = new HashMap<>();
+    private ResourceLocation currentDimension;
+    private int centerX;
+    private int centerZ;
+    private int size;
+
+    /**
+     * Set the player's dimension and tile position. Takes effect lazily on the next poll.
+     */
+    public synchronized void setCenter(@Nullable ResourceLocation dimension, int x, int z) {
+        this.currentDimension = dimension;
+        this.centerX = x;
+        this.centerZ = z;
+    }
+
+    /**
+     * Add a chunk. Returns false if it was already queued.
+     */
+    public synchronized boolean add(ChunkCoord coord) {
+        DimensionQueue queue = dimensions.computeIfAbsent(coord.dimension(),
+                dim -> new DimensionQueue(centerX, centerZ));
+        if (!queue.add(coord.packXZ())) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove a chunk. Returns false if it wasn't queued.
+     */
+    public synchronized boolean remove(ChunkCoord coord) {
+        DimensionQueue queue = dimensions.get(coord.dimension());
+        if (queue == null || !queue.remove(coord.packXZ())) {
+            return false;
+        }
+        size--;
+        return true;
+    }
+
+    public synchronized boolean contains(ChunkCoord coord) {
+        DimensionQueue queue = dimensions.get(coord.dimension());
+        return queue != null && queue.contains(coord.packXZ());
+    }
+
+    /**
+     * Remove and return the chunk closest to the player, or null if the queue is empty.
+     */
+    @Nullable
+    public synchronized ChunkCoord poll() {
+        if (size == 0) return null;
+
+        ResourceLocation dimension = currentDimension;
+        DimensionQueue queue = dimension != null ? dimensions.get(dimension) : null;
+        if (queue == null || queue.isEmpty()) {
+            // Nothing left here, drain another dimension
+            queue = null;
+            for (Map.Entry<ResourceLocation, DimensionQueue> entry : dimensions.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    dimension = entry.getKey();
+                    queue = entry.getValue();
+                    break;
+                }
+            }
+            if (queue == null) return null;
+        } else if (Math.abs(queue.centerX - centerX) > RECENTER_DISTANCE
+                || Math.abs(queue.centerZ - centerZ) > RECENTER_DISTANCE) {
+            queue.recenter(centerX, centerZ);
+        }
+
+        long key = queue.poll();
+        size--;
+        return new ChunkCoord(dimension, ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        dimensions.clear();
+        size = 0;
+    }
+
+    /**
+     * Min-heap of packed keys by distance to a center, indexed by an open-addressing table.
+     */
+    private static final class DimensionQueue {
+        static final int EMPTY = -1;
+        private static final int INITIAL_CAPACITY = 64;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        int centerX;
+        int centerZ;
+
+        long[] heap = new long[INITIAL_CAPACITY];
+        int size;
+
+        // Key -> heap position, linear probing
+        long[] keys;
+        int[] positions;
+        private int mask;
+
+        DimensionQueue(int centerX, int centerZ) {
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(long key) {
+            return indexOf(key) >= 0;
+        }
+
+        boolean add(long key) {
+            if (indexOf(key) >= 0) {
+                return false;
+            }
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            heap[size] = key;
+            insert(key, size);
+            size++;
+            siftUp(size - 1);
+            return true;
+        }
+
+        boolean remove(long key) {
+            int slot = indexOf(key);
+            if (slot < 0) {
+                return false;
+            }
+            removeAt(positions[slot]);
+            return true;
+        }
+
+        long poll() {
+            long key = heap[0];
+            removeAt(0);
+            return key;
+        }
+
+        /**
+         * Re-order the heap around a new center.
+         */
+        void recenter(int x, int z) {
+            centerX = x;
+            centerZ = z;
+            for (int i = (size >>> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        private void removeAt(int position) {
+            erase(heap[position]);
+            size--;
+            if (position == size) {
+                return;
+            }
+            // Fill the gap with the last element and restore the heap order around it
+            long last = heap[size];
+            heap[position] = last;
+            positions[indexOf(last)] = position;
+            siftDown(position);
+            siftUp(positions[indexOf(last)]);
+        }
+
+        private long distance(long key) {
+            long dx = ChunkCoord.unpackX(key) - centerX;
+            long dz = ChunkCoord.unpackZ(key) - centerZ;
+            return dx * dx + dz * dz;
+        }
+
+        private void siftUp(int i) {
+            long key = heap[i];
+            long dist = distance(key);
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distance(heap[parent]) <= dist) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            heap[i] = key;
+            positions[indexOf(key)] = i;
+        }
+
+        private void siftDown(int i) {
+            long key = heap[i];
+            long dist = distance(key);
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                long childDist = distance(heap[child]);
+                int right = child + 1;
+                if (right < size) {
+                    long rightDist = distance(heap[right]);
+                    if (rightDist < childDist) {
+                        child = right;
+                        childDist = rightDist;
+                    }
+                }
+                if (dist <= childDist) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            heap[i] = key;
+            positions[indexOf(key)] = i;
+        }
+
+        private void move(int from, int to) {
+            heap[to] = heap[from];
+            positions[indexOf(heap[to])] = to;
+        }
+
+        // ==================== Index ====================
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            positions = new int[capacity];
+            Arrays.fill(positions, EMPTY);
+            mask = capacity - 1;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int indexOf(long key) {
+            int slot = hash(key) & mask;
+            while (positions[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(long key, int position) {
+            if ((size + 1) > keys.length * LOAD_FACTOR) {
+                rehash(keys.length * 2);
+            }
+            int slot = hash(key) & mask;
+            while (positions[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            positions[slot] = position;
+        }
+
+        private void erase(long key) {
+            int hole = indexOf(key);
+            if (hole < 0) {
+                return;
+            }
+
+            // Shift back any following entry whose home slot isn't between the hole and itself
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (positions[slot] == EMPTY) {
+                    break;
+                }
+                int home = hash(keys[slot]) & mask;
+                boolean staysPut = hole <= slot
+                        ? hole < home && home <= slot
+                        : hole < home || home <= slot;
+                if (!staysPut) {
+                    keys[hole] = keys[slot];
+                    positions[hole] = positions[slot];
+                    hole = slot;
+                }
+            }
+            positions[hole] = EMPTY;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldPositions = positions;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldPositions[i] == EMPTY) {
+                    continue;
+                }
+                int slot = hash(oldKeys[i]) & mask;
+                while (positions[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                positions[slot] = oldPositions[i];
+            }
+        }
+    }
+}
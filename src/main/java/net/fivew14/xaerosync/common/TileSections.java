@@ -0,0 +1,225 @@
+package net.fivew14.xaerosync.common;
+
+import javax.annotation.Nullable;
+import java.io.*;
+
+/**
+ * The tile-sectioned chunk payload format, which lets the server merge and filter tiles
+ * without understanding the map data inside them.
+ * <p>
+ * Uncompressed layout (big-endian), compressed by {@link ChunkCodec} on the wire and on disk:
+ * - byte version (5, or 3-4), int chunkX, int chunkZ
+ * - short tileMask, bit (tx * 4 + tz) set for each tile present
+ * - per present tile, in index order: long timestamp, int length, then the tile's section bytes
+ * <p>
+ * A tile timestamp of 0 means the tile is as old as the chunk. Clients upload 0s and the
+ * server stamps tiles when it merges them. Each section is self-contained (own palettes), so
+ * a payload may hold any subset of the 16 tiles. Older payload versions have no sections and
+ * can only be handled as a whole.
+ * <p>
+ * Version 4+ section palettes refer to the server's global palette by ID, version 3 sections
+ * spell every palette entry out. Version 5 sections store block fields in columns, older
+ * ones block by block. The version applies to all sections in a payload.
+ */
+public final class TileSections {
+
+    public static final byte FORMAT_VERSION = 5;
+    // Sections with their palette entries written out in full
+    public static final byte NAMED_PALETTE_VERSION = 3;
+    // Last version with blocks written one after another rather than in columns
+    public static final byte INTERLEAVED_VERSION = 4;
+    public static final int TILE_COUNT = 16;
+    public static final int ALL_TILES = 0xFFFF;
+
+    private final byte version;
+    private final int chunkX;
+    private final int chunkZ;
+    private final long[] timestamps = new long[TILE_COUNT];
+    private final byte[][] sections = new byte[TILE_COUNT][];
+
+    public TileSections(int chunkX, int chunkZ) {
+        this(FORMAT_VERSION, chunkX, chunkZ);
+    }
+
+    public TileSections(byte version, int chunkX, int chunkZ) {
+        this.version = version;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+
+    /**
+     * Index of a tile within the chunk, also its bit in tile masks.
+     */
+    public static int tileIndex(int tileX, int tileZ) {
+        return (tileX & 3) * 4 + (tileZ & 3);
+    }
+
+    public byte getVersion() {
+        return version;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    public void setTile(int index, long timestamp, byte[] section) {
+        timestamps[index] = timestamp;
+        sections[index] = section;
+    }
+
+    @Nullable
+    public byte[] getTile(int index) {
+        return sections[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int getTileMask() {
+        int mask = 0;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (sections[i] != null) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Content hash over the format version, tile mask and each section with its length, so it
+     * depends on the content alone and tile timestamps don't affect it.
+     */
+    public long contentHash() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(version);
+            out.writeShort(getTileMask());
+            for (byte[] section : sections) {
+                if (section != null) {
+                    out.writeInt(section.length);
+                    out.write(section);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory stream
+        }
+        return ContentHash.of(bytes.toByteArray());
+    }
+
+    /**
+     * Copy the tiles present in a delta over this payload's tiles. Tiles without a timestamp
+     * keep the old chunk timestamp, merged tiles get the new one. Both payloads must have the
+     * same version.
+     */
+    public void merge(TileSections delta, long baseTimestamp, long timestamp) {
+        if (delta.version != version) {
+            throw new IllegalArgumentException("Can't merge version " + delta.version + " tiles into version " + version);
+        }
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (delta.sections[i] != null) {
+                setTile(i, timestamp, delta.sections[i]);
+            } else if (sections[i] != null && timestamps[i] == 0) {
+                timestamps[i] = baseTimestamp;
+            }
+        }
+    }
+
+    /**
+     * Only the tiles changed after the given time.
+     *
+     * @param chunkTimestamp timestamp of the chunk, for tiles without their own
+     */
+    public TileSections newerThan(long since, long chunkTimestamp) {
+        TileSections result = new TileSections(version, chunkX, chunkZ);
+        for (int i = 0; i < TILE_COUNT; i++) {
+            long timestamp = timestamps[i] != 0 ? timestamps[i] : chunkTimestamp;
+            if (sections[i] != null && timestamp > since) {
+                result.setTile(i, timestamps[i], sections[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Only the tiles in a mask.
+     */
+    public TileSections subset(int tileMask) {
+        TileSections result = new TileSections(version, chunkX, chunkZ);
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (sections[i] != null && (tileMask & (1 << i)) != 0) {
+                result.setTile(i, timestamps[i], sections[i]);
+            }
+        }
+        return result;
+    }
+
+    // ==================== Encoding ====================
+
+    public byte[] encode() {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(raw)) {
+            out.writeByte(version);
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+            out.writeShort(getTileMask());
+            for (int i = 0; i < TILE_COUNT; i++) {
+                if (sections[i] != null) {
+                    out.writeLong(timestamps[i]);
+                    out.writeInt(sections[i].length);
+                    out.write(sections[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Can't happen with an in-memory stream
+        }
+        return raw.toByteArray();
+    }
+
+    public byte[] toCompressed(ChunkCodec codec) {
+        return codec.compress(encode());
+    }
+
+    /**
+     * Decode an uncompressed payload. Returns null for older payload versions, and throws
+     * if the payload is malformed.
+     */
+    @Nullable
+    public static TileSections decode(byte[] raw) throws IOException {
+        if (raw.length == 0 || raw[0] < NAMED_PALETTE_VERSION || raw[0] > FORMAT_VERSION) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw, 1, raw.length - 1));
+        TileSections result = new TileSections(raw[0], in.readInt(), in.readInt());
+        int mask = in.readUnsignedShort();
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            long timestamp = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Tile section length " + length + " exceeds payload");
+            }
+            byte[] section = new byte[length];
+            in.readFully(section);
+            result.setTile(i, timestamp, section);
+        }
+        return result;
+    }
+
+    /**
+     * Decode a compressed payload. Returns null for older payload versions or malformed data.
+     */
+    @Nullable
+    public static TileSections fromCompressed(byte[] data, ChunkCodec codec) {
+        try {
+            return decode(codec.decompress(data));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
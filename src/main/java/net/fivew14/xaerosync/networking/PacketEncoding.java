@@ -0,0 +1,23 @@
+package net.fivew14.xaerosync.networking;
+
+import net.minecraft.network.FriendlyByteBuf;
+
+/**
+ * Helpers for compact packet fields.
+ * Zigzag encoding maps small negative numbers to small positive ones so coordinate
+ * deltas stay one or two bytes as varints regardless of sign.
+ */
+public final class PacketEncoding {
+
+    private PacketEncoding() {
+    } // Utility class
+
+    public static void writeZigZagVarInt(FriendlyByteBuf buf, int value) {
+        buf.writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public static int readZigZagVarInt(FriendlyByteBuf buf) {
+        int encoded = buf.readVarInt();
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+}
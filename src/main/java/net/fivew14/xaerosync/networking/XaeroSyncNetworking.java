@@ -9,7 +9,7 @@ import net.minecraftforge.network.simple.SimpleChannel;
 import java.util.Optional;
 
 public class XaeroSyncNetworking {
-    public static final String PROTOCOL = "1";
+    public static final String PROTOCOL = "10";
 
     public static final SimpleChannel CHANNEL = NetworkRegistry
             .newSimpleChannel(XaeroSync.id("network"), () -> PROTOCOL, PROTOCOL::equals, PROTOCOL::equals);
@@ -40,10 +40,10 @@ public class XaeroSyncNetworking {
                 Optional.of(NetworkDirection.PLAY_TO_CLIENT));
 
         CHANNEL.registerMessage(idx++,
-                S2CChunkDataPacket.class,
-                S2CChunkDataPacket::encode,
-                S2CChunkDataPacket::decode,
-                S2CChunkDataPacket::handle,
+                S2CChunkDataBatchPacket.class,
+                S2CChunkDataBatchPacket::encode,
+                S2CChunkDataBatchPacket::decode,
+                S2CChunkDataBatchPacket::handle,
                 Optional.of(NetworkDirection.PLAY_TO_CLIENT));
 
         CHANNEL.registerMessage(idx++,
@@ -53,6 +53,27 @@ public class XaeroSyncNetworking {
                 S2CUploadResultPacket::handle,
                 Optional.of(NetworkDirection.PLAY_TO_CLIENT));
 
+        CHANNEL.registerMessage(idx++,
+                S2CRegistryHashesPacket.class,
+                S2CRegistryHashesPacket::encode,
+                S2CRegistryHashesPacket::decode,
+                S2CRegistryHashesPacket::handle,
+                Optional.of(NetworkDirection.PLAY_TO_CLIENT));
+
+        CHANNEL.registerMessage(idx++,
+                S2CDownloadQueueFullPacket.class,
+                S2CDownloadQueueFullPacket::encode,
+                S2CDownloadQueueFullPacket::decode,
+                S2CDownloadQueueFullPacket::handle,
+                Optional.of(NetworkDirection.PLAY_TO_CLIENT));
+
+        CHANNEL.registerMessage(idx++,
+                S2CPaletteUpdatePacket.class,
+                S2CPaletteUpdatePacket::encode,
+                S2CPaletteUpdatePacket::decode,
+                S2CPaletteUpdatePacket::handle,
+                Optional.of(NetworkDirection.PLAY_TO_CLIENT));
+
         // Client -> Server packets
         CHANNEL.registerMessage(idx++,
                 C2SRequestChunksPacket.class,
@@ -67,5 +88,19 @@ public class XaeroSyncNetworking {
                 C2SUploadChunkPacket::decode,
                 C2SUploadChunkPacket::handle,
                 Optional.of(NetworkDirection.PLAY_TO_SERVER));
+
+        CHANNEL.registerMessage(idx++,
+                C2SRegistryRequestPacket.class,
+                C2SRegistryRequestPacket::encode,
+                C2SRegistryRequestPacket::decode,
+                C2SRegistryRequestPacket::handle,
+                Optional.of(NetworkDirection.PLAY_TO_SERVER));
+
+        CHANNEL.registerMessage(idx++,
+                C2SRegistryReconcilePacket.class,
+                C2SRegistryReconcilePacket::encode,
+                C2SRegistryReconcilePacket::decode,
+                C2SRegistryReconcilePacket::handle,
+                Optional.of(NetworkDirection.PLAY_TO_SERVER));
     }
 }
@@ -0,0 +1,108 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.networking.PacketEncoding;
+import net.fivew14.xaerosync.server.XaeroSyncServer;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Client -> Server: Next step of a registry reconciliation.
+ * Asks for the child hashes of the tree nodes that differ, or for the entries of the
+ * regions that differ, which ends the reconciliation. FULL gives up and asks for the
+ * whole registry, used when too much differs for the exchange to be worth it.
+ */
+public class C2SRegistryReconcilePacket {
+
+    // Keeps the packet well below the serverbound payload limit
+    public static final int MAX_NODES = 2048;
+
+    /**
+     * What the client wants for the listed nodes.
+     */
+    public enum Request {
+        GROUP_HASHES,  // nodes are dimensions
+        REGION_HASHES, // nodes are groups
+        ENTRIES,       // nodes are regions
+        FULL           // no nodes
+    }
+
+    /**
+     * A tree node: a dimension (x = z = 0), or a group or region with packed coordinates.
+     */
+    public record Node(String dimension, int x, int z) {
+    }
+
+    private final Request request;
+    private final List<Node> nodes;
+
+    public C2SRegistryReconcilePacket(Request request, List<Node> nodes) {
+        this.request = request;
+        this.nodes = nodes;
+    }
+
+    public static void encode(C2SRegistryReconcilePacket packet, FriendlyByteBuf buf) {
+        buf.writeEnum(packet.request);
+
+        Map<String, Integer> dimensionIds = new LinkedHashMap<>();
+        for (Node node : packet.nodes) {
+            dimensionIds.computeIfAbsent(node.dimension(), dim -> dimensionIds.size());
+        }
+        buf.writeVarInt(dimensionIds.size());
+        for (String dimension : dimensionIds.keySet()) {
+            buf.writeUtf(dimension);
+        }
+
+        buf.writeVarInt(packet.nodes.size());
+        for (Node node : packet.nodes) {
+            buf.writeVarInt(dimensionIds.get(node.dimension()));
+            PacketEncoding.writeZigZagVarInt(buf, node.x());
+            PacketEncoding.writeZigZagVarInt(buf, node.z());
+        }
+    }
+
+    public static C2SRegistryReconcilePacket decode(FriendlyByteBuf buf) {
+        Request request = buf.readEnum(Request.class);
+
+        int dimensionCount = buf.readVarInt();
+        String[] dimensions = new String[dimensionCount];
+        for (int i = 0; i < dimensionCount; i++) {
+            dimensions[i] = buf.readUtf();
+        }
+
+        int count = buf.readVarInt();
+        if (count > MAX_NODES) {
+            throw new IllegalArgumentException("Too many reconcile nodes: " + count);
+        }
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String dimension = dimensions[buf.readVarInt()];
+            int x = PacketEncoding.readZigZagVarInt(buf);
+            int z = PacketEncoding.readZigZagVarInt(buf);
+            nodes.add(new Node(dimension, x, z));
+        }
+
+        return new C2SRegistryReconcilePacket(request, nodes);
+    }
+
+    public static void handle(C2SRegistryReconcilePacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            XaeroSyncServer.handleRegistryReconcile(packet, ctx.get());
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public Request getRequest() {
+        return request;
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+}
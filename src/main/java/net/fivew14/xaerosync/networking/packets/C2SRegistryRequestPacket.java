@@ -0,0 +1,57 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.server.XaeroSyncServer;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Client -> Server: Asks for the chunk registry after receiving the sync config.
+ * Carries the registry epoch and revision the client last synced to for this world,
+ * so the server can send only what changed since. A revision of 0 asks for everything.
+ * If a delta isn't possible but the client has saved server state, the server reconciles
+ * it by comparing hashes instead of sending everything.
+ */
+public class C2SRegistryRequestPacket {
+
+    private final long epoch;
+    private final long revision;
+    private final boolean hasSavedState;
+
+    public C2SRegistryRequestPacket(long epoch, long revision, boolean hasSavedState) {
+        this.epoch = epoch;
+        this.revision = revision;
+        this.hasSavedState = hasSavedState;
+    }
+
+    public static void encode(C2SRegistryRequestPacket packet, FriendlyByteBuf buf) {
+        buf.writeLong(packet.epoch);
+        buf.writeVarLong(packet.revision);
+        buf.writeBoolean(packet.hasSavedState);
+    }
+
+    public static C2SRegistryRequestPacket decode(FriendlyByteBuf buf) {
+        return new C2SRegistryRequestPacket(buf.readLong(), buf.readVarLong(), buf.readBoolean());
+    }
+
+    public static void handle(C2SRegistryRequestPacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            XaeroSyncServer.handleRegistryRequest(packet, ctx.get());
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public boolean hasSavedState() {
+        return hasSavedState;
+    }
+}
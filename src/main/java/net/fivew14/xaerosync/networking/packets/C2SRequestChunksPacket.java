@@ -15,20 +15,23 @@ import java.util.function.Supplier;
 public class C2SRequestChunksPacket {
 
     /**
-     * A single chunk request.
+     * A single chunk request. With a since timestamp, only tiles changed after it are wanted,
+     * 0 asks for the whole chunk.
      */
-    public record ChunkRequest(String dimension, int x, int z) {
+    public record ChunkRequest(String dimension, int x, int z, long sinceTimestamp) {
         public static void encode(ChunkRequest request, FriendlyByteBuf buf) {
             buf.writeUtf(request.dimension);
             buf.writeVarInt(request.x);
             buf.writeVarInt(request.z);
+            buf.writeVarLong(request.sinceTimestamp);
         }
 
         public static ChunkRequest decode(FriendlyByteBuf buf) {
             return new ChunkRequest(
                     buf.readUtf(),
                     buf.readVarInt(),
-                    buf.readVarInt()
+                    buf.readVarInt(),
+                    buf.readVarLong()
             );
         }
     }
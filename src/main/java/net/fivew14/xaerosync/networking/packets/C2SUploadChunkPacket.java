@@ -10,6 +10,13 @@ import java.util.function.Supplier;
 /**
  * Client -> Server: Uploads chunk data to the server.
  * Contains the compressed Xaero map data for a single chunk the player explored.
+ * <p>
+ * Data may be left empty to only offer the content hash. The server answers such a probe with
+ * UNCHANGED if it already holds the same content, or NEED_DATA if the full upload is wanted.
+ * <p>
+ * A delta upload holds only the tiles that changed, for the server to merge into its copy.
+ * The server answers NEED_DATA if it has no copy it can merge into, and the full chunk
+ * should be sent instead. The content hash is always that of the full chunk.
  */
 public class C2SUploadChunkPacket {
 
@@ -19,21 +26,35 @@ public class C2SUploadChunkPacket {
     private final int x;
     private final int z;
     private final long timestamp;
-    private final byte[] data; // GZIP-compressed Xaero format data
+    private final long contentHash; // See TileSections.contentHash
+    private final boolean delta; // Data holds only the changed tiles
+    private final byte[] data; // GZIP-compressed TileSections payload, empty for a hash probe
 
-    public C2SUploadChunkPacket(String dimension, int x, int z, long timestamp, byte[] data) {
+    public C2SUploadChunkPacket(String dimension, int x, int z, long timestamp, long contentHash,
+                                boolean delta, byte[] data) {
         this.dimension = dimension;
         this.x = x;
         this.z = z;
         this.timestamp = timestamp;
+        this.contentHash = contentHash;
+        this.delta = delta;
         this.data = data != null ? data.clone() : new byte[0];
     }
 
+    /**
+     * Create a probe offering only the content hash of this upload.
+     */
+    public C2SUploadChunkPacket toProbe() {
+        return new C2SUploadChunkPacket(dimension, x, z, timestamp, contentHash, false, new byte[0]);
+    }
+
     public static void encode(C2SUploadChunkPacket packet, FriendlyByteBuf buf) {
         buf.writeUtf(packet.dimension);
         buf.writeVarInt(packet.x);
         buf.writeVarInt(packet.z);
         buf.writeVarLong(packet.timestamp);
+        buf.writeLong(packet.contentHash);
+        buf.writeBoolean(packet.delta);
         buf.writeByteArray(packet.data);
     }
 
@@ -42,6 +63,8 @@ public class C2SUploadChunkPacket {
         int x = buf.readVarInt();
         int z = buf.readVarInt();
         long timestamp = buf.readVarLong();
+        long contentHash = buf.readLong();
+        boolean delta = buf.readBoolean();
 
         int readableBytes = buf.readableBytes();
         int maxSize = Math.min(MAX_DATA_SIZE, Config.SERVER_MAX_CHUNK_DATA_SIZE.get());
@@ -52,7 +75,7 @@ public class C2SUploadChunkPacket {
 
         byte[] data = buf.readByteArray();
 
-        return new C2SUploadChunkPacket(dimension, x, z, timestamp, data);
+        return new C2SUploadChunkPacket(dimension, x, z, timestamp, contentHash, delta, data);
     }
 
     public static void handle(C2SUploadChunkPacket packet, Supplier<NetworkEvent.Context> ctx) {
@@ -79,7 +102,19 @@ public class C2SUploadChunkPacket {
         return timestamp;
     }
 
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
     public byte[] getData() {
         return data;
     }
+
+    public boolean isProbe() {
+        return data.length == 0;
+    }
 }
@@ -0,0 +1,119 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.Config;
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.fivew14.xaerosync.networking.PacketEncoding;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Server -> Client: Sends the data of one or more chunks of the same dimension.
+ * Contains the compressed Xaero map data for each chunk. Batches are capped at
+ * {@link #MAX_BATCH_BYTES} of chunk data, see {@link #split}.
+ */
+public class S2CChunkDataBatchPacket {
+
+    private static final int MAX_DATA_SIZE = 1048576; // 1MB
+
+    // Stays well under the 1MB clientbound payload limit
+    public static final int MAX_BATCH_BYTES = 512 * 1024;
+
+    // Rough per-chunk header size, for the byte cap
+    private static final int ENTRY_OVERHEAD = 16;
+
+    /**
+     * Data of a single chunk in the batch.
+     */
+    public record ChunkEntry(int x, int z, long timestamp, byte[] data) {
+    }
+
+    private final String dimension;
+    private final List<ChunkEntry> entries;
+
+    public S2CChunkDataBatchPacket(String dimension, List<ChunkEntry> entries) {
+        this.dimension = dimension;
+        this.entries = entries;
+    }
+
+    /**
+     * Split chunks of one dimension into as few packets as the byte cap allows.
+     * A chunk bigger than the cap gets a packet of its own.
+     */
+    public static List<S2CChunkDataBatchPacket> split(String dimension, List<ChunkEntry> entries) {
+        List<S2CChunkDataBatchPacket> packets = new ArrayList<>();
+        List<ChunkEntry> current = new ArrayList<>();
+        int currentBytes = 0;
+        for (ChunkEntry entry : entries) {
+            int size = entry.data().length + ENTRY_OVERHEAD;
+            if (!current.isEmpty() && currentBytes + size > MAX_BATCH_BYTES) {
+                packets.add(new S2CChunkDataBatchPacket(dimension, current));
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(entry);
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            packets.add(new S2CChunkDataBatchPacket(dimension, current));
+        }
+        return packets;
+    }
+
+    public static void encode(S2CChunkDataBatchPacket packet, FriendlyByteBuf buf) {
+        buf.writeUtf(packet.dimension);
+        buf.writeVarInt(packet.entries.size());
+        for (ChunkEntry entry : packet.entries) {
+            PacketEncoding.writeZigZagVarInt(buf, entry.x());
+            PacketEncoding.writeZigZagVarInt(buf, entry.z());
+            buf.writeVarLong(entry.timestamp());
+            buf.writeByteArray(entry.data());
+        }
+    }
+
+    public static S2CChunkDataBatchPacket decode(FriendlyByteBuf buf) {
+        String dimension = buf.readUtf(Short.MAX_VALUE);
+        int count = buf.readVarInt();
+        if (count > buf.readableBytes()) {
+            throw new IllegalArgumentException("Chunk data batch claims " + count + " chunks in "
+                    + buf.readableBytes() + " bytes");
+        }
+
+        int maxSize = Math.min(MAX_DATA_SIZE, Config.SERVER_MAX_CHUNK_DATA_SIZE.get());
+        List<ChunkEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = PacketEncoding.readZigZagVarInt(buf);
+            int z = PacketEncoding.readZigZagVarInt(buf);
+            long timestamp = buf.readVarLong();
+            byte[] data = buf.readByteArray(maxSize);
+            entries.add(new ChunkEntry(x, z, timestamp, data));
+        }
+
+        return new S2CChunkDataBatchPacket(dimension, entries);
+    }
+
+    public static void handle(S2CChunkDataBatchPacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            ClientSyncManager manager = ClientSyncManager.getInstance();
+            if (manager != null) {
+                manager.handleChunkDataBatch(packet);
+            } else {
+                XaeroSync.LOGGER.warn("ClientSyncManager not initialized, ignoring chunk data packet");
+            }
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public String getDimension() {
+        return dimension;
+    }
+
+    public List<ChunkEntry> getEntries() {
+        return entries;
+    }
+}
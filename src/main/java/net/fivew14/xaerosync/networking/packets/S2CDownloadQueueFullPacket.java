@@ -0,0 +1,70 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Server -> Client: Chunk requests the server turned away because the player's download queue
+ * is full. The client should put them back in its own queue and retry after the given delay.
+ */
+public class S2CDownloadQueueFullPacket {
+
+    // Upper bound on rejected requests per packet when decoding
+    public static final int MAX_REQUESTS = 4096;
+
+    private final List<C2SRequestChunksPacket.ChunkRequest> rejected;
+    private final int retryAfterMs;
+
+    public S2CDownloadQueueFullPacket(List<C2SRequestChunksPacket.ChunkRequest> rejected, int retryAfterMs) {
+        this.rejected = rejected;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public static void encode(S2CDownloadQueueFullPacket packet, FriendlyByteBuf buf) {
+        buf.writeVarInt(packet.retryAfterMs);
+        buf.writeVarInt(packet.rejected.size());
+        for (C2SRequestChunksPacket.ChunkRequest request : packet.rejected) {
+            C2SRequestChunksPacket.ChunkRequest.encode(request, buf);
+        }
+    }
+
+    public static S2CDownloadQueueFullPacket decode(FriendlyByteBuf buf) {
+        int retryAfterMs = buf.readVarInt();
+        int count = buf.readVarInt();
+        if (count < 0 || count > MAX_REQUESTS) {
+            throw new IllegalArgumentException("Invalid rejected request count: " + count);
+        }
+        List<C2SRequestChunksPacket.ChunkRequest> rejected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rejected.add(C2SRequestChunksPacket.ChunkRequest.decode(buf));
+        }
+        return new S2CDownloadQueueFullPacket(rejected, retryAfterMs);
+    }
+
+    public static void handle(S2CDownloadQueueFullPacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            ClientSyncManager manager = ClientSyncManager.getInstance();
+            if (manager != null) {
+                manager.handleDownloadQueueFull(packet);
+            } else {
+                XaeroSync.LOGGER.warn("ClientSyncManager not initialized, ignoring download queue full packet");
+            }
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public List<C2SRequestChunksPacket.ChunkRequest> getRejected() {
+        return rejected;
+    }
+
+    public int getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
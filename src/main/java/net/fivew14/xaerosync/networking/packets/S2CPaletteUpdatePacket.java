@@ -0,0 +1,102 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Server -> Client: Global palette entries the client hasn't been told about yet, numbered from
+ * the given start IDs. Sent before any chunk data referring to them, see GlobalPalette.
+ */
+public class S2CPaletteUpdatePacket {
+
+    // Upper bound on entries per packet when decoding
+    public static final int MAX_ENTRIES = 1024;
+
+    private final int firstBlockStateId;
+    private final List<CompoundTag> blockStates;
+    private final int firstBiomeId;
+    private final List<String> biomes;
+
+    public S2CPaletteUpdatePacket(int firstBlockStateId, List<CompoundTag> blockStates,
+                                  int firstBiomeId, List<String> biomes) {
+        this.firstBlockStateId = firstBlockStateId;
+        this.blockStates = blockStates;
+        this.firstBiomeId = firstBiomeId;
+        this.biomes = biomes;
+    }
+
+    public static void encode(S2CPaletteUpdatePacket packet, FriendlyByteBuf buf) {
+        buf.writeVarInt(packet.firstBlockStateId);
+        buf.writeVarInt(packet.blockStates.size());
+        for (CompoundTag state : packet.blockStates) {
+            buf.writeNbt(state);
+        }
+
+        buf.writeVarInt(packet.firstBiomeId);
+        buf.writeVarInt(packet.biomes.size());
+        for (String biome : packet.biomes) {
+            buf.writeUtf(biome);
+        }
+    }
+
+    public static S2CPaletteUpdatePacket decode(FriendlyByteBuf buf) {
+        int firstBlockStateId = buf.readVarInt();
+        int blockStateCount = readCount(buf);
+        List<CompoundTag> blockStates = new ArrayList<>(blockStateCount);
+        for (int i = 0; i < blockStateCount; i++) {
+            blockStates.add(buf.readNbt());
+        }
+
+        int firstBiomeId = buf.readVarInt();
+        int biomeCount = readCount(buf);
+        List<String> biomes = new ArrayList<>(biomeCount);
+        for (int i = 0; i < biomeCount; i++) {
+            biomes.add(buf.readUtf());
+        }
+        return new S2CPaletteUpdatePacket(firstBlockStateId, blockStates, firstBiomeId, biomes);
+    }
+
+    private static int readCount(FriendlyByteBuf buf) {
+        int count = buf.readVarInt();
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IllegalArgumentException("Invalid palette entry count: " + count);
+        }
+        return count;
+    }
+
+    public static void handle(S2CPaletteUpdatePacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            ClientSyncManager manager = ClientSyncManager.getInstance();
+            if (manager != null) {
+                manager.handlePaletteUpdate(packet);
+            } else {
+                XaeroSync.LOGGER.warn("ClientSyncManager not initialized, ignoring palette update");
+            }
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public int getFirstBlockStateId() {
+        return firstBlockStateId;
+    }
+
+    public List<CompoundTag> getBlockStates() {
+        return blockStates;
+    }
+
+    public int getFirstBiomeId() {
+        return firstBiomeId;
+    }
+
+    public List<String> getBiomes() {
+        return biomes;
+    }
+}
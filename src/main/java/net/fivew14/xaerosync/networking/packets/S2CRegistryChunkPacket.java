@@ -2,73 +2,173 @@ package net.fivew14.xaerosync.networking.packets;
 
 import net.fivew14.xaerosync.XaeroSync;
 import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.networking.PacketEncoding;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraftforge.network.NetworkEvent;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Supplier;
 
 /**
  * Server -> Client: Sends a batch of available chunks with their timestamps.
  * Used during initial sync when a player joins, sent in paginated batches.
+ * <p>
+ * A full transfer lists every chunk and replaces what the client knew. A delta transfer
+ * only lists chunks changed or removed since the revision the client asked from.
+ * Every batch carries the revision the client is at once the last batch arrives.
+ * <p>
+ * Wire format: a dictionary of the batch's dimensions, a base timestamp, then a section of
+ * removals followed by a section of entries. Each section is sorted by dimension and Z-order
+ * and written as runs per dimension: x/z as zigzag varint deltas from the previous entry,
+ * timestamps as varlong offsets from the base. Removals are decoded first, so a chunk that
+ * was removed and re-added within one batch ends up present.
  */
 public class S2CRegistryChunkPacket {
 
     /**
      * Entry for a single chunk in the registry batch.
+     * Removed entries only appear in delta transfers and have no timestamp.
      */
-    public record ChunkEntry(String dimension, int x, int z, long timestamp) {
-        public static void encode(ChunkEntry entry, FriendlyByteBuf buf) {
-            buf.writeUtf(entry.dimension);
-            buf.writeVarInt(entry.x);
-            buf.writeVarInt(entry.z);
-            buf.writeVarLong(entry.timestamp);
-        }
-
-        public static ChunkEntry decode(FriendlyByteBuf buf) {
-            return new ChunkEntry(
-                    buf.readUtf(),
-                    buf.readVarInt(),
-                    buf.readVarInt(),
-                    buf.readVarLong()
-            );
-        }
+    public record ChunkEntry(String dimension, int x, int z, long timestamp, boolean removed) {
     }
 
+    private static final Comparator<ChunkEntry> ENTRY_ORDER = Comparator.comparing(ChunkEntry::dimension)
+            .thenComparing((a, b) -> Long.compareUnsigned(
+                    ChunkCoord.mortonIndex(a.x(), a.z()), ChunkCoord.mortonIndex(b.x(), b.z())));
+
     private final List<ChunkEntry> entries;
     private final boolean isLastBatch;
     private final int batchIndex;
     private final int totalBatches;
+    private final boolean fullTransfer;
+    private final long revision;
 
-    public S2CRegistryChunkPacket(List<ChunkEntry> entries, boolean isLastBatch, int batchIndex, int totalBatches) {
+    public S2CRegistryChunkPacket(List<ChunkEntry> entries, boolean isLastBatch, int batchIndex, int totalBatches,
+                                  boolean fullTransfer, long revision) {
         this.entries = entries;
         this.isLastBatch = isLastBatch;
         this.batchIndex = batchIndex;
         this.totalBatches = totalBatches;
+        this.fullTransfer = fullTransfer;
+        this.revision = revision;
     }
 
     public static void encode(S2CRegistryChunkPacket packet, FriendlyByteBuf buf) {
-        buf.writeVarInt(packet.entries.size());
+        List<ChunkEntry> removals = new ArrayList<>();
+        List<ChunkEntry> updates = new ArrayList<>();
+        Map<String, Integer> dimensionIds = new LinkedHashMap<>();
+        long baseTimestamp = Long.MAX_VALUE;
         for (ChunkEntry entry : packet.entries) {
-            ChunkEntry.encode(entry, buf);
+            dimensionIds.computeIfAbsent(entry.dimension(), dim -> dimensionIds.size());
+            if (entry.removed()) {
+                removals.add(entry);
+            } else {
+                updates.add(entry);
+                baseTimestamp = Math.min(baseTimestamp, entry.timestamp());
+            }
+        }
+        if (updates.isEmpty()) {
+            baseTimestamp = 0;
+        }
+
+        buf.writeVarInt(dimensionIds.size());
+        for (String dimension : dimensionIds.keySet()) {
+            buf.writeUtf(dimension);
         }
+        buf.writeVarLong(baseTimestamp);
+        writeSection(buf, removals, dimensionIds, baseTimestamp);
+        writeSection(buf, updates, dimensionIds, baseTimestamp);
+
         buf.writeBoolean(packet.isLastBatch);
         buf.writeVarInt(packet.batchIndex);
         buf.writeVarInt(packet.totalBatches);
+        buf.writeBoolean(packet.fullTransfer);
+        buf.writeVarLong(packet.revision);
     }
 
     public static S2CRegistryChunkPacket decode(FriendlyByteBuf buf) {
-        int count = buf.readVarInt();
-        List<ChunkEntry> entries = new ArrayList<>(count);
-        for (int i = 0; i < count; i++) {
-            entries.add(ChunkEntry.decode(buf));
+        int dimensionCount = buf.readVarInt();
+        String[] dimensions = new String[dimensionCount];
+        for (int i = 0; i < dimensionCount; i++) {
+            dimensions[i] = buf.readUtf();
         }
+        long baseTimestamp = buf.readVarLong();
+
+        List<ChunkEntry> entries = new ArrayList<>();
+        readSection(buf, entries, dimensions, baseTimestamp, true);
+        readSection(buf, entries, dimensions, baseTimestamp, false);
+
         boolean isLastBatch = buf.readBoolean();
         int batchIndex = buf.readVarInt();
         int totalBatches = buf.readVarInt();
+        boolean fullTransfer = buf.readBoolean();
+        long revision = buf.readVarLong();
+
+        return new S2CRegistryChunkPacket(entries, isLastBatch, batchIndex, totalBatches, fullTransfer, revision);
+    }
+
+    /**
+     * Write entries as runs of one dimension each, sorted so consecutive coordinates are close.
+     */
+    private static void writeSection(FriendlyByteBuf buf, List<ChunkEntry> entries,
+                                     Map<String, Integer> dimensionIds, long baseTimestamp) {
+        entries.sort(ENTRY_ORDER);
+
+        // Count runs up front, entries of a dimension are contiguous after sorting
+        int runs = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (i == 0 || !entries.get(i).dimension().equals(entries.get(i - 1).dimension())) {
+                runs++;
+            }
+        }
+        buf.writeVarInt(runs);
+
+        int start = 0;
+        while (start < entries.size()) {
+            String dimension = entries.get(start).dimension();
+            int end = start;
+            while (end < entries.size() && entries.get(end).dimension().equals(dimension)) {
+                end++;
+            }
+
+            buf.writeVarInt(dimensionIds.get(dimension));
+            buf.writeVarInt(end - start);
+            int prevX = 0;
+            int prevZ = 0;
+            for (int i = start; i < end; i++) {
+                ChunkEntry entry = entries.get(i);
+                PacketEncoding.writeZigZagVarInt(buf, entry.x() - prevX);
+                PacketEncoding.writeZigZagVarInt(buf, entry.z() - prevZ);
+                if (!entry.removed()) {
+                    buf.writeVarLong(entry.timestamp() - baseTimestamp);
+                }
+                prevX = entry.x();
+                prevZ = entry.z();
+            }
+            start = end;
+        }
+    }
 
-        return new S2CRegistryChunkPacket(entries, isLastBatch, batchIndex, totalBatches);
+    private static void readSection(FriendlyByteBuf buf, List<ChunkEntry> entries,
+                                    String[] dimensions, long baseTimestamp, boolean removed) {
+        int runs = buf.readVarInt();
+        for (int run = 0; run < runs; run++) {
+            String dimension = dimensions[buf.readVarInt()];
+            int count = buf.readVarInt();
+            int x = 0;
+            int z = 0;
+            for (int i = 0; i < count; i++) {
+                x += PacketEncoding.readZigZagVarInt(buf);
+                z += PacketEncoding.readZigZagVarInt(buf);
+                long timestamp = removed ? 0 : baseTimestamp + buf.readVarLong();
+                entries.add(new ChunkEntry(dimension, x, z, timestamp, removed));
+            }
+        }
     }
 
     public static void handle(S2CRegistryChunkPacket packet, Supplier<NetworkEvent.Context> ctx) {
@@ -99,4 +199,12 @@ public class S2CRegistryChunkPacket {
     public int getTotalBatches() {
         return totalBatches;
     }
+
+    public boolean isFullTransfer() {
+        return fullTransfer;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
 }
@@ -0,0 +1,118 @@
+package net.fivew14.xaerosync.networking.packets;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.fivew14.xaerosync.networking.PacketEncoding;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Server -> Client: Registry hash tree nodes for reconciliation.
+ * Sent instead of a full registry transfer when the client has a saved copy the server
+ * can't bring up to date with a delta. The client compares each node with its own copy
+ * and asks for the children of those that differ ({@link C2SRegistryReconcilePacket}).
+ * Large replies are split over several packets; the last one has isLast set.
+ */
+public class S2CRegistryHashesPacket {
+
+    /**
+     * Tree level of the nodes in a packet. Dimension nodes have x = z = 0,
+     * group and region nodes carry packed group/region coordinates.
+     */
+    public enum Level {
+        DIMENSION,
+        GROUP,
+        REGION
+    }
+
+    /**
+     * Hash of one tree node.
+     */
+    public record NodeHash(String dimension, int x, int z, long hash) {
+    }
+
+    private final Level level;
+    private final List<NodeHash> hashes;
+    private final boolean isLast;
+
+    public S2CRegistryHashesPacket(Level level, List<NodeHash> hashes, boolean isLast) {
+        this.level = level;
+        this.hashes = hashes;
+        this.isLast = isLast;
+    }
+
+    public static void encode(S2CRegistryHashesPacket packet, FriendlyByteBuf buf) {
+        buf.writeEnum(packet.level);
+
+        Map<String, Integer> dimensionIds = new LinkedHashMap<>();
+        for (NodeHash node : packet.hashes) {
+            dimensionIds.computeIfAbsent(node.dimension(), dim -> dimensionIds.size());
+        }
+        buf.writeVarInt(dimensionIds.size());
+        for (String dimension : dimensionIds.keySet()) {
+            buf.writeUtf(dimension);
+        }
+
+        buf.writeVarInt(packet.hashes.size());
+        for (NodeHash node : packet.hashes) {
+            buf.writeVarInt(dimensionIds.get(node.dimension()));
+            PacketEncoding.writeZigZagVarInt(buf, node.x());
+            PacketEncoding.writeZigZagVarInt(buf, node.z());
+            buf.writeLong(node.hash());
+        }
+        buf.writeBoolean(packet.isLast);
+    }
+
+    public static S2CRegistryHashesPacket decode(FriendlyByteBuf buf) {
+        Level level = buf.readEnum(Level.class);
+
+        int dimensionCount = buf.readVarInt();
+        String[] dimensions = new String[dimensionCount];
+        for (int i = 0; i < dimensionCount; i++) {
+            dimensions[i] = buf.readUtf();
+        }
+
+        int count = buf.readVarInt();
+        List<NodeHash> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String dimension = dimensions[buf.readVarInt()];
+            int x = PacketEncoding.readZigZagVarInt(buf);
+            int z = PacketEncoding.readZigZagVarInt(buf);
+            hashes.add(new NodeHash(dimension, x, z, buf.readLong()));
+        }
+        boolean isLast = buf.readBoolean();
+
+        return new S2CRegistryHashesPacket(level, hashes, isLast);
+    }
+
+    public static void handle(S2CRegistryHashesPacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            ClientSyncManager manager = ClientSyncManager.getInstance();
+            if (manager != null) {
+                manager.handleRegistryHashes(packet);
+            } else {
+                XaeroSync.LOGGER.warn("ClientSyncManager not initialized, ignoring registry hashes packet");
+            }
+        });
+        ctx.get().setPacketHandled(true);
+    }
+
+    // Getters
+    public Level getLevel() {
+        return level;
+    }
+
+    public List<NodeHash> getHashes() {
+        return hashes;
+    }
+
+    public boolean isLast() {
+        return isLast;
+    }
+}
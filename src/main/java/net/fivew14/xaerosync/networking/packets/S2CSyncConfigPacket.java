@@ -2,6 +2,7 @@ package net.fivew14.xaerosync.networking.packets;
 
 import net.fivew14.xaerosync.XaeroSync;
 import net.fivew14.xaerosync.client.sync.ClientSyncManager;
+import net.fivew14.xaerosync.common.ChunkCodec;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraftforge.network.NetworkEvent;
 
@@ -11,32 +12,46 @@ import java.util.function.Supplier;
 
 /**
  * Server -> Client: Sends sync configuration to the client on join.
- * Includes rate limits and allowed dimensions so the client knows the server's constraints.
+ * Includes rate limits, bandwidth limits (KB/s, 0 = unlimited) and allowed dimensions so the client
+ * knows the server's constraints,
+ * the registry epoch so the client can tell whether its last sync position still applies,
+ * and the preset dictionary chunk payloads are compressed with (empty if there is none).
  */
 public class S2CSyncConfigPacket {
 
     private final boolean syncEnabled;
     private final int maxUploadPerSecond;
     private final int maxDownloadPerSecond;
+    private final int maxUploadKbPerSecond;
+    private final int maxDownloadKbPerSecond;
     private final int minUpdateIntervalMinutes;
     private final List<String> allowedDimensions; // Empty means all allowed (after blacklist check)
     private final List<String> blacklistedDimensions;
+    private final long registryEpoch;
+    private final byte[] compressionDictionary;
 
     public S2CSyncConfigPacket(boolean syncEnabled, int maxUploadPerSecond, int maxDownloadPerSecond,
-                               int minUpdateIntervalMinutes,
-                               List<String> allowedDimensions, List<String> blacklistedDimensions) {
+                               int maxUploadKbPerSecond, int maxDownloadKbPerSecond, int minUpdateIntervalMinutes,
+                               List<String> allowedDimensions, List<String> blacklistedDimensions,
+                               long registryEpoch, byte[] compressionDictionary) {
         this.syncEnabled = syncEnabled;
         this.maxUploadPerSecond = maxUploadPerSecond;
         this.maxDownloadPerSecond = maxDownloadPerSecond;
+        this.maxUploadKbPerSecond = maxUploadKbPerSecond;
+        this.maxDownloadKbPerSecond = maxDownloadKbPerSecond;
         this.minUpdateIntervalMinutes = minUpdateIntervalMinutes;
         this.allowedDimensions = allowedDimensions;
         this.blacklistedDimensions = blacklistedDimensions;
+        this.registryEpoch = registryEpoch;
+        this.compressionDictionary = compressionDictionary;
     }
 
     public static void encode(S2CSyncConfigPacket packet, FriendlyByteBuf buf) {
         buf.writeBoolean(packet.syncEnabled);
         buf.writeVarInt(packet.maxUploadPerSecond);
         buf.writeVarInt(packet.maxDownloadPerSecond);
+        buf.writeVarInt(packet.maxUploadKbPerSecond);
+        buf.writeVarInt(packet.maxDownloadKbPerSecond);
         buf.writeVarInt(packet.minUpdateIntervalMinutes);
 
         buf.writeVarInt(packet.allowedDimensions.size());
@@ -48,12 +63,17 @@ public class S2CSyncConfigPacket {
         for (String dim : packet.blacklistedDimensions) {
             buf.writeUtf(dim);
         }
+
+        buf.writeLong(packet.registryEpoch);
+        buf.writeByteArray(packet.compressionDictionary);
     }
 
     public static S2CSyncConfigPacket decode(FriendlyByteBuf buf) {
         boolean syncEnabled = buf.readBoolean();
         int maxUploadPerSecond = buf.readVarInt();
         int maxDownloadPerSecond = buf.readVarInt();
+        int maxUploadKbPerSecond = buf.readVarInt();
+        int maxDownloadKbPerSecond = buf.readVarInt();
         int minUpdateIntervalMinutes = buf.readVarInt();
 
         int allowedCount = buf.readVarInt();
@@ -68,8 +88,12 @@ public class S2CSyncConfigPacket {
             blacklistedDimensions.add(buf.readUtf());
         }
 
+        long registryEpoch = buf.readLong();
+        byte[] compressionDictionary = buf.readByteArray(ChunkCodec.MAX_DICTIONARY_SIZE);
+
         return new S2CSyncConfigPacket(syncEnabled, maxUploadPerSecond, maxDownloadPerSecond,
-                minUpdateIntervalMinutes, allowedDimensions, blacklistedDimensions);
+                maxUploadKbPerSecond, maxDownloadKbPerSecond, minUpdateIntervalMinutes,
+                allowedDimensions, blacklistedDimensions, registryEpoch, compressionDictionary);
     }
 
     public static void handle(S2CSyncConfigPacket packet, Supplier<NetworkEvent.Context> ctx) {
@@ -97,6 +121,14 @@ public class S2CSyncConfigPacket {
         return maxDownloadPerSecond;
     }
 
+    public int getMaxUploadKbPerSecond() {
+        return maxUploadKbPerSecond;
+    }
+
+    public int getMaxDownloadKbPerSecond() {
+        return maxDownloadKbPerSecond;
+    }
+
     public List<String> getAllowedDimensions() {
         return allowedDimensions;
     }
@@ -108,4 +140,12 @@ public class S2CSyncConfigPacket {
     public int getMinUpdateIntervalMinutes() {
         return minUpdateIntervalMinutes;
     }
+
+    public long getRegistryEpoch() {
+        return registryEpoch;
+    }
+
+    public byte[] getCompressionDictionary() {
+        return compressionDictionary;
+    }
 }
@@ -18,6 +18,14 @@ public class S2CUploadResultPacket {
          * Upload accepted and stored
          */
         ACCEPTED,
+        /**
+         * Server already has identical content, nothing was stored
+         */
+        UNCHANGED,
+        /**
+         * Probe passed, the client should send the full data
+         */
+        NEED_DATA,
         /**
          * Rejected: server has newer data
          */
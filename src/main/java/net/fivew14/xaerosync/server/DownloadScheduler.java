@@ -0,0 +1,99 @@
+package net.fivew14.xaerosync.server;
+
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.RateLimiter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Shares a server-wide download budget between players with deficit round-robin.
+ * <p>
+ * Players with pending downloads take turns in a fixed ring. On its turn a player may download
+ * as many chunks as its weight, as long as its own limits allow. When the server-wide budget
+ * runs out partway through a turn, the next tick resumes that turn where it stopped, so every
+ * player gets its share over time no matter how the budget falls across ticks.
+ * Players still receiving their registry can be given a higher weight.
+ * Called from the server thread only.
+ */
+public class DownloadScheduler {
+
+    private final RateLimiter chunkLimiter;
+    private final List<UUID> ring = new ArrayList<>();
+    private int cursor = 0;
+
+    // Chunks left in the turn of the player at the cursor, or -1 when its turn hasn't started
+    private int remainingTurn = -1;
+
+    public DownloadScheduler(int maxChunksPerSecond) {
+        this.chunkLimiter = new RateLimiter(maxChunksPerSecond);
+    }
+
+    public void addPlayer(UUID playerId) {
+        if (!ring.contains(playerId)) {
+            ring.add(playerId);
+        }
+    }
+
+    public void removePlayer(UUID playerId) {
+        int index = ring.indexOf(playerId);
+        if (index < 0) return;
+        ring.remove(index);
+        if (index == cursor) {
+            remainingTurn = -1;
+        }
+        if (index < cursor) {
+            cursor--;
+        }
+        if (cursor >= ring.size()) {
+            cursor = 0;
+        }
+    }
+
+    /**
+     * Pick this tick's downloads, polling them from the players' queues.
+     *
+     * @param states        sync state of every player
+     * @param byteLimiter   server-wide byte budget, charged by the caller once the chunks are read
+     * @param syncingWeight weight of players whose registry transfer isn't complete yet
+     * @return the chunks to send, per player
+     */
+    public Map<UUID, List<ChunkCoord>> schedule(Map<UUID, PlayerSyncState> states, RateLimiter byteLimiter,
+                                                int syncingWeight) {
+        Map<UUID, List<ChunkCoord>> result = new LinkedHashMap<>();
+        boolean progress = true;
+        while (progress && !ring.isEmpty()) {
+            progress = false;
+            for (int turn = 0; turn < ring.size(); turn++) {
+                UUID playerId = ring.get(cursor);
+                PlayerSyncState state = states.get(playerId);
+                if (state != null && state.hasPendingDownloads() && !state.isDownloadReadInFlight()) {
+                    if (remainingTurn < 0) {
+                        remainingTurn = state.isRegistryTransferComplete() ? 1 : syncingWeight;
+                    }
+                    while (remainingTurn > 0 && state.hasPendingDownloads()) {
+                        if (!chunkLimiter.canAcquire() || !byteLimiter.canAcquire()) {
+                            // Out of budget, the rest of this turn happens next tick
+                            return result;
+                        }
+                        if (!state.canDownload()) {
+                            break;
+                        }
+                        ChunkCoord coord = state.pollNextDownload();
+                        if (coord == null) break;
+                        chunkLimiter.consume(1);
+                        result.computeIfAbsent(playerId, id -> new ArrayList<>()).add(coord);
+                        remainingTurn--;
+                        progress = true;
+                    }
+                }
+                remainingTurn = -1;
+                cursor = (cursor + 1) % ring.size();
+            }
+        }
+        return result;
+    }
+}
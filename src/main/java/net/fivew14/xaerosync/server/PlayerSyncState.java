@@ -2,10 +2,16 @@ package net.fivew14.xaerosync.server;
 
 import net.fivew14.xaerosync.common.ChunkCoord;
 import net.fivew14.xaerosync.common.RateLimiter;
+import net.fivew14.xaerosync.common.SpatialQueue;
+import net.fivew14.xaerosync.server.storage.ChunkRegistry;
 import net.minecraft.server.level.ServerPlayer;
 
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,22 +28,50 @@ public class PlayerSyncState {
     private final String playerName;
     private final RateLimiter uploadLimiter;
     private final RateLimiter downloadLimiter;
+    private final RateLimiter uploadByteLimiter;
+    private final RateLimiter downloadByteLimiter;
 
+    // Set while a batch of downloads is being read, so its size is charged before the next one starts
+    private final AtomicBoolean downloadReadInFlight = new AtomicBoolean(false);
+
+    private final AtomicBoolean registryTransferStarted = new AtomicBoolean(false);
     private final AtomicBoolean registryTransferComplete = new AtomicBoolean(false);
     private final AtomicInteger registryBatchesSent = new AtomicInteger(0);
     private int totalRegistryBatches = 0;
 
-    private final ConcurrentLinkedQueue<ChunkCoord> pendingDownloads = new ConcurrentLinkedQueue<>();
+    // Entries being sent to this player, and the registry revision they bring the client up to
+    private volatile List<ChunkRegistry.Change> registryTransfer = Collections.emptyList();
+    private volatile long registryTransferRevision = 0;
+    private volatile boolean fullRegistryTransfer = true;
+
+    // Set while the client compares registry hashes, before the transfer itself starts
+    private volatile boolean reconciling = false;
+
+    // Player position the unsent part of the transfer is ordered around
+    private volatile ChunkCoord registryTransferCenter = null;
+
+    // Requested chunks, closest to the player first
+    private final SpatialQueue pendingDownloads = new SpatialQueue();
+
+    // Timestamp of the copy the client already has, for requests that only want newer tiles
+    private final Map<ChunkCoord, Long> downloadBases = new HashMap<>();
 
-    private volatile long lastRegistryTickTime = 0;
+    private final RegistryPacer registryPacer = new RegistryPacer();
+
+    // Global palette entries announced to the client so far, only touched on the server thread
+    private int announcedBlockStates = 0;
+    private int announcedBiomes = 0;
 
     private volatile boolean syncEnabled = true;
 
-    public PlayerSyncState(ServerPlayer player, int maxUploadsPerSec, int maxDownloadsPerSec) {
+    public PlayerSyncState(ServerPlayer player, int maxUploadsPerSec, int maxDownloadsPerSec,
+                           int maxUploadKbPerSec, int maxDownloadKbPerSec) {
         this.playerId = player.getUUID();
         this.playerName = player.getName().getString();
         this.uploadLimiter = new RateLimiter(maxUploadsPerSec);
         this.downloadLimiter = new RateLimiter(maxDownloadsPerSec);
+        this.uploadByteLimiter = RateLimiter.ofKilobytesPerSecond(maxUploadKbPerSec);
+        this.downloadByteLimiter = RateLimiter.ofKilobytesPerSecond(maxDownloadKbPerSec);
     }
 
     public UUID getPlayerId() {
@@ -51,27 +85,112 @@ public class PlayerSyncState {
     // ==================== Rate Limiting ====================
 
     /**
-     * Check if player can upload (rate limit check).
+     * Check if player can upload a chunk of the given size (chunk and byte rate limit check).
+     * The bytes are only charged through {@link #chargeUploadBytes} once the chunk is queued for writing.
+     */
+    public boolean canUpload(int bytes) {
+        return uploadByteLimiter.canAcquire(bytes) && uploadLimiter.tryAcquire();
+    }
+
+    /**
+     * Charge the bytes of an accepted upload against this player's upload budget.
      */
-    public boolean canUpload() {
-        return uploadLimiter.tryAcquire();
+    public void chargeUploadBytes(long bytes) {
+        uploadByteLimiter.consume(bytes);
     }
 
     /**
-     * Check if player can receive a download (rate limit check).
+     * Check if player can receive a download (rate limit check). The chunk's size isn't known
+     * until it's read, so it's charged afterwards through {@link #chargeDownloadBytes}.
      */
     public boolean canDownload() {
-        return downloadLimiter.tryAcquire();
+        return downloadByteLimiter.canAcquire() && downloadLimiter.tryAcquire();
+    }
+
+    /**
+     * Charge the bytes of chunks sent to this player against its download budget.
+     */
+    public void chargeDownloadBytes(long bytes) {
+        downloadByteLimiter.consume(bytes);
+    }
+
+    /**
+     * Mark a download read as started. Returns false if one is already in flight.
+     */
+    public boolean markDownloadReadStarted() {
+        return downloadReadInFlight.compareAndSet(false, true);
+    }
+
+    public void markDownloadReadFinished() {
+        downloadReadInFlight.set(false);
+    }
+
+    public boolean isDownloadReadInFlight() {
+        return downloadReadInFlight.get();
     }
 
     // ==================== Registry Transfer ====================
 
+    /**
+     * Mark the registry transfer as started. Returns false if it already was,
+     * so a repeated request from the client is ignored.
+     */
+    public boolean markRegistryTransferStarted() {
+        return registryTransferStarted.compareAndSet(false, true);
+    }
+
+    public boolean isRegistryTransferStarted() {
+        return registryTransferStarted.get();
+    }
+
+    /**
+     * Set the entries to send and the revision the client will be at once it has them all.
+     */
+    public void setRegistryTransfer(List<ChunkRegistry.Change> changes, long revision, boolean full) {
+        this.registryTransfer = changes;
+        this.registryTransferRevision = revision;
+        this.fullRegistryTransfer = full;
+    }
+
+    public List<ChunkRegistry.Change> getRegistryTransfer() {
+        return registryTransfer;
+    }
+
+    public long getRegistryTransferRevision() {
+        return registryTransferRevision;
+    }
+
+    public boolean isFullRegistryTransfer() {
+        return fullRegistryTransfer;
+    }
+
+    @Nullable
+    public ChunkCoord getRegistryTransferCenter() {
+        return registryTransferCenter;
+    }
+
+    public void setRegistryTransferCenter(@Nullable ChunkCoord center) {
+        this.registryTransferCenter = center;
+    }
+
+    public boolean isReconciling() {
+        return reconciling;
+    }
+
+    public void setReconciling(boolean reconciling) {
+        this.reconciling = reconciling;
+    }
+
     public boolean isRegistryTransferComplete() {
         return registryTransferComplete.get();
     }
 
     public void setRegistryTransferComplete(boolean complete) {
         registryTransferComplete.set(complete);
+        if (complete) {
+            // Let a delta list be collected once it's been sent
+            registryTransfer = Collections.emptyList();
+        }
     }
 
     public int getRegistryBatchesSent() {
@@ -90,12 +209,8 @@ public class PlayerSyncState {
         this.totalRegistryBatches = total;
     }
 
-    public long getLastRegistryTickTime() {
-        return lastRegistryTickTime;
-    }
-
-    public void setLastRegistryTickTime(long time) {
-        this.lastRegistryTickTime = time;
+    public RegistryPacer getRegistryPacer() {
+        return registryPacer;
     }
 
     public boolean isSyncEnabled() {
@@ -106,23 +221,73 @@ public class PlayerSyncState {
         this.syncEnabled = enabled;
     }
 
+    public int getAnnouncedBlockStates() {
+        return announcedBlockStates;
+    }
+
+    public int getAnnouncedBiomes() {
+        return announcedBiomes;
+    }
+
+    public void setAnnouncedPalette(int blockStates, int biomes) {
+        this.announcedBlockStates = blockStates;
+        this.announcedBiomes = biomes;
+    }
+
     // ==================== Download Queue ====================
 
     /**
-     * Add a chunk to the pending downloads queue.
+     * Add a chunk to the pending downloads queue. Returns false if the queue is full,
+     * in which case the client should be told to retry later.
+     *
+     * @param sinceTimestamp only send tiles changed after this, 0 for the whole chunk
      */
-    public void queueDownload(ChunkCoord coord) {
-        if (pendingDownloads.size() >= MAX_PENDING_DOWNLOADS) {
-            return;
-        }
+    public boolean queueDownload(ChunkCoord coord, long sinceTimestamp) {
         if (!pendingDownloads.contains(coord)) {
+            if (pendingDownloads.size() >= MAX_PENDING_DOWNLOADS) {
+                return false;
+            }
             pendingDownloads.add(coord);
         }
+        setDownloadBase(coord, sinceTimestamp);
+        return true;
+    }
+
+    /**
+     * Put back a chunk that was taken from the queue but couldn't be sent, ignoring the size limit.
+     */
+    public void requeueDownload(ChunkCoord coord, long sinceTimestamp) {
+        pendingDownloads.add(coord);
+        setDownloadBase(coord, sinceTimestamp);
+    }
+
+    /**
+     * Take the timestamp a queued download only wants newer tiles than, 0 for the whole chunk.
+     */
+    public long takeDownloadBase(ChunkCoord coord) {
+        Long since = downloadBases.remove(coord);
+        return since != null ? since : 0;
+    }
+
+    private void setDownloadBase(ChunkCoord coord, long sinceTimestamp) {
+        if (sinceTimestamp > 0) {
+            downloadBases.put(coord, sinceTimestamp);
+        } else {
+            downloadBases.remove(coord);
+        }
+    }
+
+    /**
+     * Update the player position pending downloads are ordered around.
+     */
+    public void setDownloadCenter(ChunkCoord position) {
+        pendingDownloads.setCenter(position.dimension(), position.x(), position.z());
     }
 
     /**
-     * Get the next chunk to download (and remove from queue).
+     * Get the pending chunk closest to the player (and remove from queue).
      */
+    @Nullable
     public ChunkCoord pollNextDownload() {
         return pendingDownloads.poll();
     }
@@ -146,5 +311,6 @@ public class PlayerSyncState {
      */
     public void clearPendingDownloads() {
         pendingDownloads.clear();
+        downloadBases.clear();
     }
 }
@@ -0,0 +1,71 @@
+package net.fivew14.xaerosync.server;
+
+/**
+ * Paces a player's registry transfer by how well their connection and the server keep up.
+ * <p>
+ * Additive increase, multiplicative decrease: every batch sent while the connection has
+ * room and the server is running comfortably raises the rate by one batch per second, up to
+ * the configured ceiling. A congested channel or a slow server tick halves it, at most once
+ * per second. While the channel is congested nothing is sent at all.
+ * Called from the server thread only.
+ */
+public class RegistryPacer {
+
+    private static final double INITIAL_RATE = 2.0;
+    private static final double MIN_RATE = 1.0;
+
+    // Server tick time (ms) above which transfers back off, and below which they may speed up
+    private static final float BACKOFF_MSPT = 40.0f;
+    private static final float RAMP_MSPT = 30.0f;
+
+    private static final long DECREASE_COOLDOWN_MS = 1000;
+
+    // Unused credit is capped so a pause doesn't turn into a burst
+    private static final double MAX_BURST_SECONDS = 0.1;
+
+    private double rate = INITIAL_RATE;
+    private double credit = 1.0; // First batch goes out right away
+    private long lastTickTime = 0;
+    private long lastDecreaseTime = 0;
+
+    /**
+     * Advance the pacer by one server tick and get the number of batches to send now.
+     *
+     * @param ceiling   the configured maximum in batches per second
+     * @param congested the player's channel currently refuses writes
+     * @param idle      the player's channel has plenty of room left
+     * @param mspt      the server's average tick time in milliseconds
+     */
+    public int onTick(long now, double ceiling, boolean congested, boolean idle, float mspt) {
+        double elapsedSeconds = lastTickTime == 0 ? 0 : (now - lastTickTime) / 1000.0;
+        lastTickTime = now;
+
+        if (congested || mspt > BACKOFF_MSPT) {
+            if (now - lastDecreaseTime >= DECREASE_COOLDOWN_MS) {
+                rate = Math.max(MIN_RATE, rate / 2);
+                lastDecreaseTime = now;
+            }
+            if (congested) {
+                credit = Math.min(credit, 1.0);
+                return 0;
+            }
+        }
+
+        rate = Math.max(MIN_RATE, Math.min(rate, ceiling));
+        credit = Math.min(credit + rate * elapsedSeconds, 1.0 + rate * MAX_BURST_SECONDS);
+
+        int batches = (int) credit;
+        credit -= batches;
+        if (batches > 0 && idle && mspt < RAMP_MSPT) {
+            rate = Math.min(ceiling, rate + batches);
+        }
+        return batches;
+    }
+
+    /**
+     * Get the current rate in batches per second.
+     */
+    public double getRate() {
+        return rate;
+    }
+}
@@ -1,13 +1,26 @@
 package net.fivew14.xaerosync.server;
 
+import io.netty.channel.Channel;
 import net.fivew14.xaerosync.Config;
 import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCodec;
 import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+import net.fivew14.xaerosync.common.ContentHash;
+import net.fivew14.xaerosync.common.RateLimiter;
+import net.fivew14.xaerosync.common.TileSections;
 import net.fivew14.xaerosync.common.TimestampValidator;
 import net.fivew14.xaerosync.networking.XaeroSyncNetworking;
 import net.fivew14.xaerosync.networking.packets.*;
+import net.fivew14.xaerosync.server.storage.CachingChunkStorage;
 import net.fivew14.xaerosync.server.storage.ChunkRegistry;
+import net.fivew14.xaerosync.server.storage.ChunkStorage;
+import net.fivew14.xaerosync.server.storage.CompressionDictionary;
+import net.fivew14.xaerosync.server.storage.GlobalPalette;
+import net.fivew14.xaerosync.server.storage.RegistryIndex;
 import net.fivew14.xaerosync.server.storage.ServerSyncStorage;
+import net.fivew14.xaerosync.server.storage.StorageMigrator;
+import net.minecraft.nbt.CompoundTag;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
@@ -17,6 +30,7 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Main server-side sync manager.
@@ -27,27 +41,78 @@ public class ServerSyncManager {
     private static ServerSyncManager instance;
 
     private final MinecraftServer server;
-    private final ServerSyncStorage storage;
+    private final CachingChunkStorage storage;
     private final ChunkRegistry registry;
+    private final RegistryIndex registryIndex;
+    private final StorageExecutor storageExecutor;
     private final Map<UUID, PlayerSyncState> playerStates = new ConcurrentHashMap<>();
 
-    // Cached registry entries for batch sending
-    private volatile List<Map.Entry<ChunkCoord, Long>> cachedRegistryEntries;
+    // Chunk data bytes per second shared by all players' uploads and downloads
+    private final RateLimiter totalByteLimiter;
+
+    // Shares the server-wide download rate between players
+    private final DownloadScheduler downloadScheduler;
+
+    // Compresses merged chunks and filtered downloads, see CompressionDictionary.
+    // Switched once a dictionary is trained, read from the I/O thread too.
+    private volatile ChunkCodec chunkCodec;
+
+    // Dictionary training in progress, and the registry size to try again at after a failed attempt
+    private boolean dictionaryTraining = false;
+    private int dictionaryTrainingThreshold = CompressionDictionary.MIN_TRAINING_CHUNKS;
+
+    // IDs that uploaded palette entries are replaced with before storing
+    private final GlobalPalette palette;
+
+    // Chunks with a storage write in flight, so a second upload can't race the registry check
+    private final Set<ChunkCoord> pendingWrites = ConcurrentHashMap.newKeySet();
+
+    // Cached full registry listing shared by players receiving a full transfer
+    private volatile RegistryListing cachedRegistryEntries;
     private volatile long lastRegistryCacheTime = 0;
     private static final long REGISTRY_CACHE_TTL_MS = 5000; // 5 seconds
 
+    // Hash tree nodes per reconciliation packet
+    private static final int MAX_HASHES_PER_PACKET = 4096;
+
+    // Re-order the rest of a registry transfer once the player moves this many tiles away
+    private static final int REGISTRY_RECENTER_DISTANCE = 16;
+
+    // Bounds on how long a client is told to wait after its download queue was full
+    private static final long MIN_DOWNLOAD_RETRY_MS = 1000;
+    private static final long MAX_DOWNLOAD_RETRY_MS = 30_000;
+
+    // Room left in a player's outbound buffer for the channel to count as idle (Netty's limit is 64KB)
+    private static final long IDLE_CHANNEL_HEADROOM_BYTES = 32 * 1024;
+
     public ServerSyncManager(MinecraftServer server) {
         this.server = server;
-        this.storage = ServerSyncStorage.create(server.overworld());
+        ChunkStorage backend = ServerSyncStorage.create(server.overworld());
+        this.storage = new CachingChunkStorage(backend, Config.SERVER_CHUNK_CACHE_MB.get() * 1024L * 1024L);
         this.registry = new ChunkRegistry();
+        this.registryIndex = new RegistryIndex(storage.getStorageRoot(), registry);
+        this.storageExecutor = new StorageExecutor(server,
+                Config.SERVER_IO_THREADS.get(), Config.SERVER_IO_QUEUE_SIZE.get());
+        this.totalByteLimiter = RateLimiter.ofKilobytesPerSecond(Config.SERVER_MAX_TOTAL_KB_PER_SECOND.get());
+        this.downloadScheduler = new DownloadScheduler(Config.SERVER_MAX_TOTAL_DOWNLOAD_PER_SECOND.get());
 
         try {
             storage.initialize();
-            storage.scanIntoRegistry(registry);
+            // Migrate straight into the backend so the cache isn't flooded with cold chunks
+            int migrated = StorageMigrator.migrateLegacy(backend);
+
+            // Migrated chunks aren't in the index yet, so rebuild it from storage
+            if (migrated > 0 || !registryIndex.load()) {
+                registry.clear();
+                storage.scanIntoRegistry(registry);
+            }
+            registryIndex.compact();
             XaeroSync.LOGGER.info("Loaded {} chunks from storage", registry.size());
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to initialize storage", e);
         }
+        this.chunkCodec = CompressionDictionary.loadOrTrain(storage, registry);
+        this.palette = GlobalPalette.load(storage.getStorageRoot());
     }
 
     public static void init(MinecraftServer server) {
@@ -55,6 +120,13 @@ public class ServerSyncManager {
     }
 
     public static void shutdown() {
+        if (instance != null) {
+            // Drain queued writes first so they reach the registry index
+            instance.storageExecutor.shutdown();
+            instance.registryIndex.close();
+            instance.palette.close();
+            instance.storage.close();
+        }
         instance = null;
     }
 
@@ -113,15 +185,16 @@ public class ServerSyncManager {
         PlayerSyncState state = new PlayerSyncState(
                 player,
                 Config.SERVER_MAX_UPLOAD_PER_SECOND.get(),
-                Config.SERVER_MAX_DOWNLOAD_PER_SECOND.get()
+                Config.SERVER_MAX_DOWNLOAD_PER_SECOND.get(),
+                Config.SERVER_MAX_UPLOAD_KB_PER_SECOND.get(),
+                Config.SERVER_MAX_DOWNLOAD_KB_PER_SECOND.get()
         );
         playerStates.put(player.getUUID(), state);
+        downloadScheduler.addPlayer(player.getUUID());
 
-        // Send config packet
+        // Send config packet, the client answers with a registry request
         sendConfigPacket(player);
-
-        // Start registry transfer
-        startRegistryTransfer(player, state);
+        announcePalette(player, state);
 
         XaeroSync.LOGGER.info("Player {} initialized for sync (registry size: {})",
                 player.getName().getString(), registry.size());
@@ -132,6 +205,7 @@ public class ServerSyncManager {
      */
     public void onPlayerLeave(ServerPlayer player) {
         playerStates.remove(player.getUUID());
+        downloadScheduler.removePlayer(player.getUUID());
         XaeroSync.LOGGER.debug("Player {} left, removed sync state", player.getName().getString());
     }
 
@@ -144,7 +218,8 @@ public class ServerSyncManager {
         }
 
         long now = System.currentTimeMillis();
-        long registryIntervalMs = 1000 / Config.SERVER_REGISTRY_PACKETS_PER_SECOND.get();
+        int registryRateCeiling = Config.SERVER_REGISTRY_PACKETS_PER_SECOND.get();
+        float mspt = server.getAverageTickTime();
 
         // Copy entries to avoid CME during iteration
         List<Map.Entry<UUID, PlayerSyncState>> statesCopy;
@@ -157,21 +232,40 @@ public class ServerSyncManager {
             ServerPlayer player = server.getPlayerList().getPlayer(entry.getKey());
             if (player == null) continue;
 
+            // Entries assigned for other players' uploads, needed to read and upload chunks with them
+            announcePalette(player, state);
+
+            // Serve requested chunks closest to where the player is now
+            if (state.hasPendingDownloads()) {
+                state.setDownloadCenter(playerPosition(player));
+            }
+
             // Continue registry transfer if not complete
-            if (!state.isRegistryTransferComplete()) {
-                if (now - state.getLastRegistryTickTime() >= registryIntervalMs) {
+            if (state.isRegistryTransferStarted() && !state.isReconciling() && !state.isRegistryTransferComplete()) {
+                Channel channel = getChannel(player);
+                boolean congested = channel != null && !channel.isWritable();
+                boolean idle = channel == null || channel.bytesBeforeUnwritable() >= IDLE_CHANNEL_HEADROOM_BYTES;
+                int batches = state.getRegistryPacer().onTick(now, registryRateCeiling, congested, idle, mspt);
+                for (int i = 0; i < batches && !state.isRegistryTransferComplete(); i++) {
                     sendNextRegistryBatch(player, state);
-                    state.setLastRegistryTickTime(now);
                 }
             }
+        }
 
-            // Process pending downloads
-            while (state.hasPendingDownloads() && state.canDownload()) {
-                ChunkCoord coord = state.pollNextDownload();
-                if (coord != null) {
-                    sendChunkData(player, coord);
-                }
-            }
+        // Share this tick's downloads between players, leaving them queued while storage I/O is saturated.
+        // Each player's chunks are read in one storage task, and only one read is in flight per player
+        // so its bytes are charged before the budgets are checked again.
+        if (storageExecutor.hasCapacity()) {
+            downloadScheduler.schedule(playerStates, totalByteLimiter, Config.SERVER_INITIAL_SYNC_WEIGHT.get())
+                    .forEach((playerId, coords) -> {
+                        PlayerSyncState state = playerStates.get(playerId);
+                        if (state == null) return;
+                        if (state.markDownloadReadStarted()) {
+                            sendChunkData(playerId, state, coords);
+                        } else {
+                            coords.forEach(coord -> state.requeueDownload(coord, state.takeDownloadBase(coord)));
+                        }
+                    });
         }
     }
 
@@ -185,9 +279,13 @@ public class ServerSyncManager {
                 Config.SERVER_SYNC_ENABLED.get(),
                 Config.SERVER_MAX_UPLOAD_PER_SECOND.get(),
                 Config.SERVER_MAX_DOWNLOAD_PER_SECOND.get(),
+                Config.SERVER_MAX_UPLOAD_KB_PER_SECOND.get(),
+                Config.SERVER_MAX_DOWNLOAD_KB_PER_SECOND.get(),
                 Config.SERVER_MIN_UPDATE_INTERVAL_MINUTES.get(),
                 whitelist,
-                blacklist
+                blacklist,
+                registry.getEpoch(),
+                chunkCodec.getDictionary()
         );
 
         XaeroSync.LOGGER.info("Sending config packet to {} (syncEnabled={}, upload={}/s, download={}/s, minInterval={}min)",
@@ -197,49 +295,213 @@ public class ServerSyncManager {
         XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
     }
 
-    private void startRegistryTransfer(ServerPlayer player, PlayerSyncState state) {
-        List<Map.Entry<ChunkCoord, Long>> entries = getRegistryEntries();
+    /**
+     * Train the compression dictionary on the I/O thread once enough chunks are stored, then
+     * switch to it and resend the config so connected players get it too. Chunks compressed
+     * before stay readable.
+     */
+    private void maybeTrainDictionary() {
+        if (chunkCodec.hasDictionary() || dictionaryTraining || registry.size() < dictionaryTrainingThreshold) {
+            return;
+        }
+        dictionaryTraining = true;
+        boolean queued = storageExecutor.submit(() -> CompressionDictionary.loadOrTrain(storage, registry), codec -> {
+            dictionaryTraining = false;
+            if (codec == null || !codec.hasDictionary()) {
+                // Not enough readable samples yet, wait for the registry to grow
+                dictionaryTrainingThreshold = Math.max(registry.size(), CompressionDictionary.MIN_TRAINING_CHUNKS) * 2;
+                return;
+            }
+            chunkCodec = codec;
+            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+                if (playerStates.containsKey(player.getUUID())) {
+                    sendConfigPacket(player);
+                }
+            }
+        });
+        if (!queued) {
+            dictionaryTraining = false;
+        }
+    }
+
+    /**
+     * Send the player any global palette entries it hasn't been told about yet.
+     */
+    private void announcePalette(ServerPlayer player, PlayerSyncState state) {
+        int blockStates = state.getAnnouncedBlockStates();
+        int biomes = state.getAnnouncedBiomes();
+        while (blockStates < palette.getBlockStateCount() || biomes < palette.getBiomeCount()) {
+            List<CompoundTag> newBlockStates = palette.getBlockStates(blockStates, S2CPaletteUpdatePacket.MAX_ENTRIES);
+            List<String> newBiomes = palette.getBiomes(biomes, S2CPaletteUpdatePacket.MAX_ENTRIES);
+            XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player),
+                    new S2CPaletteUpdatePacket(blockStates, newBlockStates, biomes, newBiomes));
+            blockStates += newBlockStates.size();
+            biomes += newBiomes.size();
+        }
+        state.setAnnouncedPalette(blockStates, biomes);
+    }
+
+    /**
+     * Handle a registry request from the client. If the client's last known revision is still
+     * in this registry's history, only the changes since then are sent. Otherwise a client with
+     * saved server state is reconciled through the hash tree, and anyone else gets everything.
+     */
+    public void handleRegistryRequest(ServerPlayer player, C2SRegistryRequestPacket packet) {
+        PlayerSyncState state = playerStates.get(player.getUUID());
+        if (state == null || !state.markRegistryTransferStarted()) {
+            return;
+        }
+
+        // Read the revision first, anything changed after it reaches the client as a live update
+        long revision = registry.getRevision();
+        if (packet.getRevision() > 0 && registry.canServeDelta(packet.getEpoch(), packet.getRevision())) {
+            beginRegistryTransfer(player, state, registry.changesSince(packet.getRevision(), revision, true),
+                    revision, false);
+        } else if (packet.hasSavedState()) {
+            // The client drives the rest with reconcile requests
+            state.setRegistryTransfer(Collections.emptyList(), revision, false);
+            state.setReconciling(true);
+            List<S2CRegistryHashesPacket.NodeHash> hashes = new ArrayList<>();
+            registry.getDimensionHashes().forEach((dimension, hash) ->
+                    hashes.add(new S2CRegistryHashesPacket.NodeHash(dimension.toString(), 0, 0, hash)));
+            sendRegistryHashes(player, S2CRegistryHashesPacket.Level.DIMENSION, hashes);
+            XaeroSync.LOGGER.info("Reconciling registry with {} at revision {}", player.getName().getString(), revision);
+        } else {
+            RegistryListing listing = getRegistryEntries();
+            beginRegistryTransfer(player, state, new ArrayList<>(listing.changes()), listing.revision(), true);
+        }
+    }
+
+    /**
+     * Handle the next reconciliation step from the client: reply with the child hashes of the
+     * nodes it found different, or send the entries of the regions that differ.
+     */
+    public void handleRegistryReconcile(ServerPlayer player, C2SRegistryReconcilePacket packet) {
+        PlayerSyncState state = playerStates.get(player.getUUID());
+        if (state == null || !state.isReconciling()) {
+            return;
+        }
+
+        switch (packet.getRequest()) {
+            case GROUP_HASHES -> {
+                List<S2CRegistryHashesPacket.NodeHash> hashes = new ArrayList<>();
+                for (C2SRegistryReconcilePacket.Node node : packet.getNodes()) {
+                    ResourceLocation dimension = ResourceLocation.tryParse(node.dimension());
+                    if (dimension == null) continue;
+                    registry.getGroupHashes(dimension).forEach((key, hash) -> hashes.add(new S2CRegistryHashesPacket.NodeHash(
+                            node.dimension(), ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), hash)));
+                }
+                sendRegistryHashes(player, S2CRegistryHashesPacket.Level.GROUP, hashes);
+            }
+            case REGION_HASHES -> {
+                List<S2CRegistryHashesPacket.NodeHash> hashes = new ArrayList<>();
+                for (C2SRegistryReconcilePacket.Node node : packet.getNodes()) {
+                    ResourceLocation dimension = ResourceLocation.tryParse(node.dimension());
+                    if (dimension == null) continue;
+                    long groupKey = ChunkCoord.pack(node.x(), node.z());
+                    registry.getRegionHashes(dimension, groupKey).forEach((key, hash) -> hashes.add(new S2CRegistryHashesPacket.NodeHash(
+                            node.dimension(), ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), hash)));
+                }
+                sendRegistryHashes(player, S2CRegistryHashesPacket.Level.REGION, hashes);
+            }
+            case ENTRIES -> {
+                Map<ResourceLocation, Set<Long>> regionsByDimension = new HashMap<>();
+                for (C2SRegistryReconcilePacket.Node node : packet.getNodes()) {
+                    ResourceLocation dimension = ResourceLocation.tryParse(node.dimension());
+                    if (dimension == null) continue;
+                    regionsByDimension.computeIfAbsent(dimension, dim -> new HashSet<>())
+                            .add(ChunkCoord.pack(node.x(), node.z()));
+                }
+                List<ChunkRegistry.Change> changes = new ArrayList<>();
+                regionsByDimension.forEach((dimension, regions) ->
+                        changes.addAll(registry.entriesInRegions(dimension, regions)));
+
+                state.setReconciling(false);
+                XaeroSync.LOGGER.info("Registry reconciliation with {} found {} differing regions",
+                        player.getName().getString(), packet.getNodes().size());
+                beginRegistryTransfer(player, state, changes, state.getRegistryTransferRevision(), false);
+            }
+            case FULL -> {
+                state.setReconciling(false);
+                RegistryListing listing = getRegistryEntries();
+                beginRegistryTransfer(player, state, new ArrayList<>(listing.changes()), listing.revision(), true);
+            }
+        }
+    }
+
+    private void sendRegistryHashes(ServerPlayer player, S2CRegistryHashesPacket.Level level,
+                                    List<S2CRegistryHashesPacket.NodeHash> hashes) {
+        int start = 0;
+        do {
+            int end = Math.min(start + MAX_HASHES_PER_PACKET, hashes.size());
+            S2CRegistryHashesPacket packet = new S2CRegistryHashesPacket(
+                    level, new ArrayList<>(hashes.subList(start, end)), end >= hashes.size());
+            XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
+            start = end;
+        } while (start < hashes.size());
+    }
+
+    /**
+     * Start sending a list of registry entries. The list becomes the player's own and is
+     * re-ordered as they move, so it must not be shared.
+     */
+    private void beginRegistryTransfer(ServerPlayer player, PlayerSyncState state,
+                                       List<ChunkRegistry.Change> changes, long revision, boolean full) {
         int batchSize = Config.SERVER_REGISTRY_BATCH_SIZE.get();
-        int totalBatches = (int) Math.ceil((double) entries.size() / batchSize);
+        ChunkCoord center = playerPosition(player);
+        sortByDistance(changes, 0, center);
+        state.setRegistryTransferCenter(center);
+        state.setRegistryTransfer(changes, revision, full);
+        state.setTotalRegistryBatches((changes.size() + batchSize - 1) / batchSize);
 
-        state.setTotalRegistryBatches(totalBatches);
-        state.setLastRegistryTickTime(System.currentTimeMillis());
+        XaeroSync.LOGGER.info("Starting {} registry transfer to {}: {} entries up to revision {}",
+                full ? "full" : "delta", player.getName().getString(), changes.size(), revision);
 
-        if (entries.isEmpty()) {
-            // No chunks to send, mark complete immediately
+        if (changes.isEmpty()) {
+            // Nothing to send, mark complete immediately
             state.setRegistryTransferComplete(true);
-            sendEmptyRegistryPacket(player);
+            sendEmptyRegistryPacket(player, revision, full);
         }
     }
 
     private void sendNextRegistryBatch(ServerPlayer player, PlayerSyncState state) {
-        List<Map.Entry<ChunkCoord, Long>> entries = getRegistryEntries();
+        List<ChunkRegistry.Change> changes = state.getRegistryTransfer();
         int batchSize = Config.SERVER_REGISTRY_BATCH_SIZE.get();
         int batchIndex = state.getRegistryBatchesSent();
         int start = batchIndex * batchSize;
 
-        if (start >= entries.size()) {
+        if (start >= changes.size()) {
             state.setRegistryTransferComplete(true);
             return;
         }
 
-        int end = Math.min(start + batchSize, entries.size());
+        // Keep the chunks around the player first if they moved far or changed dimension
+        ChunkCoord position = playerPosition(player);
+        ChunkCoord center = state.getRegistryTransferCenter();
+        if (center == null || ringDistance(center, position) > REGISTRY_RECENTER_DISTANCE) {
+            sortByDistance(changes, start, position);
+            state.setRegistryTransferCenter(position);
+        }
+
+        int end = Math.min(start + batchSize, changes.size());
         List<S2CRegistryChunkPacket.ChunkEntry> batch = new ArrayList<>();
 
         for (int i = start; i < end; i++) {
-            Map.Entry<ChunkCoord, Long> entry = entries.get(i);
-            ChunkCoord coord = entry.getKey();
+            ChunkRegistry.Change change = changes.get(i);
+            ChunkCoord coord = change.coord();
             batch.add(new S2CRegistryChunkPacket.ChunkEntry(
                     coord.dimension().toString(),
                     coord.x(),
                     coord.z(),
-                    entry.getValue()
+                    change.timestamp(),
+                    change.removed()
             ));
         }
 
-        boolean isLast = end >= entries.size();
+        boolean isLast = end >= changes.size();
         S2CRegistryChunkPacket packet = new S2CRegistryChunkPacket(
-                batch, isLast, batchIndex, state.getTotalRegistryBatches()
+                batch, isLast, batchIndex, state.getTotalRegistryBatches(),
+                state.isFullRegistryTransfer(), state.getRegistryTransferRevision()
         );
 
         XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
@@ -250,22 +512,27 @@ public class ServerSyncManager {
         }
     }
 
-    private void sendEmptyRegistryPacket(ServerPlayer player) {
+    private void sendEmptyRegistryPacket(ServerPlayer player, long revision, boolean full) {
         S2CRegistryChunkPacket packet = new S2CRegistryChunkPacket(
-                Collections.emptyList(), true, 0, 0
+                Collections.emptyList(), true, 0, 0, full, revision
         );
         XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
     }
 
-    private List<Map.Entry<ChunkCoord, Long>> getRegistryEntries() {
+    private RegistryListing getRegistryEntries() {
         long now = System.currentTimeMillis();
-        List<Map.Entry<ChunkCoord, Long>> cached = cachedRegistryEntries;
+        RegistryListing cached = cachedRegistryEntries;
         if (cached == null || now - lastRegistryCacheTime > REGISTRY_CACHE_TTL_MS) {
             synchronized (this) {
                 // Double-check inside synchronized block
                 cached = cachedRegistryEntries;
                 if (cached == null || now - lastRegistryCacheTime > REGISTRY_CACHE_TTL_MS) {
-                    cachedRegistryEntries = new ArrayList<>(registry.snapshot().entrySet());
+                    long revision = registry.getRevision();
+                    // Full listings have no removals, so they can be sent in spatial order,
+                    // which keeps the coordinate deltas in each batch small
+                    List<ChunkRegistry.Change> changes = registry.changesSince(-1, Long.MAX_VALUE, false);
+                    changes.sort(Comparator.comparing(ChunkRegistry.Change::coord, ChunkCoord.MORTON_ORDER));
+                    cachedRegistryEntries = new RegistryListing(changes, revision);
                     lastRegistryCacheTime = now;
                     cached = cachedRegistryEntries;
                 }
@@ -274,6 +541,62 @@ public class ServerSyncManager {
         return cached;
     }
 
+    @Nullable
+    private static Channel getChannel(ServerPlayer player) {
+        if (player.connection == null || player.connection.connection == null) {
+            return null; // Fake players have no connection
+        }
+        return player.connection.connection.channel();
+    }
+
+    private static ChunkCoord playerPosition(ServerPlayer player) {
+        return ChunkCoord.fromBlockPos(player.level().dimension().location(), player.getBlockX(), player.getBlockZ());
+    }
+
+    /**
+     * Chebyshev distance in tile chunks, or Integer.MAX_VALUE across dimensions.
+     */
+    private static long ringDistance(ChunkCoord a, ChunkCoord b) {
+        if (!a.dimension().equals(b.dimension())) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.min(Integer.MAX_VALUE - 1,
+                Math.max(Math.abs((long) a.x() - b.x()), Math.abs((long) a.z() - b.z())));
+    }
+
+    /**
+     * Sort changes[from..] by ring distance from a center, nearest first, with other
+     * dimensions last. Ties keep their previous order, so a removal still precedes a
+     * later re-add of the same chunk.
+     */
+    private static void sortByDistance(List<ChunkRegistry.Change> changes, int from, ChunkCoord center) {
+        int count = changes.size() - from;
+        if (count <= 1) {
+            return;
+        }
+
+        // Distance in the high half, original position in the low half, so a primitive sort is stable
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (ringDistance(center, changes.get(from + i).coord()) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        List<ChunkRegistry.Change> sorted = new ArrayList<>(count);
+        for (long key : keys) {
+            sorted.add(changes.get(from + (int) key));
+        }
+        for (int i = 0; i < count; i++) {
+            changes.set(from + i, sorted.get(i));
+        }
+    }
+
+    /**
+     * Full registry listing and the revision it is complete up to.
+     */
+    private record RegistryListing(List<ChunkRegistry.Change> changes, long revision) {
+    }
+
     // ==================== Chunk Download ====================
 
     /**
@@ -283,6 +606,7 @@ public class ServerSyncManager {
         PlayerSyncState state = playerStates.get(player.getUUID());
         if (state == null) return;
 
+        List<C2SRequestChunksPacket.ChunkRequest> rejected = new ArrayList<>();
         for (C2SRequestChunksPacket.ChunkRequest request : packet.getRequests()) {
             ResourceLocation dim = ResourceLocation.tryParse(request.dimension());
             if (dim == null) continue;
@@ -290,26 +614,94 @@ public class ServerSyncManager {
             if (!Config.isDimensionAllowed(dim.toString())) continue;
 
             ChunkCoord coord = new ChunkCoord(dim, request.x(), request.z());
-            state.queueDownload(coord);
+            if (!state.queueDownload(coord, request.sinceTimestamp())) {
+                rejected.add(request);
+            }
+        }
+
+        if (!rejected.isEmpty()) {
+            // Roughly the time for the queue to drain at the player's download rate
+            long drainMs = 1000L * state.getPendingDownloadCount() / Config.SERVER_MAX_DOWNLOAD_PER_SECOND.get();
+            int retryAfterMs = (int) Math.max(MIN_DOWNLOAD_RETRY_MS, Math.min(MAX_DOWNLOAD_RETRY_MS, drainMs));
+            XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player),
+                    new S2CDownloadQueueFullPacket(rejected, retryAfterMs));
         }
     }
 
-    private void sendChunkData(ServerPlayer player, ChunkCoord coord) {
-        ServerSyncStorage.ChunkData chunkData = storage.readChunk(coord);
-        if (chunkData == null) {
-            XaeroSync.LOGGER.warn("Requested chunk {} not found in storage", coord);
-            return;
+    /**
+     * Read chunks on the I/O executor and send them, batched per dimension, once the reads complete.
+     * Clients that already have an older copy only get the tiles changed since.
+     * The bytes sent are charged to the player's and the server's bandwidth budgets.
+     */
+    private void sendChunkData(UUID playerId, PlayerSyncState state, List<ChunkCoord> coords) {
+        long[] bases = new long[coords.size()];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = state.takeDownloadBase(coords.get(i));
         }
 
-        S2CChunkDataPacket packet = new S2CChunkDataPacket(
-                coord.dimension().toString(),
-                coord.x(),
-                coord.z(),
-                chunkData.metadata().timestamp(),
-                chunkData.data()
-        );
+        boolean queued = storageExecutor.submit(() -> {
+            Map<ResourceLocation, List<S2CChunkDataBatchPacket.ChunkEntry>> byDimension = new LinkedHashMap<>();
+            for (int i = 0; i < bases.length; i++) {
+                ChunkCoord coord = coords.get(i);
+                ChunkStorage.ChunkData chunkData = storage.readChunk(coord);
+                if (chunkData == null) {
+                    XaeroSync.LOGGER.warn("Requested chunk {} not found in storage", coord);
+                    continue;
+                }
+                long timestamp = chunkData.metadata().timestamp();
+                byDimension.computeIfAbsent(coord.dimension(), dim -> new ArrayList<>())
+                        .add(new S2CChunkDataBatchPacket.ChunkEntry(
+                                coord.x(), coord.z(), timestamp, tilesSince(chunkData.data(), bases[i], timestamp)));
+            }
+            return byDimension;
+        }, byDimension -> {
+            state.markDownloadReadFinished();
+            if (byDimension == null) {
+                return;
+            }
 
-        XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
+            ServerPlayer player = server.getPlayerList().getPlayer(playerId);
+            if (player == null) {
+                return; // Disconnected while the reads were in flight
+            }
+            // The chunks may refer to palette entries assigned while they were read
+            announcePalette(player, state);
+
+            long bytes = 0;
+            for (Map.Entry<ResourceLocation, List<S2CChunkDataBatchPacket.ChunkEntry>> entry : byDimension.entrySet()) {
+                for (S2CChunkDataBatchPacket.ChunkEntry chunk : entry.getValue()) {
+                    bytes += chunk.data().length;
+                }
+                String dimension = entry.getKey().toString();
+                for (S2CChunkDataBatchPacket packet : S2CChunkDataBatchPacket.split(dimension, entry.getValue())) {
+                    XaeroSyncNetworking.CHANNEL.send(PacketDistributor.PLAYER.with(() -> player), packet);
+                }
+            }
+            state.chargeDownloadBytes(bytes);
+            totalByteLimiter.consume(bytes);
+        });
+
+        if (!queued) {
+            state.markDownloadReadFinished();
+            for (int i = 0; i < bases.length; i++) {
+                state.requeueDownload(coords.get(i), bases[i]);
+            }
+        }
+    }
+
+    /**
+     * The part of a stored chunk changed after a time, or all of it if it can't be split into tiles.
+     */
+    private byte[] tilesSince(byte[] data, long since, long timestamp) {
+        if (since <= 0) {
+            return data;
+        }
+        TileSections sections = TileSections.fromCompressed(data, chunkCodec);
+        if (sections == null) {
+            return data;
+        }
+        TileSections changed = sections.newerThan(since, timestamp);
+        return changed.getTileMask() == sections.getTileMask() ? data : changed.toCompressed(chunkCodec);
     }
 
     // ==================== Chunk Upload ====================
@@ -329,8 +721,13 @@ public class ServerSyncManager {
             return;
         }
 
-        // Check rate limit
-        if (state != null && !state.canUpload()) {
+        // Check rate limit, by chunk count and by bytes for this player and for the whole server.
+        // Hash probes carry no data and are followed by the real upload, so they aren't counted.
+        // Bytes are charged once the upload passes validation and its write is queued.
+        int uploadBytes = packet.getData().length;
+        boolean probe = packet.isProbe();
+        if (!totalByteLimiter.canAcquire(uploadBytes)
+                || (state != null && !probe && !state.canUpload(uploadBytes))) {
             sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.REJECTED_RATE_LIMITED, null);
             return;
         }
@@ -353,17 +750,31 @@ public class ServerSyncManager {
             return;
         }
 
+        // Other players couldn't read data compressed in a way we don't know
+        if (!probe && !chunkCodec.canDecode(packet.getData())) {
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.REJECTED_INVALID_DATA,
+                    "Unknown compression");
+            return;
+        }
+
         ChunkCoord coord = new ChunkCoord(dim, x, z);
 
+        // Nothing to store or broadcast if we already hold exactly this content
+        long contentHash = packet.getContentHash();
+        Optional<ChunkMetadata> existingMetadata = registry.getMetadata(coord);
+        if (existingMetadata.isPresent() && ContentHash.matches(existingMetadata.get().contentHash(), contentHash)) {
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.UNCHANGED, null);
+            return;
+        }
+
         // Validate and sanitize timestamp
         long timestamp = TimestampValidator.sanitize(packet.getTimestamp());
         long now = System.currentTimeMillis();
         long minIntervalMs = Config.SERVER_MIN_UPDATE_INTERVAL_MINUTES.get() * 60 * 1000L;
 
         // Check if we have existing data
-        Optional<Long> existingTimestamp = registry.getTimestamp(coord);
-        if (existingTimestamp.isPresent()) {
-            long existing = existingTimestamp.get();
+        if (existingMetadata.isPresent()) {
+            long existing = existingMetadata.get().timestamp();
 
             // Reject if server already has newer or equal data
             if (existing >= timestamp) {
@@ -381,24 +792,118 @@ public class ServerSyncManager {
             }
         }
 
-        // Store the chunk
-        boolean success = storage.writeChunk(coord, player.getUUID(), timestamp, packet.getData());
-        if (!success) {
-            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.REJECTED_ERROR, "Storage error");
+        // The content is new to us, ask for it. A delta needs a stored copy to be merged into.
+        boolean delta = packet.isDelta();
+        if (probe || (delta && existingMetadata.isEmpty())) {
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.NEED_DATA, null);
             return;
         }
 
-        // Update registry
-        registry.put(coord, timestamp);
-        invalidateRegistryCache();
+        // Only one write per chunk at a time
+        if (!pendingWrites.add(coord)) {
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.REJECTED_RATE_LIMITED,
+                    "Chunk write in progress");
+            return;
+        }
 
-        // Send success response
-        sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.ACCEPTED, null);
+        // Store the chunk in the background
+        UUID contributor = player.getUUID();
+        byte[] data = packet.getData();
+        boolean queued = storageExecutor.submit(() -> {
+            TileSections uploaded = TileSections.fromCompressed(data, chunkCodec);
+            if (uploaded == null || uploaded.getChunkX() != x || uploaded.getChunkZ() != z) {
+                return WriteOutcome.INVALID;
+            }
 
-        // Broadcast registry update to all other players
-        broadcastRegistryUpdate(player.getUUID(), coord, timestamp);
+            // Palette entries the client had no ID for are given one, so other players download only IDs
+            TileSections sections;
+            try {
+                sections = palette.intern(uploaded);
+                if (delta) {
+                    ChunkStorage.ChunkData base = storage.readChunk(coord);
+                    TileSections merged = base != null ? TileSections.fromCompressed(base.data(), chunkCodec) : null;
+                    if (merged == null) {
+                        return WriteOutcome.NEED_FULL; // Gone, or stored in a format without tiles
+                    }
+                    merged = palette.intern(merged);
+                    if (merged.getVersion() != sections.getVersion()) {
+                        return WriteOutcome.NEED_FULL; // Stored with an older block layout
+                    }
+                    merged.merge(sections, base.metadata().timestamp(), timestamp);
+                    sections = merged;
+                }
+            } catch (IOException e) {
+                return WriteOutcome.INVALID;
+            }
 
-        XaeroSync.LOGGER.debug("Chunk {} uploaded by {}", coord, player.getName().getString());
+            // Stored as uploaded unless it had to be rewritten, under the hash the client claimed
+            // only if it matches what was sent
+            byte[] stored = data;
+            long storedHash = contentHash;
+            if (sections == uploaded && uploaded.contentHash() != contentHash) {
+                return WriteOutcome.INVALID;
+            }
+            if (sections != uploaded) {
+                stored = sections.toCompressed(chunkCodec);
+                storedHash = sections.contentHash();
+                if (stored.length > Config.SERVER_MAX_CHUNK_DATA_SIZE.get()) {
+                    return WriteOutcome.TOO_LARGE;
+                }
+            }
+
+            if (!storage.writeChunk(coord, contributor, timestamp, storedHash, stored)) {
+                return WriteOutcome.FAILED;
+            }
+            // Registry is updated on the I/O thread so writes drained during shutdown are still indexed
+            ChunkMetadata metadata = new ChunkMetadata(contributor, timestamp, storedHash);
+            registryIndex.put(coord, metadata);
+            return WriteOutcome.STORED;
+        }, outcome -> {
+            pendingWrites.remove(coord);
+            if (outcome != WriteOutcome.STORED) {
+                S2CUploadResultPacket.Result result = switch (outcome == null ? WriteOutcome.FAILED : outcome) {
+                    case NEED_FULL -> S2CUploadResultPacket.Result.NEED_DATA;
+                    case INVALID -> S2CUploadResultPacket.Result.REJECTED_INVALID_DATA;
+                    case TOO_LARGE -> S2CUploadResultPacket.Result.REJECTED_DATA_TOO_LARGE;
+                    default -> S2CUploadResultPacket.Result.REJECTED_ERROR;
+                };
+                sendUploadResult(player, dimension, x, z, result, result == S2CUploadResultPacket.Result.REJECTED_ERROR
+                        ? "Storage error" : null);
+                return;
+            }
+            invalidateRegistryCache();
+            maybeTrainDictionary();
+
+            // Send success response
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.ACCEPTED, null);
+
+            // Broadcast registry update to all other players
+            broadcastRegistryUpdate(contributor, coord, timestamp);
+
+            XaeroSync.LOGGER.debug("Chunk {} uploaded by {}", coord, player.getName().getString());
+        });
+
+        if (!queued) {
+            // Storage queue is saturated, have the client retry later
+            pendingWrites.remove(coord);
+            sendUploadResult(player, dimension, x, z, S2CUploadResultPacket.Result.REJECTED_RATE_LIMITED, "Server busy");
+            return;
+        }
+        totalByteLimiter.consume(uploadBytes);
+        if (state != null) {
+            state.chargeUploadBytes(uploadBytes);
+        }
+    }
+
+    /**
+     * Result of storing an upload on the I/O executor.
+     */
+    private enum WriteOutcome {
+        STORED,
+        NEED_FULL,
+        INVALID,
+        TOO_LARGE,
+        FAILED
     }
 
     private void sendUploadResult(ServerPlayer player, String dimension, int x, int z,
@@ -433,6 +938,39 @@ public class ServerSyncManager {
         XaeroSync.LOGGER.debug("Broadcast registry update for {} to {} other players", coord, sentCount);
     }
 
+    /**
+     * Delete a chunk from storage and the registry in the background, like an upload's write,
+     * and pass whether it was deleted to a callback on the server thread.
+     * Returns false without deleting anything if a write to the chunk is in progress or the
+     * storage queue is full.
+     */
+    public boolean deleteChunk(ChunkCoord coord, Consumer<Boolean> onComplete) {
+        // Shares the per-chunk write slot, so the registry can't end up listing a chunk storage lost
+        if (!pendingWrites.add(coord)) {
+            return false;
+        }
+
+        boolean queued = storageExecutor.submit(() -> {
+            if (!storage.deleteChunk(coord)) {
+                return false;
+            }
+            registryIndex.remove(coord);
+            return true;
+        }, deleted -> {
+            pendingWrites.remove(coord);
+            boolean success = Boolean.TRUE.equals(deleted);
+            if (success) {
+                invalidateRegistryCache();
+            }
+            onComplete.accept(success);
+        });
+
+        if (!queued) {
+            pendingWrites.remove(coord);
+        }
+        return queued;
+    }
+
     private void invalidateRegistryCache() {
         cachedRegistryEntries = null;
         lastRegistryCacheTime = 0;
@@ -457,7 +995,15 @@ public class ServerSyncManager {
         return registry;
     }
 
-    public ServerSyncStorage getStorage() {
+    public ChunkStorage getStorage() {
         return storage;
     }
+
+    public CachingChunkStorage.CacheStats getCacheStats() {
+        return storage.getStats();
+    }
+
+    public StorageExecutor getStorageExecutor() {
+        return storageExecutor;
+    }
 }
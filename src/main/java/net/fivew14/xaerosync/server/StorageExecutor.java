@@ -0,0 +1,113 @@
+package net.fivew14.xaerosync.server;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs chunk storage reads and writes off the server thread.
+ * <p>
+ * Tasks run on a small fixed pool backed by a bounded queue. Completion callbacks are
+ * handed back to the server thread, so they can send packets and touch player state
+ * without extra synchronization. When the queue is full, {@link #submit} refuses the
+ * task instead of blocking, and callers decide how to push back on the client.
+ */
+public class StorageExecutor {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final MinecraftServer server;
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+
+    public StorageExecutor(MinecraftServer server, int threads, int queueCapacity) {
+        this.server = server;
+        this.queueCapacity = queueCapacity;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "XaeroSync-IO-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Run a storage task in the background and pass its result to a callback on the server thread.
+     * If the task throws, the error is logged and the callback receives null.
+     * Returns false without running anything if the queue is full.
+     */
+    public <T> boolean submit(Supplier<T> task, Consumer<T> onComplete) {
+        try {
+            executor.execute(() -> {
+                T result = null;
+                try {
+                    result = task.get();
+                } catch (Exception e) {
+                    XaeroSync.LOGGER.error("Storage task failed", e);
+                }
+                T finalResult = result;
+                server.execute(() -> onComplete.accept(finalResult));
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a task can be queued right now.
+     */
+    public boolean hasCapacity() {
+        return !executor.isShutdown() && executor.getQueue().remainingCapacity() > 0;
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of tasks currently running.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Stop accepting tasks and wait for queued ones to finish, so no write is lost.
+     * Callbacks of tasks finishing during shutdown may never run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                XaeroSync.LOGGER.warn("Storage I/O did not finish within {}s, {} tasks abandoned",
+                        SHUTDOWN_TIMEOUT_SECONDS, executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package net.fivew14.xaerosync.server;
 
 import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.networking.packets.C2SRegistryReconcilePacket;
+import net.fivew14.xaerosync.networking.packets.C2SRegistryRequestPacket;
 import net.fivew14.xaerosync.networking.packets.C2SRequestChunksPacket;
 import net.fivew14.xaerosync.networking.packets.C2SUploadChunkPacket;
 import net.fivew14.xaerosync.server.commands.XaeroSyncCommands;
@@ -112,4 +114,32 @@ public class XaeroSyncServer {
             manager.handleChunkUpload(player, packet);
         }
     }
+
+    /**
+     * Handle registry request packet from client.
+     * Called from the packet handler.
+     */
+    public static void handleRegistryRequest(C2SRegistryRequestPacket packet, NetworkEvent.Context ctx) {
+        ServerPlayer player = ctx.getSender();
+        if (player == null) return;
+
+        ServerSyncManager manager = ServerSyncManager.getInstance();
+        if (manager != null) {
+            manager.handleRegistryRequest(player, packet);
+        }
+    }
+
+    /**
+     * Handle registry reconcile packet from client.
+     * Called from the packet handler.
+     */
+    public static void handleRegistryReconcile(C2SRegistryReconcilePacket packet, NetworkEvent.Context ctx) {
+        ServerPlayer player = ctx.getSender();
+        if (player == null) return;
+
+        ServerSyncManager manager = ServerSyncManager.getInstance();
+        if (manager != null) {
+            manager.handleRegistryReconcile(player, packet);
+        }
+    }
 }
@@ -8,8 +8,10 @@ import net.fivew14.xaerosync.Config;
 import net.fivew14.xaerosync.common.ChunkCoord;
 import net.fivew14.xaerosync.common.ChunkMetadata;
 import net.fivew14.xaerosync.server.ServerSyncManager;
+import net.fivew14.xaerosync.server.StorageExecutor;
+import net.fivew14.xaerosync.server.storage.CachingChunkStorage;
 import net.fivew14.xaerosync.server.storage.ChunkRegistry;
-import net.fivew14.xaerosync.server.storage.ServerSyncStorage;
+import net.fivew14.xaerosync.server.storage.ChunkStorage;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.commands.arguments.EntityArgument;
@@ -80,8 +82,11 @@ public class XaeroSyncCommands {
 
         // Count dimensions
         Map<ResourceLocation, Integer> dimCounts = new HashMap<>();
-        for (ChunkCoord coord : registry.snapshot().keySet()) {
-            dimCounts.merge(coord.dimension(), 1, Integer::sum);
+        for (ResourceLocation dimension : registry.getDimensions()) {
+            int count = registry.size(dimension);
+            if (count > 0) {
+                dimCounts.put(dimension, count);
+            }
         }
 
         if (!dimCounts.isEmpty()) {
@@ -112,19 +117,19 @@ public class XaeroSyncCommands {
         }
 
         ChunkRegistry registry = manager.getRegistry();
-        ServerSyncStorage storage = manager.getStorage();
+        ChunkStorage storage = manager.getStorage();
 
         source.sendSuccess(() -> Component.literal("=== XaeroSync Statistics ==="), false);
         source.sendSuccess(() -> Component.literal("Registry Size: " + registry.size() + " chunks"), false);
 
         // Find oldest and newest chunks
-        long oldest = Long.MAX_VALUE;
-        long newest = Long.MIN_VALUE;
-
-        for (Long timestamp : registry.snapshot().values()) {
-            if (timestamp < oldest) oldest = timestamp;
-            if (timestamp > newest) newest = timestamp;
-        }
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        registry.forEachPrimitive((dimension, x, z, timestamp, contributor, revision, contentHash) -> {
+            if (timestamp < range[0]) range[0] = timestamp;
+            if (timestamp > range[1]) range[1] = timestamp;
+        });
+        long oldest = range[0];
+        long newest = range[1];
 
         if (oldest != Long.MAX_VALUE) {
             final String oldestStr = DATE_FORMAT.format(new Date(oldest));
@@ -149,6 +154,28 @@ public class XaeroSyncCommands {
             source.sendSuccess(() -> Component.literal("Dimension Blacklist: " + String.join(", ", blacklist)), false);
         }
 
+        // Storage I/O
+        StorageExecutor executor = manager.getStorageExecutor();
+        source.sendSuccess(() -> Component.literal("--- Storage I/O ---"), false);
+        source.sendSuccess(() -> Component.literal("I/O Threads: " + executor.getActiveCount() + "/" + executor.getThreadCount() + " busy"), false);
+        source.sendSuccess(() -> Component.literal("I/O Queue: " + executor.getQueuedCount() + "/" + executor.getQueueCapacity()), false);
+
+        long acquisitions = storage.getLockAcquisitions();
+        long contentions = storage.getLockContentions();
+        final String contentionStr = acquisitions > 0
+                ? String.format("%d/%d (%.2f%%)", contentions, acquisitions, contentions * 100.0 / acquisitions)
+                : "0/0";
+        source.sendSuccess(() -> Component.literal("Lock Contention: " + contentionStr), false);
+
+        // Chunk cache
+        CachingChunkStorage.CacheStats cache = manager.getCacheStats();
+        source.sendSuccess(() -> Component.literal("--- Chunk Cache ---"), false);
+        source.sendSuccess(() -> Component.literal(String.format("Cache Size: %d chunks, %.1f/%.1f MB",
+                cache.entries(), cache.sizeBytes() / 1048576.0, cache.capacityBytes() / 1048576.0)), false);
+        source.sendSuccess(() -> Component.literal(String.format("Cache Hits: %d, Misses: %d (%.1f%% hit rate)",
+                cache.hits(), cache.misses(), cache.hitRate() * 100)), false);
+        source.sendSuccess(() -> Component.literal("Cache Evictions: " + cache.evictions()), false);
+
         return 1;
     }
 
@@ -207,7 +234,7 @@ public class XaeroSyncCommands {
 
         ChunkCoord coord = new ChunkCoord(dimension, x, z);
         ChunkRegistry registry = manager.getRegistry();
-        ServerSyncStorage storage = manager.getStorage();
+        ChunkStorage storage = manager.getStorage();
 
         Optional<Long> timestamp = registry.getTimestamp(coord);
 
@@ -223,7 +250,7 @@ public class XaeroSyncCommands {
         source.sendSuccess(() -> Component.literal("Timestamp (raw): " + timestamp.get()), false);
 
         // Try to read chunk data for more info
-        ServerSyncStorage.ChunkData chunkData = storage.readChunk(coord);
+        ChunkStorage.ChunkData chunkData = storage.readChunk(coord);
         if (chunkData != null) {
             ChunkMetadata metadata = chunkData.metadata();
             final String contributorStr = metadata.contributor().toString();
@@ -259,23 +286,24 @@ public class XaeroSyncCommands {
 
         ChunkCoord coord = new ChunkCoord(dimension, x, z);
         ChunkRegistry registry = manager.getRegistry();
-        ServerSyncStorage storage = manager.getStorage();
 
         if (registry.getTimestamp(coord).isEmpty()) {
             source.sendFailure(Component.literal("Chunk not found in registry: " + coord));
             return 0;
         }
 
-        // Delete from storage
-        boolean deleted = storage.deleteChunk(coord);
-        if (deleted) {
-            // Remove from registry
-            registry.remove(coord);
-            source.sendSuccess(() -> Component.literal("Deleted chunk: " + coord), true);
-            return 1;
-        } else {
-            source.sendFailure(Component.literal("Failed to delete chunk: " + coord));
+        // Delete from storage and registry, after any write to the chunk
+        boolean queued = manager.deleteChunk(coord, deleted -> {
+            if (deleted) {
+                source.sendSuccess(() -> Component.literal("Deleted chunk: " + coord), true);
+            } else {
+                source.sendFailure(Component.literal("Failed to delete chunk: " + coord));
+            }
+        });
+        if (!queued) {
+            source.sendFailure(Component.literal("Chunk is being written or storage is busy, try again: " + coord));
             return 0;
         }
+        return 1;
     }
 }
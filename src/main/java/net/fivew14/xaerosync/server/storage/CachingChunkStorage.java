@@ -0,0 +1,208 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Byte-bounded LRU cache of chunk data in front of another storage backend.
+ * <p>
+ * Popular chunks (spawn, bases) are requested by every joining player, so serving them
+ * from memory saves a disk read each time. Entries are added on read misses and on
+ * writes, and dropped on delete. A capacity of 0 disables caching entirely.
+ * <p>
+ * A read miss only fills the cache if no write or delete happened while it was reading
+ * from disk, so a slow read can never put stale data back after an update.
+ */
+public class CachingChunkStorage implements ChunkStorage {
+
+    // Rough per-entry cost of the map entry, key and ChunkData on top of the payload
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final ChunkStorage delegate;
+    private final long capacityBytes;
+
+    // Access-ordered so the eldest entry is the least recently used chunk
+    private final LinkedHashMap<ChunkCoord, ChunkData> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+    private long modifications = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public CachingChunkStorage(ChunkStorage delegate, long capacityBytes) {
+        this.delegate = delegate;
+        this.capacityBytes = capacityBytes;
+    }
+
+    @Override
+    public void initialize() throws IOException {
+        delegate.initialize();
+    }
+
+    @Override
+    public Path getStorageRoot() {
+        return delegate.getStorageRoot();
+    }
+
+    @Override
+    public boolean exists(ChunkCoord coord) {
+        synchronized (this) {
+            if (entries.containsKey(coord)) {
+                return true;
+            }
+        }
+        return delegate.exists(coord);
+    }
+
+    @Override
+    public Optional<ChunkMetadata> readMetadata(ChunkCoord coord) {
+        synchronized (this) {
+            ChunkData cached = entries.get(coord);
+            if (cached != null) {
+                return Optional.of(cached.metadata());
+            }
+        }
+        return delegate.readMetadata(coord);
+    }
+
+    @Nullable
+    @Override
+    public ChunkData readChunk(ChunkCoord coord) {
+        long modificationsBefore;
+        synchronized (this) {
+            ChunkData cached = entries.get(coord);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            modificationsBefore = modifications;
+        }
+
+        ChunkData chunkData = delegate.readChunk(coord);
+        if (chunkData != null) {
+            synchronized (this) {
+                if (modifications == modificationsBefore) {
+                    insert(coord, chunkData);
+                }
+            }
+        }
+        return chunkData;
+    }
+
+    @Override
+    public boolean writeChunk(ChunkCoord coord, UUID contributor, long timestamp, long contentHash, byte[] data) {
+        synchronized (this) {
+            modifications++;
+            remove(coord);
+        }
+
+        boolean success = delegate.writeChunk(coord, contributor, timestamp, contentHash, data);
+        if (success) {
+            synchronized (this) {
+                modifications++;
+                insert(coord, new ChunkData(new ChunkMetadata(contributor, timestamp, contentHash), data));
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public boolean deleteChunk(ChunkCoord coord) {
+        synchronized (this) {
+            modifications++;
+            remove(coord);
+        }
+        return delegate.deleteChunk(coord);
+    }
+
+    @Override
+    public void scanIntoRegistry(ChunkRegistry registry) {
+        delegate.scanIntoRegistry(registry);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            entries.clear();
+            sizeBytes = 0;
+        }
+        delegate.close();
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return delegate.getLockAcquisitions();
+    }
+
+    @Override
+    public long getLockContentions() {
+        return delegate.getLockContentions();
+    }
+
+    // ==================== Cache ====================
+
+    private static long costOf(ChunkData chunkData) {
+        return chunkData.data().length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Add an entry and evict least recently used entries until the cache fits.
+     * Must be called while holding the monitor.
+     */
+    private void insert(ChunkCoord coord, ChunkData chunkData) {
+        long cost = costOf(chunkData);
+        if (cost > capacityBytes) {
+            return;
+        }
+
+        ChunkData previous = entries.put(coord, chunkData);
+        if (previous != null) {
+            sizeBytes -= costOf(previous);
+        }
+        sizeBytes += cost;
+
+        Iterator<ChunkData> iterator = entries.values().iterator();
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            sizeBytes -= costOf(iterator.next());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Must be called while holding the monitor.
+     */
+    private void remove(ChunkCoord coord) {
+        ChunkData previous = entries.remove(coord);
+        if (previous != null) {
+            sizeBytes -= costOf(previous);
+        }
+    }
+
+    /**
+     * Get a snapshot of the cache counters.
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), sizeBytes, capacityBytes);
+    }
+
+    /**
+     * Cache counters for the stats command.
+     */
+    public record CacheStats(long hits, long misses, long evictions, int entries, long sizeBytes, long capacityBytes) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total > 0 ? (double) hits / total : 0.0;
+        }
+    }
+}
@@ -1,69 +1,431 @@
 package net.fivew14.xaerosync.server.storage;
 
 import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+import net.fivew14.xaerosync.common.RegistryHashTree;
 import net.minecraft.resources.ResourceLocation;
 
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 /**
  * In-memory index of all synced chunks and their timestamps.
- * Thread-safe for concurrent access.
+ * The contributor of each chunk is kept alongside so the registry can be
+ * persisted by {@link RegistryIndex} without touching chunk storage.
+ * <p>
+ * Entries are split into one shard per dimension. Each shard is a primitive
+ * open-addressing table keyed by packed x/z ({@link ChunkCoord#pack}), with parallel arrays
+ * per slot: long key, long timestamp, long revision, long content hash and an int index
+ * into a shared contributor table. That's 36 bytes per slot, kept at most 3/4 full,
+ * instead of several objects per entry.
+ * <p>
+ * Each shard also logs (revision, key) pairs in revision order, so a delta only visits
+ * entries changed since the client's revision instead of the whole table. Records
+ * overwritten by a later put or remove are skipped, and dropped once they pile up.
+ * <p>
+ * Every put and remove is stamped with a revision from a registry-wide counter, and
+ * removals leave a bounded list of tombstones. Together with the epoch, which changes
+ * whenever the registry is rebuilt from scratch, this lets a reconnecting client ask
+ * for only what changed since the revision it last saw ({@link #changesSince}).
+ * Each shard also keeps a {@link RegistryHashTree} so clients with an outdated copy can
+ * find the regions that differ by comparing hashes.
+ * Thread-safe for concurrent access; each shard is locked independently.
  */
 public class ChunkRegistry {
 
-    // Map from ChunkCoord to timestamp
-    private final Map<ChunkCoord, Long> chunks = new ConcurrentHashMap<>();
+    // Removals remembered for delta sync; older ones are dropped and raise the floor
+    private static final int MAX_TOMBSTONES = 65536;
+
+    private final Map<ResourceLocation, Shard> shards = new ConcurrentHashMap<>();
+    private final AtomicInteger totalSize = new AtomicInteger();
+
+    private volatile long epoch = newEpoch();
+    private final AtomicLong revision = new AtomicLong();
+    private final ArrayDeque<Tombstone> tombstones = new ArrayDeque<>();
+    private volatile long tombstoneFloor = 0;
+
+    // Contributors are few, so entries store an index into this table.
+    // The array is copied on write so lookups during iteration don't need a lock.
+    private final Map<UUID, Integer> contributorIds = new HashMap<>();
+    private volatile UUID[] contributors = new UUID[0];
 
     /**
-     * Add or update a chunk entry.
+     * Add or update a chunk entry. Returns the revision assigned to the change.
      */
-    public void put(ChunkCoord coord, long timestamp) {
-        chunks.put(coord, timestamp);
+    public long put(ChunkCoord coord, ChunkMetadata metadata) {
+        return putWithRevision(coord, metadata, -1);
+    }
+
+    /**
+     * Add an entry with a known revision, when restoring from the registry index.
+     */
+    void restore(ChunkCoord coord, ChunkMetadata metadata, long entryRevision) {
+        revision.accumulateAndGet(entryRevision, Math::max);
+        putWithRevision(coord, metadata, entryRevision);
+    }
+
+    private long putWithRevision(ChunkCoord coord, ChunkMetadata metadata, long entryRevision) {
+        int contributorId = contributorId(metadata.contributor());
+        Shard shard = shards.computeIfAbsent(coord.dimension(), dim -> new Shard());
+        long rev;
+        boolean added;
+        synchronized (shard) {
+            // Revision is taken under the shard lock so changesSince never misses an entry
+            rev = entryRevision >= 0 ? entryRevision : revision.incrementAndGet();
+            added = shard.put(coord.packXZ(), metadata.timestamp(), contributorId, rev, metadata.contentHash());
+        }
+        if (added) {
+            totalSize.incrementAndGet();
+        }
+        return rev;
     }
 
     /**
      * Get the timestamp for a chunk, if it exists.
      */
     public Optional<Long> getTimestamp(ChunkCoord coord) {
-        return Optional.ofNullable(chunks.get(coord));
+        Shard shard = shards.get(coord.dimension());
+        if (shard == null) {
+            return Optional.empty();
+        }
+        synchronized (shard) {
+            int slot = shard.indexOf(coord.packXZ());
+            return slot >= 0 ? Optional.of(shard.timestamps[slot]) : Optional.empty();
+        }
+    }
+
+    /**
+     * Get the full metadata for a chunk, if it exists.
+     */
+    public Optional<ChunkMetadata> getMetadata(ChunkCoord coord) {
+        Shard shard = shards.get(coord.dimension());
+        if (shard == null) {
+            return Optional.empty();
+        }
+        long timestamp;
+        int contributorId;
+        long contentHash;
+        synchronized (shard) {
+            int slot = shard.indexOf(coord.packXZ());
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            timestamp = shard.timestamps[slot];
+            contributorId = shard.contributors[slot];
+            contentHash = shard.contentHashes[slot];
+        }
+        return Optional.of(new ChunkMetadata(contributor(contributorId), timestamp, contentHash));
     }
 
     /**
      * Check if a chunk exists in the registry.
      */
     public boolean contains(ChunkCoord coord) {
-        return chunks.containsKey(coord);
+        Shard shard = shards.get(coord.dimension());
+        if (shard == null) {
+            return false;
+        }
+        synchronized (shard) {
+            return shard.indexOf(coord.packXZ()) >= 0;
+        }
     }
 
     /**
      * Remove a chunk from the registry.
      */
     public boolean remove(ChunkCoord coord) {
-        return chunks.remove(coord) != null;
+        return removeAndGetRevision(coord) >= 0;
+    }
+
+    /**
+     * Remove a chunk from the registry. Returns the revision assigned to the removal,
+     * or -1 if the chunk wasn't present.
+     */
+    public long removeAndGetRevision(ChunkCoord coord) {
+        return removeWithRevision(coord, -1);
+    }
+
+    /**
+     * Remove an entry with a known revision, when replaying the registry journal.
+     */
+    void restoreRemoval(ChunkCoord coord, long removalRevision) {
+        revision.accumulateAndGet(removalRevision, Math::max);
+        removeWithRevision(coord, removalRevision);
+    }
+
+    private long removeWithRevision(ChunkCoord coord, long removalRevision) {
+        Shard shard = shards.get(coord.dimension());
+        if (shard == null) {
+            return -1;
+        }
+        long rev;
+        synchronized (shard) {
+            if (removalRevision >= 0) {
+                // A replayed removal the entry has already been re-added after
+                int slot = shard.indexOf(coord.packXZ());
+                if (slot >= 0 && shard.revisions[slot] > removalRevision) {
+                    return -1;
+                }
+            }
+            if (!shard.remove(coord.packXZ())) {
+                return -1;
+            }
+            rev = removalRevision >= 0 ? removalRevision : revision.incrementAndGet();
+            addTombstone(new Tombstone(coord.dimension(), coord.packXZ(), rev));
+        }
+        totalSize.decrementAndGet();
+        return rev;
+    }
+
+    /**
+     * Re-add a tombstone when restoring from the registry index.
+     */
+    void restoreTombstone(ResourceLocation dimension, int x, int z, long tombstoneRevision) {
+        revision.accumulateAndGet(tombstoneRevision, Math::max);
+        addTombstone(new Tombstone(dimension, ChunkCoord.pack(x, z), tombstoneRevision));
     }
 
     /**
      * Get the total number of chunks in the registry.
      */
     public int size() {
-        return chunks.size();
+        return totalSize.get();
+    }
+
+    /**
+     * Get the number of chunks in one dimension.
+     */
+    public int size(ResourceLocation dimension) {
+        Shard shard = shards.get(dimension);
+        if (shard == null) {
+            return 0;
+        }
+        synchronized (shard) {
+            return shard.size;
+        }
+    }
+
+    /**
+     * Get all dimensions that have (or had) chunks in the registry.
+     */
+    public Set<ResourceLocation> getDimensions() {
+        return Collections.unmodifiableSet(shards.keySet());
     }
 
     /**
-     * Clear all entries.
+     * Clear all entries and start a new epoch, since clients' sync positions no longer apply.
      */
     public void clear() {
-        chunks.clear();
+        for (Shard shard : shards.values()) {
+            synchronized (shard) {
+                totalSize.addAndGet(-shard.clear());
+            }
+        }
+        synchronized (tombstones) {
+            tombstones.clear();
+        }
+        revision.set(0);
+        tombstoneFloor = 0;
+        epoch = newEpoch();
+    }
+
+    // ==================== Revisions ====================
+
+    /**
+     * Get the epoch, a random id that changes whenever revisions restart from zero.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the revision of the most recent put or remove.
+     */
+    public long getRevision() {
+        return revision.get();
+    }
+
+    /**
+     * Get the newest revision whose tombstone has been dropped.
+     * Deltas can only be served from revisions at or above this.
+     */
+    public long getTombstoneFloor() {
+        return tombstoneFloor;
+    }
+
+    /**
+     * Restore the epoch and counters when loading from the registry index.
+     */
+    void restoreState(long restoredEpoch, long restoredRevision, long restoredFloor) {
+        epoch = restoredEpoch;
+        revision.accumulateAndGet(restoredRevision, Math::max);
+        tombstoneFloor = restoredFloor;
+    }
+
+    /**
+     * Check whether a client that has seen everything up to a revision of an epoch can be
+     * brought up to date with {@link #changesSince} instead of a full transfer.
+     */
+    public boolean canServeDelta(long clientEpoch, long clientRevision) {
+        return clientEpoch == epoch
+                && clientRevision >= tombstoneFloor
+                && clientRevision <= revision.get();
+    }
+
+    /**
+     * Collect entries and removals with since &lt; revision &lt;= upTo, ordered by revision.
+     * Pass since = -1 and includeRemovals = false for a full listing.
+     */
+    public List<Change> changesSince(long since, long upTo, boolean includeRemovals) {
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<ResourceLocation, Shard> entry : shards.entrySet()) {
+            ResourceLocation dimension = entry.getKey();
+            Shard shard = entry.getValue();
+            synchronized (shard) {
+                shard.sortLog();
+                for (int i = shard.firstLogIndexAfter(since); i < shard.logSize; i++) {
+                    long entryRevision = shard.logRevisions[i];
+                    if (entryRevision > upTo) {
+                        break;
+                    }
+                    long key = shard.logKeys[i];
+                    int slot = shard.indexOf(key);
+                    if (slot >= 0 && shard.revisions[slot] == entryRevision) {
+                        changes.add(new Change(new ChunkCoord(dimension, ChunkCoord.unpackX(key),
+                                ChunkCoord.unpackZ(key)), shard.timestamps[slot], entryRevision, false));
+                    }
+                }
+            }
+        }
+
+        if (includeRemovals) {
+            synchronized (tombstones) {
+                for (Tombstone tombstone : tombstones) {
+                    if (tombstone.revision() > since && tombstone.revision() <= upTo) {
+                        ChunkCoord coord = new ChunkCoord(tombstone.dimension(),
+                                ChunkCoord.unpackX(tombstone.key()), ChunkCoord.unpackZ(tombstone.key()));
+                        changes.add(new Change(coord, 0, tombstone.revision(), true));
+                    }
+                }
+            }
+        }
+
+        changes.sort(Comparator.comparingLong(Change::revision));
+        return changes;
+    }
+
+    // ==================== Hash Tree ====================
+
+    /**
+     * Get the root hash of every non-empty dimension.
+     */
+    public Map<ResourceLocation, Long> getDimensionHashes() {
+        Map<ResourceLocation, Long> result = new HashMap<>();
+        for (Map.Entry<ResourceLocation, Shard> entry : shards.entrySet()) {
+            Shard shard = entry.getValue();
+            synchronized (shard) {
+                if (!shard.hashes.isEmpty()) {
+                    result.put(entry.getKey(), shard.hashes.getRootHash());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the hash of every non-empty region group in a dimension, keyed by packed group x/z.
+     */
+    public Map<Long, Long> getGroupHashes(ResourceLocation dimension) {
+        Shard shard = shards.get(dimension);
+        if (shard == null) {
+            return Map.of();
+        }
+        synchronized (shard) {
+            return shard.hashes.getGroupHashes();
+        }
+    }
+
+    /**
+     * Get the hash of every non-empty region in a group, keyed by packed region x/z.
+     */
+    public Map<Long, Long> getRegionHashes(ResourceLocation dimension, long groupKey) {
+        Shard shard = shards.get(dimension);
+        if (shard == null) {
+            return Map.of();
+        }
+        synchronized (shard) {
+            return shard.hashes.getRegionHashes(groupKey);
+        }
+    }
+
+    /**
+     * Collect the entries of a dimension that lie in the given regions (packed region x/z).
+     */
+    public List<Change> entriesInRegions(ResourceLocation dimension, Set<Long> regionKeys) {
+        List<Change> result = new ArrayList<>();
+        Shard shard = shards.get(dimension);
+        if (shard == null || regionKeys.isEmpty()) {
+            return result;
+        }
+        visitShard(dimension, shard, (dim, x, z, timestamp, contributor, entryRevision, contentHash) -> {
+            if (regionKeys.contains(RegistryHashTree.regionKey(x, z))) {
+                result.add(new Change(new ChunkCoord(dim, x, z), timestamp, entryRevision, false));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Iterate over remembered removals, oldest first.
+     */
+    public void forEachTombstone(TombstoneVisitor visitor) {
+        synchronized (tombstones) {
+            for (Tombstone tombstone : tombstones) {
+                visitor.visit(tombstone.dimension(), ChunkCoord.unpackX(tombstone.key()),
+                        ChunkCoord.unpackZ(tombstone.key()), tombstone.revision());
+            }
+        }
     }
 
     /**
      * Iterate over all chunks in the registry.
      */
     public void forEach(BiConsumer<ChunkCoord, Long> action) {
-        chunks.forEach(action);
+        forEachPrimitive((dimension, x, z, timestamp, contributor, entryRevision, contentHash) ->
+                action.accept(new ChunkCoord(dimension, x, z), timestamp));
+    }
+
+    /**
+     * Iterate over all chunks in the registry with their full metadata.
+     */
+    public void forEachEntry(BiConsumer<ChunkCoord, ChunkMetadata> action) {
+        forEachPrimitive((dimension, x, z, timestamp, contributor, entryRevision, contentHash) ->
+                action.accept(new ChunkCoord(dimension, x, z), new ChunkMetadata(contributor, timestamp, contentHash)));
+    }
+
+    /**
+     * Iterate over all chunks without allocating per entry.
+     * Each shard is locked while it is visited, so the visitor must not modify the registry.
+     */
+    public void forEachPrimitive(EntryVisitor visitor) {
+        for (Map.Entry<ResourceLocation, Shard> entry : shards.entrySet()) {
+            visitShard(entry.getKey(), entry.getValue(), visitor);
+        }
+    }
+
+    /**
+     * Iterate over the chunks of one dimension without allocating per entry.
+     * The shard is locked while it is visited, so the visitor must not modify the registry.
+     */
+    public void forEachInDimension(ResourceLocation dimension, EntryVisitor visitor) {
+        Shard shard = shards.get(dimension);
+        if (shard != null) {
+            visitShard(dimension, shard, visitor);
+        }
     }
 
     /**
@@ -71,11 +433,8 @@ public class ChunkRegistry {
      */
     public Map<ChunkCoord, Long> getForDimension(ResourceLocation dimension) {
         Map<ChunkCoord, Long> result = new ConcurrentHashMap<>();
-        chunks.forEach((coord, timestamp) -> {
-            if (coord.dimension().equals(dimension)) {
-                result.put(coord, timestamp);
-            }
-        });
+        forEachInDimension(dimension, (dim, x, z, timestamp, contributor, entryRevision, contentHash) ->
+                result.put(new ChunkCoord(dim, x, z), timestamp));
         return result;
     }
 
@@ -84,14 +443,362 @@ public class ChunkRegistry {
      * Returns true if the chunk doesn't exist or has an older timestamp.
      */
     public boolean isNewer(ChunkCoord coord, long timestamp) {
-        Long existing = chunks.get(coord);
-        return existing == null || timestamp > existing;
+        Shard shard = shards.get(coord.dimension());
+        if (shard == null) {
+            return true;
+        }
+        synchronized (shard) {
+            int slot = shard.indexOf(coord.packXZ());
+            return slot < 0 || timestamp > shard.timestamps[slot];
+        }
     }
 
     /**
      * Get a snapshot of all entries (for sending registry packets).
      */
     public Map<ChunkCoord, Long> snapshot() {
-        return new ConcurrentHashMap<>(chunks);
+        Map<ChunkCoord, Long> result = new ConcurrentHashMap<>(Math.max(16, size() * 4 / 3));
+        forEach(result::put);
+        return result;
+    }
+
+    // ==================== Internals ====================
+
+    private void visitShard(ResourceLocation dimension, Shard shard, EntryVisitor visitor) {
+        synchronized (shard) {
+            long[] keys = shard.keys;
+            for (int slot = 0; slot < keys.length; slot++) {
+                int contributorId = shard.contributors[slot];
+                if (contributorId != Shard.EMPTY) {
+                    long key = keys[slot];
+                    visitor.visit(dimension, ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key),
+                            shard.timestamps[slot], contributor(contributorId), shard.revisions[slot],
+                            shard.contentHashes[slot]);
+                }
+            }
+        }
+    }
+
+    private int contributorId(UUID contributor) {
+        synchronized (contributorIds) {
+            Integer id = contributorIds.get(contributor);
+            if (id == null) {
+                id = contributors.length;
+                UUID[] grown = Arrays.copyOf(contributors, id + 1);
+                grown[id] = contributor;
+                contributors = grown;
+                contributorIds.put(contributor, id);
+            }
+            return id;
+        }
+    }
+
+    private UUID contributor(int id) {
+        return contributors[id];
+    }
+
+    private void addTombstone(Tombstone tombstone) {
+        synchronized (tombstones) {
+            tombstones.addLast(tombstone);
+            while (tombstones.size() > MAX_TOMBSTONES) {
+                tombstoneFloor = Math.max(tombstoneFloor, tombstones.removeFirst().revision());
+            }
+        }
+    }
+
+    private static long newEpoch() {
+        long value;
+        do {
+            value = ThreadLocalRandom.current().nextLong();
+        } while (value == 0); // 0 means "no epoch" to clients
+        return value;
+    }
+
+    /**
+     * A registry entry or removal, for registry transfers.
+     */
+    public record Change(ChunkCoord coord, long timestamp, long revision, boolean removed) {
+    }
+
+    private record Tombstone(ResourceLocation dimension, long key, long revision) {
+    }
+
+    /**
+     * Callback for allocation-free iteration.
+     */
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(ResourceLocation dimension, int x, int z, long timestamp, UUID contributor, long revision,
+                   long contentHash);
+    }
+
+    /**
+     * Callback for tombstone iteration.
+     */
+    @FunctionalInterface
+    public interface TombstoneVisitor {
+        void visit(ResourceLocation dimension, int x, int z, long revision);
+    }
+
+    /**
+     * Linear-probing hash table from packed x/z to timestamp, contributor id, revision and
+     * content hash for one dimension. Removal shifts later entries back instead of leaving tombstones.
+     * Alongside it, a log of (revision, key) pairs ordered by revision; a record is live while
+     * the key's slot still holds that revision.
+     * Callers hold the shard's monitor.
+     */
+    private static final class Shard {
+        static final int EMPTY = -1;
+        private static final int INITIAL_CAPACITY = 64;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        long[] keys;
+        long[] timestamps;
+        long[] revisions;
+        long[] contentHashes;
+        int[] contributors;
+        int size;
+        private int mask;
+        RegistryHashTree hashes = new RegistryHashTree();
+
+        long[] logRevisions;
+        long[] logKeys;
+        int logSize;
+        private int staleLogRecords;
+        // Restored entries can arrive out of revision order; sorted before the next lookup
+        private boolean logSorted;
+
+        Shard() {
+            allocate(INITIAL_CAPACITY);
+            resetLog(INITIAL_CAPACITY);
+        }
+
+        private void resetLog(int capacity) {
+            logRevisions = new long[capacity];
+            logKeys = new long[capacity];
+            logSize = 0;
+            staleLogRecords = 0;
+            logSorted = true;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            timestamps = new long[capacity];
+            revisions = new long[capacity];
+            contentHashes = new long[capacity];
+            contributors = new int[capacity];
+            Arrays.fill(contributors, EMPTY);
+            mask = capacity - 1;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * Find the slot holding a key, or -1.
+         */
+        int indexOf(long key) {
+            int slot = hash(key) & mask;
+            while (contributors[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Insert or update an entry. Returns true if the key was new. An update with a revision
+         * no newer than the entry's is ignored, as when a journal the snapshot already covers is replayed.
+         */
+        boolean put(long key, long timestamp, int contributorId, long revision, long contentHash) {
+            int slot = hash(key) & mask;
+            while (contributors[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    if (revisions[slot] >= revision) {
+                        return false;
+                    }
+                    hashes.remove(ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), timestamps[slot]);
+                    hashes.add(ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), timestamp);
+                    timestamps[slot] = timestamp;
+                    revisions[slot] = revision;
+                    contentHashes[slot] = contentHash;
+                    contributors[slot] = contributorId;
+                    staleLogRecords++;
+                    appendLog(key, revision);
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            timestamps[slot] = timestamp;
+            revisions[slot] = revision;
+            contentHashes[slot] = contentHash;
+            contributors[slot] = contributorId;
+            hashes.add(ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), timestamp);
+            size++;
+            if (size > keys.length * LOAD_FACTOR) {
+                rehash(keys.length * 2);
+            }
+            appendLog(key, revision);
+            return true;
+        }
+
+        /**
+         * Remove an entry. Returns true if the key was present.
+         */
+        boolean remove(long key) {
+            int hole = indexOf(key);
+            if (hole < 0) {
+                return false;
+            }
+            hashes.remove(ChunkCoord.unpackX(key), ChunkCoord.unpackZ(key), timestamps[hole]);
+
+            // Shift back any following entry whose home slot isn't between the hole and itself
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (contributors[slot] == EMPTY) {
+                    break;
+                }
+                int home = hash(keys[slot]) & mask;
+                boolean staysPut = hole <= slot
+                        ? hole < home && home <= slot
+                        : hole < home || home <= slot;
+                if (!staysPut) {
+                    keys[hole] = keys[slot];
+                    timestamps[hole] = timestamps[slot];
+                    revisions[hole] = revisions[slot];
+                    contentHashes[hole] = contentHashes[slot];
+                    contributors[hole] = contributors[slot];
+                    hole = slot;
+                }
+            }
+            contributors[hole] = EMPTY;
+            size--;
+            staleLogRecords++;
+            compactLogIfStale();
+            return true;
+        }
+
+        /**
+         * Remove all entries and shrink back to the initial capacity. Returns the number removed.
+         */
+        int clear() {
+            int removed = size;
+            allocate(INITIAL_CAPACITY);
+            hashes = new RegistryHashTree();
+            size = 0;
+            resetLog(INITIAL_CAPACITY);
+            return removed;
+        }
+
+        // ==================== Revision log ====================
+
+        private void appendLog(long key, long revision) {
+            if (logSize > 0 && revision < logRevisions[logSize - 1]) {
+                logSorted = false;
+            }
+            if (logSize == logKeys.length) {
+                logRevisions = Arrays.copyOf(logRevisions, logSize * 2);
+                logKeys = Arrays.copyOf(logKeys, logSize * 2);
+            }
+            logRevisions[logSize] = revision;
+            logKeys[logSize] = key;
+            logSize++;
+            compactLogIfStale();
+        }
+
+        /**
+         * Drop overwritten records once they outnumber half the live entries.
+         */
+        private void compactLogIfStale() {
+            if (staleLogRecords <= size / 2 + INITIAL_CAPACITY) {
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < logSize; i++) {
+                int slot = indexOf(logKeys[i]);
+                if (slot >= 0 && revisions[slot] == logRevisions[i]) {
+                    logRevisions[kept] = logRevisions[i];
+                    logKeys[kept] = logKeys[i];
+                    kept++;
+                }
+            }
+            logSize = kept;
+            staleLogRecords = 0;
+            if (logKeys.length > INITIAL_CAPACITY && kept < logKeys.length / 4) {
+                int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(kept) * 2);
+                logRevisions = Arrays.copyOf(logRevisions, capacity);
+                logKeys = Arrays.copyOf(logKeys, capacity);
+            }
+        }
+
+        /**
+         * Put the log back in revision order after out-of-order restores.
+         */
+        void sortLog() {
+            if (logSorted) {
+                return;
+            }
+            Integer[] order = new Integer[logSize];
+            for (int i = 0; i < logSize; i++) {
+                order[i] = i;
+            }
+            long[] revisionsBefore = logRevisions;
+            long[] keysBefore = logKeys;
+            Arrays.sort(order, Comparator.comparingLong(i -> revisionsBefore[i]));
+            logRevisions = new long[revisionsBefore.length];
+            logKeys = new long[keysBefore.length];
+            for (int i = 0; i < logSize; i++) {
+                logRevisions[i] = revisionsBefore[order[i]];
+                logKeys[i] = keysBefore[order[i]];
+            }
+            logSorted = true;
+        }
+
+        /**
+         * Find the first log record with a revision above the given one. The log must be sorted.
+         */
+        int firstLogIndexAfter(long revision) {
+            int low = 0;
+            int high = logSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (logRevisions[mid] <= revision) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldTimestamps = timestamps;
+            long[] oldRevisions = revisions;
+            long[] oldContentHashes = contentHashes;
+            int[] oldContributors = contributors;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldContributors[i] == EMPTY) {
+                    continue;
+                }
+                int slot = hash(oldKeys[i]) & mask;
+                while (contributors[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                timestamps[slot] = oldTimestamps[i];
+                revisions[slot] = oldRevisions[i];
+                contentHashes[slot] = oldContentHashes[i];
+                contributors[slot] = oldContributors[i];
+            }
+        }
     }
 }
@@ -0,0 +1,89 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Storage backend for synced chunk data on the server.
+ * <p>
+ * Implementations must be thread-safe. Read and write failures are logged and
+ * reported through return values rather than thrown, so callers can answer
+ * clients without additional error handling.
+ */
+public interface ChunkStorage {
+
+    /**
+     * Initialize storage directories.
+     */
+    void initialize() throws IOException;
+
+    /**
+     * Get the storage root path.
+     */
+    Path getStorageRoot();
+
+    /**
+     * Check if a chunk exists in storage.
+     */
+    boolean exists(ChunkCoord coord);
+
+    /**
+     * Read chunk metadata only (without loading the full data).
+     * Returns empty if chunk doesn't exist.
+     */
+    Optional<ChunkMetadata> readMetadata(ChunkCoord coord);
+
+    /**
+     * Read full chunk data (metadata + compressed data).
+     * Returns null if chunk doesn't exist or read fails.
+     */
+    @Nullable
+    ChunkData readChunk(ChunkCoord coord);
+
+    /**
+     * Write chunk data to storage, replacing any existing data for the coordinate.
+     * The content hash may be {@link net.fivew14.xaerosync.common.ContentHash#UNKNOWN}.
+     */
+    boolean writeChunk(ChunkCoord coord, UUID contributor, long timestamp, long contentHash, byte[] data);
+
+    /**
+     * Delete a chunk from storage.
+     */
+    boolean deleteChunk(ChunkCoord coord);
+
+    /**
+     * Scan storage and populate a registry with all existing chunks.
+     */
+    void scanIntoRegistry(ChunkRegistry registry);
+
+    /**
+     * Release any open file handles. The storage must not be used afterwards.
+     */
+    void close();
+
+    /**
+     * Total number of storage lock acquisitions, for statistics.
+     */
+    default long getLockAcquisitions() {
+        return 0;
+    }
+
+    /**
+     * Number of lock acquisitions that had to wait for another thread, for statistics.
+     */
+    default long getLockContentions() {
+        return 0;
+    }
+
+    /**
+     * Container for chunk metadata and compressed data.
+     */
+    record ChunkData(ChunkMetadata metadata, byte[] data) {
+    }
+}
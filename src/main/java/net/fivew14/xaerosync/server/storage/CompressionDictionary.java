@@ -0,0 +1,195 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCodec;
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ContentHash;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Loads the preset dictionary chunk payloads are compressed with, training it from a sample
+ * of stored chunks the first time there are enough of them. That's checked at startup and,
+ * by {@link net.fivew14.xaerosync.server.ServerSyncManager}, again as uploads are stored.
+ * <p>
+ * Once trained, the dictionary never changes, since stored payloads depend on it. Until then
+ * chunks are compressed without one, and those payloads stay readable afterwards.
+ * <p>
+ * File format (big-endian): int magic, int version, int length, dictionary bytes.
+ */
+public final class CompressionDictionary {
+
+    private static final String FILE_NAME = "compression.dict";
+    private static final int MAGIC = 0x58534443; // "XSDC"
+    private static final int VERSION = 1;
+
+    // Training needs chunks from enough places to tell shared content from local content
+    public static final int MIN_TRAINING_CHUNKS = 64;
+    private static final int TRAINING_SAMPLE_SIZE = 128;
+
+    // Segments are picked at this length and step, content repeated across chunks is longer
+    private static final int SEGMENT_LENGTH = 32;
+    private static final int SEGMENT_STEP = 16;
+
+    private CompressionDictionary() {
+    }
+
+    /**
+     * Load the storage's dictionary, or train one if there is none yet and enough chunks are stored.
+     * Returns the codec to compress and decompress chunk payloads with.
+     */
+    public static ChunkCodec loadOrTrain(ChunkStorage storage, ChunkRegistry registry) {
+        Path file = storage.getStorageRoot().resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            try {
+                ChunkCodec codec = ChunkCodec.withDictionary(read(file));
+                XaeroSync.LOGGER.info("Loaded {} byte compression dictionary", codec.getDictionary().length);
+                return codec;
+            } catch (IOException | IllegalArgumentException e) {
+                // Payloads compressed with it can't be read any more, but new ones can still be stored
+                XaeroSync.LOGGER.error("Failed to load compression dictionary {}", file, e);
+                return ChunkCodec.DEFAULT;
+            }
+        }
+
+        if (registry.size() < MIN_TRAINING_CHUNKS) {
+            return ChunkCodec.DEFAULT;
+        }
+
+        long start = System.currentTimeMillis();
+        List<byte[]> samples = readSamples(storage, registry);
+        byte[] dictionary = train(samples, ChunkCodec.MAX_DICTIONARY_SIZE);
+        if (samples.size() < MIN_TRAINING_CHUNKS || dictionary.length == 0) {
+            return ChunkCodec.DEFAULT;
+        }
+
+        try {
+            write(file, dictionary);
+        } catch (IOException e) {
+            // Without the file, payloads compressed with the dictionary would be unreadable after a restart
+            XaeroSync.LOGGER.error("Failed to save compression dictionary {}", file, e);
+            return ChunkCodec.DEFAULT;
+        }
+        XaeroSync.LOGGER.info("Trained {} byte compression dictionary from {} chunks in {}ms",
+                dictionary.length, samples.size(), System.currentTimeMillis() - start);
+        return ChunkCodec.withDictionary(dictionary);
+    }
+
+    // ==================== Training ====================
+
+    /**
+     * Read a random sample of stored chunks, uncompressed.
+     */
+    private static List<byte[]> readSamples(ChunkStorage storage, ChunkRegistry registry) {
+        // Reservoir sampling over the registry
+        Random random = new Random();
+        List<ChunkCoord> picked = new ArrayList<>(TRAINING_SAMPLE_SIZE);
+        int[] seen = {0};
+        registry.forEachEntry((coord, metadata) -> {
+            int index = seen[0]++;
+            if (index < TRAINING_SAMPLE_SIZE) {
+                picked.add(coord);
+            } else {
+                int slot = random.nextInt(index + 1);
+                if (slot < TRAINING_SAMPLE_SIZE) {
+                    picked.set(slot, coord);
+                }
+            }
+        });
+
+        List<byte[]> samples = new ArrayList<>(picked.size());
+        for (ChunkCoord coord : picked) {
+            ChunkStorage.ChunkData data = storage.readChunk(coord);
+            if (data == null) continue;
+            try {
+                samples.add(ChunkCodec.DEFAULT.decompress(data.data()));
+            } catch (IOException e) {
+                XaeroSync.LOGGER.debug("Skipping unreadable chunk {} for dictionary training", coord);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Build a dictionary from the segments found in the most samples, most common last so
+     * they are closest to the data and cheapest to refer to.
+     */
+    static byte[] train(List<byte[]> samples, int maxSize) {
+        Map<Long, Segment> segments = new HashMap<>();
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            byte[] sample = samples.get(sampleIndex);
+            for (int offset = 0; offset + SEGMENT_LENGTH <= sample.length; offset += SEGMENT_STEP) {
+                long hash = ContentHash.of(sample, offset, SEGMENT_LENGTH);
+                Segment segment = segments.get(hash);
+                if (segment == null) {
+                    segments.put(hash, new Segment(sample, offset, sampleIndex));
+                } else if (segment.lastSample != sampleIndex) {
+                    // Count each sample once, content repeated within one chunk is found anyway
+                    segment.lastSample = sampleIndex;
+                    segment.sampleCount++;
+                }
+            }
+        }
+
+        List<Segment> shared = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment.sampleCount >= 2) {
+                shared.add(segment);
+            }
+        }
+        shared.sort(Comparator.comparingInt((Segment segment) -> segment.sampleCount).reversed());
+
+        int count = Math.min(shared.size(), maxSize / SEGMENT_LENGTH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * SEGMENT_LENGTH);
+        for (int i = count - 1; i >= 0; i--) {
+            Segment segment = shared.get(i);
+            out.write(segment.source, segment.offset, SEGMENT_LENGTH);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Segment {
+        final byte[] source;
+        final int offset;
+        int lastSample;
+        int sampleCount = 1;
+
+        Segment(byte[] source, int offset, int sample) {
+            this.source = source;
+            this.offset = offset;
+            this.lastSample = sample;
+        }
+    }
+
+    // ==================== Persistence ====================
+
+    private static byte[] read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized compression dictionary header");
+            }
+            int length = in.readInt();
+            if (length <= 0 || length > ChunkCodec.MAX_DICTIONARY_SIZE) {
+                throw new IOException("Invalid compression dictionary length " + length);
+            }
+            byte[] dictionary = new byte[length];
+            in.readFully(dictionary);
+            return dictionary;
+        }
+    }
+
+    private static void write(Path file, byte[] dictionary) throws IOException {
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dictionary.length);
+            out.write(dictionary);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,312 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.TileSections;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server-wide IDs for the block states and biomes in chunk payloads, so tile sections can
+ * refer to them with a varint instead of spelling each one out.
+ * <p>
+ * Section palettes (version 4+ payloads) hold one varint per entry: ID + 1, or 0 followed by the
+ * entry in full (block state NBT, or biome name) when the client didn't know an ID for it yet.
+ * Uploaded sections have their spelled-out entries assigned IDs here before they are stored.
+ * IDs are never reassigned, since stored payloads refer to them, and clients learn new ones
+ * incrementally with {@link net.fivew14.xaerosync.networking.packets.S2CPaletteUpdatePacket}.
+ * <p>
+ * File format (big-endian): int magic, int version, then one record per assigned ID in order:
+ * byte kind (1 block state, 2 biome), then NBT or a UTF string. Records are appended as IDs
+ * are assigned, and a record torn by a crash is dropped on load.
+ * <p>
+ * Thread-safe, sections are interned on the I/O executor.
+ */
+public final class GlobalPalette implements Closeable {
+
+    private static final String FILE_NAME = "palette.dat";
+    private static final int MAGIC = 0x5853504C; // "XSPL"
+    private static final int VERSION = 1;
+    private static final byte KIND_BLOCK_STATE = 1;
+    private static final byte KIND_BIOME = 2;
+
+    // Bounds on growth from bogus uploads, entries beyond them stay spelled out in sections
+    public static final int MAX_BLOCK_STATES = 1 << 16;
+    public static final int MAX_BIOMES = 1 << 12;
+
+    // No tile has more entries than it has blocks and overlays
+    private static final int MAX_SECTION_PALETTE_SIZE = 4096;
+
+    private final Path file;
+    private final List<CompoundTag> blockStates = new ArrayList<>();
+    private final Map<CompoundTag, Integer> blockStateIds = new HashMap<>();
+    private final List<String> biomes = new ArrayList<>();
+    private final Map<String, Integer> biomeIds = new HashMap<>();
+    private DataOutputStream log;
+
+    private GlobalPalette(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the storage's palette, creating an empty one if there is none yet. If it can't be
+     * loaded, no IDs are assigned and uploaded palette entries stay spelled out.
+     */
+    public static GlobalPalette load(Path storageRoot) {
+        GlobalPalette palette = new GlobalPalette(storageRoot.resolve(FILE_NAME));
+        try {
+            palette.read();
+        } catch (IOException e) {
+            // Stored payloads referring to its IDs can't be read any more, but new ones can still be stored
+            XaeroSync.LOGGER.error("Failed to load global palette {}", palette.file, e);
+            return new GlobalPalette(palette.file);
+        }
+        XaeroSync.LOGGER.info("Loaded global palette with {} block states and {} biomes",
+                palette.blockStates.size(), palette.biomes.size());
+        return palette;
+    }
+
+    public synchronized int getBlockStateCount() {
+        return blockStates.size();
+    }
+
+    public synchronized int getBiomeCount() {
+        return biomes.size();
+    }
+
+    /**
+     * Block state entries from an ID on, for announcing them to a client.
+     */
+    public synchronized List<CompoundTag> getBlockStates(int from, int maxCount) {
+        return new ArrayList<>(blockStates.subList(from, Math.min(blockStates.size(), from + maxCount)));
+    }
+
+    public synchronized List<String> getBiomes(int from, int maxCount) {
+        return new ArrayList<>(biomes.subList(from, Math.min(biomes.size(), from + maxCount)));
+    }
+
+    // ==================== Interning ====================
+
+    /**
+     * Replace every spelled-out palette entry in a payload with its ID, assigning new IDs as needed.
+     * Version 3 payloads come back as version 4. Returns the same instance if nothing changed.
+     *
+     * @throws IOException if a section is malformed
+     */
+    public TileSections intern(TileSections sections) throws IOException {
+        boolean named = sections.getVersion() == TileSections.NAMED_PALETTE_VERSION;
+        // Only the palettes are rewritten, so the blocks keep their layout
+        byte version = named ? TileSections.INTERLEAVED_VERSION : sections.getVersion();
+        TileSections result = new TileSections(version, sections.getChunkX(), sections.getChunkZ());
+        boolean changed = named;
+        for (int i = 0; i < TileSections.TILE_COUNT; i++) {
+            byte[] section = sections.getTile(i);
+            if (section == null) continue;
+            byte[] interned = internSection(section, named);
+            changed |= interned != section;
+            result.setTile(i, sections.getTimestamp(i), interned);
+        }
+        return changed ? result : sections;
+    }
+
+    private byte[] internSection(byte[] section, boolean named) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(section));
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(section.length);
+        DataOutputStream out = new DataOutputStream(raw);
+        boolean changed = named;
+
+        int blockCount = readPaletteSize(in);
+        writeVarInt(out, blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int code = named ? 0 : readVarInt(in);
+            if (code != 0) {
+                writeVarInt(out, code);
+                continue;
+            }
+            changed = true;
+            CompoundTag state = NbtIo.read(in);
+            int id = internBlockState(state);
+            writeVarInt(out, id + 1);
+            if (id < 0) {
+                NbtIo.write(state, out);
+            }
+        }
+
+        int biomeCount = readPaletteSize(in);
+        writeVarInt(out, biomeCount);
+        for (int i = 0; i < biomeCount; i++) {
+            int code = named ? 0 : readVarInt(in);
+            if (code != 0) {
+                writeVarInt(out, code);
+                continue;
+            }
+            changed = true;
+            String biome = in.readUTF();
+            int id = internBiome(biome);
+            writeVarInt(out, id + 1);
+            if (id < 0) {
+                out.writeUTF(biome);
+            }
+        }
+
+        if (!changed) {
+            return section;
+        }
+        // The blocks after the palettes refer to palette positions, which haven't moved
+        out.write(in.readAllBytes());
+        return raw.toByteArray();
+    }
+
+    /**
+     * ID of a block state, assigned if it's new. Returns -1 if no more IDs can be assigned.
+     */
+    private synchronized int internBlockState(CompoundTag state) {
+        Integer id = blockStateIds.get(state);
+        if (id != null) {
+            return id;
+        }
+        if (blockStates.size() >= MAX_BLOCK_STATES || log == null) {
+            return -1;
+        }
+        // On disk before any payload referring to it is stored
+        try {
+            log.writeByte(KIND_BLOCK_STATE);
+            NbtIo.write(state, log);
+            log.flush();
+        } catch (IOException e) {
+            stopAppending(e);
+            return -1;
+        }
+        blockStateIds.put(state, blockStates.size());
+        blockStates.add(state);
+        return blockStates.size() - 1;
+    }
+
+    private synchronized int internBiome(String biome) {
+        Integer id = biomeIds.get(biome);
+        if (id != null) {
+            return id;
+        }
+        if (biomes.size() >= MAX_BIOMES || log == null) {
+            return -1;
+        }
+        try {
+            log.writeByte(KIND_BIOME);
+            log.writeUTF(biome);
+            log.flush();
+        } catch (IOException e) {
+            stopAppending(e);
+            return -1;
+        }
+        biomeIds.put(biome, biomes.size());
+        biomes.add(biome);
+        return biomes.size() - 1;
+    }
+
+    // ==================== Persistence ====================
+
+    private void read() throws IOException {
+        long validLength = 8;
+        if (Files.exists(file)) {
+            byte[] contents = Files.readAllBytes(file);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+            if (contents.length < 8 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized global palette header in " + file);
+            }
+            try {
+                while (in.available() > 0) {
+                    byte kind = in.readByte();
+                    if (kind == KIND_BLOCK_STATE) {
+                        CompoundTag state = NbtIo.read(in);
+                        blockStateIds.putIfAbsent(state, blockStates.size());
+                        blockStates.add(state);
+                    } else if (kind == KIND_BIOME) {
+                        String biome = in.readUTF();
+                        biomeIds.putIfAbsent(biome, biomes.size());
+                        biomes.add(biome);
+                    } else {
+                        throw new IOException("Unknown global palette record " + kind);
+                    }
+                    validLength = contents.length - in.available();
+                }
+            } catch (IOException e) {
+                XaeroSync.LOGGER.warn("Dropping {} bytes of torn global palette records from {}",
+                        contents.length - validLength, file);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        } else {
+            try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(file))) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+            }
+        }
+        log = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * A partly written record would misalign everything appended after it, so stop assigning IDs.
+     * Entries without one stay spelled out in their sections.
+     */
+    private void stopAppending(IOException cause) {
+        XaeroSync.LOGGER.error("Failed to append to global palette {}, no new IDs will be assigned", file, cause);
+        close();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to close global palette {}", file, e);
+        }
+        log = null;
+    }
+
+    // ==================== VarInt Helpers ====================
+
+    private static int readPaletteSize(DataInputStream in) throws IOException {
+        int size = readVarInt(in);
+        if (size < 0 || size > MAX_SECTION_PALETTE_SIZE) {
+            throw new IOException("Invalid section palette size " + size);
+        }
+        return size;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= 35) {
+                throw new IOException("VarInt too long");
+            }
+            b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
@@ -0,0 +1,289 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+import net.fivew14.xaerosync.common.DimensionUtils;
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Original one-file-per-chunk storage layout, kept for migrating existing worlds.
+ * <p>
+ * Storage structure:
+ * WORLD_FOLDER/.xaerosync/{dimension}/{x}_{z}.bin
+ * <p>
+ * Each .bin file contains:
+ * - 28-byte header (ChunkMetadata: version, UUID, timestamp)
+ * - GZIP-compressed Xaero format data
+ *
+ * @see StorageMigrator
+ */
+public class LegacyChunkStorage implements ChunkStorage {
+
+    private final Path storageRoot;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param storageRoot The .xaerosync folder (not the world folder)
+     */
+    public LegacyChunkStorage(Path storageRoot) {
+        this.storageRoot = storageRoot;
+    }
+
+    @Override
+    public void initialize() throws IOException {
+        Files.createDirectories(storageRoot);
+    }
+
+    @Override
+    public Path getStorageRoot() {
+        return storageRoot;
+    }
+
+    /**
+     * Get the file path for a chunk.
+     */
+    private Path getChunkPath(ChunkCoord coord) {
+        String dimFolder = DimensionUtils.toFilesystemName(coord.dimension());
+        return storageRoot.resolve(dimFolder).resolve(coord.x() + "_" + coord.z() + ".bin");
+    }
+
+    /**
+     * Check if a chunk exists in storage.
+     */
+    @Override
+    public boolean exists(ChunkCoord coord) {
+        lock.readLock().lock();
+        try {
+            return Files.exists(getChunkPath(coord));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read chunk metadata only (without loading the full data).
+     * Returns empty if chunk doesn't exist.
+     */
+    @Override
+    public Optional<ChunkMetadata> readMetadata(ChunkCoord coord) {
+        lock.readLock().lock();
+        try {
+            Path path = getChunkPath(coord);
+            if (!Files.exists(path)) {
+                return Optional.empty();
+            }
+
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
+                return Optional.of(ChunkMetadata.read(dis));
+            }
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to read chunk metadata: {}", coord, e);
+            return Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read full chunk data (metadata + compressed data).
+     * Returns null if chunk doesn't exist or read fails.
+     */
+    @Nullable
+    @Override
+    public ChunkData readChunk(ChunkCoord coord) {
+        lock.readLock().lock();
+        try {
+            Path path = getChunkPath(coord);
+            if (!Files.exists(path)) {
+                return null;
+            }
+
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
+                ChunkMetadata metadata = ChunkMetadata.read(dis);
+                byte[] data = dis.readAllBytes();
+                return new ChunkData(metadata, data);
+            }
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to read chunk data: {}", coord, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write chunk data to storage.
+     * Creates parent directories if needed. The legacy format has no room for the content hash.
+     */
+    @Override
+    public boolean writeChunk(ChunkCoord coord, UUID contributor, long timestamp, long contentHash, byte[] data) {
+        lock.writeLock().lock();
+        try {
+            Path path = getChunkPath(coord);
+            Files.createDirectories(path.getParent());
+
+            try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(path.toFile()))) {
+                ChunkMetadata metadata = new ChunkMetadata(contributor, timestamp);
+                metadata.write(dos);
+                dos.write(data);
+            }
+
+            XaeroSync.LOGGER.debug("Wrote chunk {} from {} at {}", coord, contributor, timestamp);
+            return true;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to write chunk data: {}", coord, e);
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a chunk from storage.
+     */
+    @Override
+    public boolean deleteChunk(ChunkCoord coord) {
+        lock.writeLock().lock();
+        try {
+            Path path = getChunkPath(coord);
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to delete chunk: {}", coord, e);
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void scanIntoRegistry(ChunkRegistry registry) {
+        AtomicInteger scannedChunks = new AtomicInteger();
+        AtomicInteger failedChunks = new AtomicInteger();
+
+        forEachStoredChunk(coord -> {
+            Optional<ChunkMetadata> metadata = readMetadataFromPath(getChunkPath(coord));
+            if (metadata.isPresent()) {
+                registry.put(coord, metadata.get());
+                scannedChunks.incrementAndGet();
+            } else {
+                failedChunks.incrementAndGet();
+            }
+        });
+
+        if (failedChunks.get() > 0) {
+            XaeroSync.LOGGER.warn("Failed to scan {} chunks during registry initialization", failedChunks.get());
+        }
+        XaeroSync.LOGGER.info("Scanned {} chunks into registry", scannedChunks.get());
+    }
+
+    @Override
+    public void close() {
+        // Files are opened per operation, nothing to release
+    }
+
+    /**
+     * Check whether any chunk files in the legacy layout remain.
+     */
+    public boolean hasStoredChunks() {
+        if (!Files.exists(storageRoot)) {
+            return false;
+        }
+        try (var dimDirs = Files.newDirectoryStream(storageRoot, Files::isDirectory)) {
+            for (Path dimDir : dimDirs) {
+                try (var chunkFiles = Files.newDirectoryStream(dimDir, "*.bin")) {
+                    if (chunkFiles.iterator().hasNext()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to check legacy storage", e);
+            return false;
+        }
+    }
+
+    /**
+     * Visit the coordinate of every chunk file in the legacy layout.
+     * Files with unparseable names are skipped with a warning.
+     * <p>
+     * Does not hold the storage lock, so the action may read or delete the visited chunk.
+     */
+    public void forEachStoredChunk(Consumer<ChunkCoord> action) {
+        if (!Files.exists(storageRoot)) {
+            return;
+        }
+
+        try (var dimDirs = Files.newDirectoryStream(storageRoot, Files::isDirectory)) {
+            for (Path dimDir : dimDirs) {
+                String dimName = dimDir.getFileName().toString();
+                ResourceLocation dimension = DimensionUtils.fromFilesystemName(dimName);
+
+                if (dimension == null) {
+                    XaeroSync.LOGGER.warn("Invalid dimension folder name: {}", dimName);
+                    continue;
+                }
+
+                try (var chunkFiles = Files.newDirectoryStream(dimDir, "*.bin")) {
+                    for (Path chunkFile : chunkFiles) {
+                        String filename = chunkFile.getFileName().toString();
+                        ChunkCoord coord = parseChunkFilename(dimension, filename);
+                        if (coord != null) {
+                            action.accept(coord);
+                        } else {
+                            XaeroSync.LOGGER.warn("Invalid chunk file name: {}", chunkFile);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to scan storage", e);
+        }
+    }
+
+    /**
+     * Parse a chunk filename like "5_-3.bin" into coordinates.
+     */
+    @Nullable
+    private ChunkCoord parseChunkFilename(ResourceLocation dimension, String filename) {
+        if (!filename.endsWith(".bin")) {
+            return null;
+        }
+        String name = filename.substring(0, filename.length() - 4);
+        String[] parts = name.split("_");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            int x = Integer.parseInt(parts[0]);
+            int z = Integer.parseInt(parts[1]);
+            return new ChunkCoord(dimension, x, z);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read metadata directly from a path (internal use).
+     */
+    private Optional<ChunkMetadata> readMetadataFromPath(Path path) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
+            return Optional.of(ChunkMetadata.read(dis));
+        } catch (IOException e) {
+            XaeroSync.LOGGER.warn("Failed to read metadata from {}", path, e);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.UUID;
+
+/**
+ * A single region file holding up to 32x32 tile chunks, in the spirit of Anvil.
+ * <p>
+ * File layout (all values big-endian):
+ * - Sector 0: preamble (int magic, int format version), rest zero
+ * - Sectors 1-12: slot table, 1024 slots of 48 bytes each:
+ * int sectorOffset, int byteLength, long timestamp, long uuidMost, long uuidLeast, long contentHash,
+ * 8 bytes reserved. Files written before content hashes were recorded have 0 (unknown) there.
+ * - Remaining sectors: chunk payloads, each starting on a sector boundary
+ * <p>
+ * A slot with byteLength 0 is empty. Chunk metadata lives in the slot table so the
+ * registry can be rebuilt from headers alone. Updates write the payload to free sectors
+ * before the slot entry is replaced, so a crash mid-write leaves the previous copy intact.
+ * <p>
+ * Reads may run concurrently with each other, but writes, deletes and close must be
+ * exclusive. {@link ServerSyncStorage} guards each region with a read/write lock.
+ */
+public class RegionFile implements Closeable {
+
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    public static final int SLOT_COUNT = REGION_SIZE * REGION_SIZE;
+
+    static final int SECTOR_SIZE = 4096;
+    private static final int MAGIC = 0x58535247; // "XSRG"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SLOT_SIZE = 48;
+    private static final int SLOT_TABLE_OFFSET = SECTOR_SIZE;
+    private static final int HEADER_SECTORS = 1 + (SLOT_COUNT * SLOT_SIZE) / SECTOR_SIZE;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int[] sectorOffsets = new int[SLOT_COUNT];
+    private final int[] lengths = new int[SLOT_COUNT];
+    private final long[] timestamps = new long[SLOT_COUNT];
+    private final long[] contributorMost = new long[SLOT_COUNT];
+    private final long[] contributorLeast = new long[SLOT_COUNT];
+    private final long[] contentHashes = new long[SLOT_COUNT];
+    private final BitSet usedSectors = new BitSet();
+    private boolean closed = false;
+
+    private RegionFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Open a region file, creating it with an empty header if it doesn't exist.
+     */
+    public static RegionFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RegionFile region = new RegionFile(path, channel);
+        try {
+            if (channel.size() == 0) {
+                region.writeEmptyHeader();
+            } else {
+                region.readHeader();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return region;
+    }
+
+    /**
+     * Read only the slot table of a region file and report every occupied slot.
+     * Used for fast registry scans without keeping the file open.
+     */
+    public static void scanHeader(Path path, SlotVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer table = readHeaderTable(channel, path);
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                int base = slot * SLOT_SIZE;
+                int length = table.getInt(base + 4);
+                if (length > 0) {
+                    long timestamp = table.getLong(base + 8);
+                    UUID contributor = new UUID(table.getLong(base + 16), table.getLong(base + 24));
+                    visitor.visit(slot, new ChunkMetadata(contributor, timestamp, table.getLong(base + 32)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the slot index for a tile chunk coordinate.
+     */
+    public static int slotIndex(int chunkX, int chunkZ) {
+        return (chunkX & (REGION_SIZE - 1)) + (chunkZ & (REGION_SIZE - 1)) * REGION_SIZE;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Check if a slot holds a chunk.
+     */
+    public boolean has(int slot) {
+        return lengths[slot] > 0;
+    }
+
+    /**
+     * Get the metadata for a slot, or null if empty.
+     */
+    @Nullable
+    public ChunkMetadata getMetadata(int slot) {
+        if (lengths[slot] == 0) {
+            return null;
+        }
+        return new ChunkMetadata(new UUID(contributorMost[slot], contributorLeast[slot]), timestamps[slot],
+                contentHashes[slot]);
+    }
+
+    /**
+     * Read the payload stored in a slot, or null if empty.
+     */
+    @Nullable
+    public byte[] read(int slot) throws IOException {
+        int length = lengths[slot];
+        if (length == 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, (long) sectorOffsets[slot] * SECTOR_SIZE, path);
+        return buffer.array();
+    }
+
+    /**
+     * Store a payload in a slot, replacing any previous contents.
+     */
+    public void write(int slot, ChunkMetadata metadata, byte[] data) throws IOException {
+        if (data.length == 0) {
+            throw new IOException("Refusing to store empty chunk payload in " + path);
+        }
+        int sectorCount = sectorsFor(data.length);
+        int offset = allocate(sectorCount);
+
+        writeFully(channel, ByteBuffer.wrap(data), (long) offset * SECTOR_SIZE);
+
+        int oldOffset = sectorOffsets[slot];
+        int oldLength = lengths[slot];
+
+        sectorOffsets[slot] = offset;
+        lengths[slot] = data.length;
+        timestamps[slot] = metadata.timestamp();
+        contributorMost[slot] = metadata.contributor().getMostSignificantBits();
+        contributorLeast[slot] = metadata.contributor().getLeastSignificantBits();
+        contentHashes[slot] = metadata.contentHash();
+        writeSlot(slot);
+
+        if (oldLength > 0) {
+            usedSectors.clear(oldOffset, oldOffset + sectorsFor(oldLength));
+        }
+        usedSectors.set(offset, offset + sectorCount);
+    }
+
+    /**
+     * Clear a slot. Returns false if it was already empty.
+     */
+    public boolean delete(int slot) throws IOException {
+        int oldLength = lengths[slot];
+        if (oldLength == 0) {
+            return false;
+        }
+        int oldOffset = sectorOffsets[slot];
+
+        sectorOffsets[slot] = 0;
+        lengths[slot] = 0;
+        timestamps[slot] = 0;
+        contributorMost[slot] = 0;
+        contributorLeast[slot] = 0;
+        contentHashes[slot] = 0;
+        writeSlot(slot);
+
+        usedSectors.clear(oldOffset, oldOffset + sectorsFor(oldLength));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    // ==================== Internals ====================
+
+    private static int sectorsFor(int length) {
+        return (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+
+    /**
+     * Find a run of free sectors, preferring gaps left by replaced chunks over growing the file.
+     * Sectors still referenced by the slot being rewritten are not reused, so the old copy
+     * survives until the new slot entry is on disk.
+     */
+    private int allocate(int sectorCount) {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            int nextUsed = usedSectors.nextSetBit(start);
+            if (nextUsed == -1 || nextUsed - start >= sectorCount) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(nextUsed);
+        }
+    }
+
+    private void writeEmptyHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, FORMAT_VERSION);
+        writeFully(channel, header, 0);
+        usedSectors.set(0, HEADER_SECTORS);
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer table = readHeaderTable(channel, path);
+        usedSectors.set(0, HEADER_SECTORS);
+        long fileSectors = (channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int base = slot * SLOT_SIZE;
+            int offset = table.getInt(base);
+            int length = table.getInt(base + 4);
+            if (length <= 0) {
+                continue;
+            }
+
+            int sectorCount = sectorsFor(length);
+            int firstUsed = usedSectors.nextSetBit(offset);
+            boolean overlaps = firstUsed != -1 && firstUsed < offset + sectorCount;
+            if (offset < HEADER_SECTORS || offset + sectorCount > fileSectors || overlaps) {
+                XaeroSync.LOGGER.warn("Dropping invalid slot {} in region file {} (offset={}, length={})",
+                        slot, path, offset, length);
+                continue;
+            }
+
+            sectorOffsets[slot] = offset;
+            lengths[slot] = length;
+            timestamps[slot] = table.getLong(base + 8);
+            contributorMost[slot] = table.getLong(base + 16);
+            contributorLeast[slot] = table.getLong(base + 24);
+            contentHashes[slot] = table.getLong(base + 32);
+            usedSectors.set(offset, offset + sectorCount);
+        }
+    }
+
+    private static ByteBuffer readHeaderTable(FileChannel channel, Path path) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(8);
+        readFully(channel, preamble, 0, path);
+        int magic = preamble.getInt(0);
+        int version = preamble.getInt(4);
+        if (magic != MAGIC) {
+            throw new IOException("Not a region file: " + path);
+        }
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported region file version " + version + ": " + path);
+        }
+
+        ByteBuffer table = ByteBuffer.allocate(SLOT_COUNT * SLOT_SIZE);
+        readFully(channel, table, SLOT_TABLE_OFFSET, path);
+        return table;
+    }
+
+    private void writeSlot(int slot) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+        entry.putInt(sectorOffsets[slot]);
+        entry.putInt(lengths[slot]);
+        entry.putLong(timestamps[slot]);
+        entry.putLong(contributorMost[slot]);
+        entry.putLong(contributorLeast[slot]);
+        entry.putLong(contentHashes[slot]);
+        entry.rewind();
+        writeFully(channel, entry, SLOT_TABLE_OFFSET + (long) slot * SLOT_SIZE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, Path path) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of region file " + path);
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Callback for {@link #scanHeader}.
+     */
+    @FunctionalInterface
+    public interface SlotVisitor {
+        void visit(int slot, ChunkMetadata metadata);
+    }
+}
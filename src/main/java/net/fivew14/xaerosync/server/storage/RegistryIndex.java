@@ -0,0 +1,451 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkCoord;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+import net.fivew14.xaerosync.common.ContentHash;
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persistent copy of the {@link ChunkRegistry} so server startup doesn't have to scan chunk storage.
+ * <p>
+ * Two files live in the storage root:
+ * - registry.idx: a snapshot of every entry, written atomically and closed by a CRC32
+ * - registry.journal: puts and removes applied since the snapshot, each record with its own CRC32
+ * <p>
+ * Loading reads the snapshot in one sequential read and replays the journal over it.
+ * If either file is missing, truncated or fails its checksum the caller falls back to a
+ * full storage scan. Journal records no newer than the snapshot's revision are skipped on
+ * replay, as are updates older than the entry they touch, so a crash between writing a new
+ * snapshot and truncating the journal doesn't duplicate revision log records or tombstones.
+ * <p>
+ * Registry updates go through {@link #put} and {@link #remove} so the journal records the
+ * revision each change was given, keeping delta sync positions valid across restarts.
+ * <p>
+ * Snapshot format (big-endian):
+ * - int magic, int version
+ * - long epoch, long revision, long tombstoneFloor
+ * - int dimensionCount, then dimensionCount UTF strings
+ * - int contributorCount, then contributorCount pairs of longs (uuidMost, uuidLeast)
+ * - int entryCount, then entries: int dimIndex, int x, int z, long timestamp, int contributorIndex, long revision,
+ * long contentHash
+ * - int tombstoneCount, then tombstones: int dimIndex, int x, int z, long revision
+ * - long CRC32 of everything before it
+ * <p>
+ * Journal format: int magic, int version, then records of
+ * byte op, UTF dimension, int x, int z, long revision, [long timestamp, long uuidMost, long uuidLeast,
+ * long contentHash], int CRC32.
+ * <p>
+ * Version 2 files, from before content hashes were recorded, are still read with unknown hashes.
+ */
+public class RegistryIndex {
+
+    private static final String SNAPSHOT_FILE = "registry.idx";
+    private static final String JOURNAL_FILE = "registry.journal";
+    private static final int SNAPSHOT_MAGIC = 0x58535249; // "XSRI"
+    private static final int JOURNAL_MAGIC = 0x5853524A; // "XSRJ"
+    private static final int VERSION = 3;
+    private static final int MIN_VERSION = 2;
+    private static final int ENTRY_SIZE = 40;
+    private static final int TOMBSTONE_SIZE = 20;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // Rewrite the snapshot once the journal holds this many records
+    private static final int COMPACT_THRESHOLD = 65536;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ChunkRegistry registry;
+
+    @Nullable
+    private DataOutputStream journal;
+    private int journalRecords = 0;
+
+    public RegistryIndex(Path storageRoot, ChunkRegistry registry) {
+        this.snapshotPath = storageRoot.resolve(SNAPSHOT_FILE);
+        this.journalPath = storageRoot.resolve(JOURNAL_FILE);
+        this.registry = registry;
+    }
+
+    // ==================== Loading ====================
+
+    /**
+     * Load the snapshot and journal into the registry.
+     * Returns false if the index is missing or damaged; the registry is left empty in that case.
+     */
+    public synchronized boolean load() {
+        if (!Files.exists(snapshotPath)) {
+            XaeroSync.LOGGER.info("No registry index found, storage will be scanned");
+            return false;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            readSnapshot();
+            int replayed = Files.exists(journalPath) ? replayJournal(registry.getRevision()) : 0;
+            long elapsed = System.currentTimeMillis() - startTime;
+            XaeroSync.LOGGER.info("Loaded registry index in {}ms ({} chunks, {} journal records)",
+                    elapsed, registry.size(), replayed);
+            return true;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.warn("Registry index is unusable, storage will be scanned: {}", e.getMessage());
+            registry.clear();
+            return false;
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshotPath);
+        if (bytes.length < 8 + Long.BYTES) {
+            throw new EOFException("Registry snapshot is truncated");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - Long.BYTES) != crc.getValue()) {
+            throw new IOException("Registry snapshot checksum mismatch");
+        }
+        buffer.limit(bytes.length - Long.BYTES);
+
+        try {
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a registry snapshot");
+            }
+            int version = buffer.getInt();
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Unsupported registry snapshot version " + version);
+            }
+            long epoch = buffer.getLong();
+            long revision = buffer.getLong();
+            long tombstoneFloor = buffer.getLong();
+
+            ResourceLocation[] dimensions = new ResourceLocation[buffer.getInt()];
+            for (int i = 0; i < dimensions.length; i++) {
+                String name = readUTF(buffer);
+                dimensions[i] = ResourceLocation.tryParse(name);
+                if (dimensions[i] == null) {
+                    throw new IOException("Invalid dimension in registry snapshot: " + name);
+                }
+            }
+
+            UUID[] contributors = new UUID[buffer.getInt()];
+            for (int i = 0; i < contributors.length; i++) {
+                contributors[i] = new UUID(buffer.getLong(), buffer.getLong());
+            }
+
+            int entryCount = buffer.getInt();
+            for (int i = 0; i < entryCount; i++) {
+                ResourceLocation dimension = dimensions[buffer.getInt()];
+                int x = buffer.getInt();
+                int z = buffer.getInt();
+                long timestamp = buffer.getLong();
+                UUID contributor = contributors[buffer.getInt()];
+                long entryRevision = buffer.getLong();
+                long contentHash = version >= 3 ? buffer.getLong() : ContentHash.UNKNOWN;
+                registry.restore(new ChunkCoord(dimension, x, z),
+                        new ChunkMetadata(contributor, timestamp, contentHash), entryRevision);
+            }
+
+            int tombstoneCount = buffer.getInt();
+            for (int i = 0; i < tombstoneCount; i++) {
+                ResourceLocation dimension = dimensions[buffer.getInt()];
+                int x = buffer.getInt();
+                int z = buffer.getInt();
+                registry.restoreTombstone(dimension, x, z, buffer.getLong());
+            }
+            registry.restoreState(epoch, revision, tombstoneFloor);
+
+            if (buffer.hasRemaining()) {
+                throw new IOException("Trailing data in registry snapshot");
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed registry snapshot", e);
+        }
+    }
+
+    /**
+     * Replay journal records newer than the snapshot; older ones are already part of it.
+     */
+    private int replayJournal(long snapshotRevision) throws IOException {
+        byte[] bytes = Files.readAllBytes(journalPath);
+        if (bytes.length == 0) {
+            return 0;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readInt() == JOURNAL_MAGIC ? in.readInt() : -1;
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("Unrecognized registry journal header");
+        }
+
+        int records = 0;
+        int position = 8;
+        try {
+            while (position < bytes.length) {
+                // A torn record means the last write never made it, so the index can't be trusted
+                byte op = in.readByte();
+                ResourceLocation dimension = ResourceLocation.tryParse(in.readUTF());
+                int x = in.readInt();
+                int z = in.readInt();
+                long revision = in.readLong();
+                ChunkMetadata metadata = null;
+                if (op == OP_PUT) {
+                    long timestamp = in.readLong();
+                    UUID contributor = new UUID(in.readLong(), in.readLong());
+                    long contentHash = version >= 3 ? in.readLong() : ContentHash.UNKNOWN;
+                    metadata = new ChunkMetadata(contributor, timestamp, contentHash);
+                } else if (op != OP_REMOVE) {
+                    throw new IOException("Unknown registry journal op " + op);
+                }
+
+                int recordEnd = bytes.length - in.available();
+                CRC32 crc = new CRC32();
+                crc.update(bytes, position, recordEnd - position);
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new IOException("Registry journal checksum mismatch at offset " + position);
+                }
+                if (dimension == null) {
+                    throw new IOException("Invalid dimension in registry journal at offset " + position);
+                }
+
+                ChunkCoord coord = new ChunkCoord(dimension, x, z);
+                if (revision <= snapshotRevision) {
+                    // Left over from a crash between writing the snapshot and truncating the journal
+                    position = recordEnd + Integer.BYTES;
+                    continue;
+                }
+                if (metadata != null) {
+                    registry.restore(coord, metadata, revision);
+                } else {
+                    registry.restoreRemoval(coord, revision);
+                }
+                records++;
+                position = recordEnd + Integer.BYTES;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Registry journal ends with a torn record at offset " + position, e);
+        }
+        return records;
+    }
+
+    // ==================== Updates ====================
+
+    /**
+     * Add or update a registry entry for a chunk written to storage, and journal it.
+     * Synchronized with {@link #remove} so records reach the journal in revision order.
+     */
+    public synchronized void put(ChunkCoord coord, ChunkMetadata metadata) {
+        long revision = registry.put(coord, metadata);
+        appendRecord(OP_PUT, coord, revision, metadata);
+    }
+
+    /**
+     * Remove the registry entry for a chunk deleted from storage, and journal it.
+     */
+    public synchronized void remove(ChunkCoord coord) {
+        long revision = registry.removeAndGetRevision(coord);
+        if (revision >= 0) {
+            appendRecord(OP_REMOVE, coord, revision, null);
+        }
+    }
+
+    private synchronized void appendRecord(byte op, ChunkCoord coord, long revision, @Nullable ChunkMetadata metadata) {
+        if (journal == null) {
+            // Journal unavailable, the snapshot has already been invalidated
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            record.writeByte(op);
+            record.writeUTF(coord.dimension().toString());
+            record.writeInt(coord.x());
+            record.writeInt(coord.z());
+            record.writeLong(revision);
+            if (metadata != null) {
+                record.writeLong(metadata.timestamp());
+                record.writeLong(metadata.contributor().getMostSignificantBits());
+                record.writeLong(metadata.contributor().getLeastSignificantBits());
+                record.writeLong(metadata.contentHash());
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(recordBytes.toByteArray());
+            recordBytes.writeTo(journal);
+            journal.writeInt((int) crc.getValue());
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to append to registry journal, index will be rebuilt on next start", e);
+            invalidate();
+            return;
+        }
+
+        if (journalRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    // ==================== Snapshot ====================
+
+    /**
+     * Write a fresh snapshot of the registry and start an empty journal.
+     * Must be called once after loading or scanning before updates are recorded.
+     */
+    public synchronized void compact() {
+        long startTime = System.currentTimeMillis();
+        closeJournal();
+
+        try {
+            writeSnapshot();
+            journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalPath)));
+            journal.writeInt(JOURNAL_MAGIC);
+            journal.writeInt(VERSION);
+            journal.flush();
+            journalRecords = 0;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to write registry index, storage will be scanned on next start", e);
+            invalidate();
+            return;
+        }
+
+        XaeroSync.LOGGER.debug("Wrote registry snapshot ({} chunks) in {}ms",
+                registry.size(), System.currentTimeMillis() - startTime);
+    }
+
+    private void writeSnapshot() throws IOException {
+        // Revisions can only grow on load, so reading the counters before the entries is safe
+        long epoch = registry.getEpoch();
+        long revision = registry.getRevision();
+        long tombstoneFloor = registry.getTombstoneFloor();
+
+        // Entries are encoded up front so the counts written below match what was visited
+        Map<ResourceLocation, Integer> dimensionIds = new LinkedHashMap<>();
+        Map<UUID, Integer> contributorIds = new LinkedHashMap<>();
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(registry.size() * ENTRY_SIZE + 64);
+        DataOutputStream entryOut = new DataOutputStream(entryBytes);
+        ByteArrayOutputStream tombstoneBytes = new ByteArrayOutputStream(1024);
+        DataOutputStream tombstoneOut = new DataOutputStream(tombstoneBytes);
+        int[] counts = {0, 0};
+        try {
+            registry.forEachPrimitive((dimension, x, z, timestamp, contributor, entryRevision, contentHash) -> {
+                try {
+                    entryOut.writeInt(dimensionIds.computeIfAbsent(dimension, dim -> dimensionIds.size()));
+                    entryOut.writeInt(x);
+                    entryOut.writeInt(z);
+                    entryOut.writeLong(timestamp);
+                    entryOut.writeInt(contributorIds.computeIfAbsent(contributor, id -> contributorIds.size()));
+                    entryOut.writeLong(entryRevision);
+                    entryOut.writeLong(contentHash);
+                    counts[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            registry.forEachTombstone((dimension, x, z, tombstoneRevision) -> {
+                try {
+                    tombstoneOut.writeInt(dimensionIds.computeIfAbsent(dimension, dim -> dimensionIds.size()));
+                    tombstoneOut.writeInt(x);
+                    tombstoneOut.writeInt(z);
+                    tombstoneOut.writeLong(tombstoneRevision);
+                    counts[1]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Path tempPath = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(epoch);
+            out.writeLong(revision);
+            out.writeLong(tombstoneFloor);
+
+            out.writeInt(dimensionIds.size());
+            for (ResourceLocation dimension : dimensionIds.keySet()) {
+                out.writeUTF(dimension.toString());
+            }
+
+            out.writeInt(contributorIds.size());
+            for (UUID contributor : contributorIds.keySet()) {
+                out.writeLong(contributor.getMostSignificantBits());
+                out.writeLong(contributor.getLeastSignificantBits());
+            }
+
+            out.writeInt(counts[0]);
+            entryBytes.writeTo(out);
+            out.writeInt(counts[1]);
+            tombstoneBytes.writeTo(out);
+            out.flush();
+
+            // Checksum goes straight to the file so it isn't folded into itself
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+        }
+
+        Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write a final snapshot and release the journal.
+     */
+    public synchronized void close() {
+        compact();
+        closeJournal();
+    }
+
+    /**
+     * Drop the on-disk index so the next startup rescans storage.
+     */
+    private void invalidate() {
+        closeJournal();
+        try {
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to delete stale registry snapshot {}", snapshotPath, e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                XaeroSync.LOGGER.warn("Failed to close registry journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Read a string in DataOutput.writeUTF format.
+     */
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        byte[] encoded = new byte[length + 2];
+        encoded[0] = (byte) (length >> 8);
+        encoded[1] = (byte) length;
+        buffer.get(encoded, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+    }
+}
@@ -9,33 +9,49 @@ import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.storage.LevelResource;
 
 import javax.annotation.Nullable;
-import java.io.*;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Handles file I/O for synced chunk data on the server.
+ * Region-file backed storage for synced chunk data on the server.
  * <p>
  * Storage structure:
- * WORLD_FOLDER/.xaerosync/{dimension}/{x}_{z}.bin
+ * WORLD_FOLDER/.xaerosync/{dimension}/r.{regionX}.{regionZ}.xsr
  * <p>
- * Each .bin file contains:
- * - 28-byte header (ChunkMetadata: version, UUID, timestamp)
- * - GZIP-compressed Xaero format data
+ * Each region file packs 32x32 tile chunks (see {@link RegionFile}), so a world needs
+ * one file per 2048x2048 blocks instead of one per 64x64. Open region files are kept
+ * in a bounded LRU so hot regions don't pay an open/close per request.
+ * <p>
+ * Regions are guarded by a fixed set of striped read/write locks keyed by region, so
+ * reads of the same region run in parallel and operations on unrelated regions never
+ * wait on each other. Contended acquisitions are counted for the stats command.
  */
-public class ServerSyncStorage {
+public class ServerSyncStorage implements ChunkStorage {
 
     private static final String STORAGE_FOLDER = ".xaerosync";
+    private static final String REGION_EXTENSION = ".xsr";
+    private static final int MAX_OPEN_REGIONS = 256;
+    private static final int LOCK_STRIPES = 64;
 
     private final Path storageRoot;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReadWriteLock[] regionLocks = new ReadWriteLock[LOCK_STRIPES];
+    private final AtomicLong lockAcquisitions = new AtomicLong();
+    private final AtomicLong lockContentions = new AtomicLong();
+
+    // Access-ordered so the eldest entry is the least recently used region
+    private final LinkedHashMap<RegionKey, RegionFile> openRegions = new LinkedHashMap<>(16, 0.75f, true);
 
     public ServerSyncStorage(Path worldFolder) {
         this.storageRoot = worldFolder.resolve(STORAGE_FOLDER);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            regionLocks[i] = new ReentrantReadWriteLock();
+        }
     }
 
     /**
@@ -46,143 +62,94 @@ public class ServerSyncStorage {
         return new ServerSyncStorage(worldFolder);
     }
 
-    /**
-     * Initialize storage directories.
-     */
+    @Override
     public void initialize() throws IOException {
         Files.createDirectories(storageRoot);
     }
 
-    /**
-     * Get the storage root path.
-     */
+    @Override
     public Path getStorageRoot() {
         return storageRoot;
     }
 
-    /**
-     * Get the file path for a chunk.
-     */
-    private Path getChunkPath(ChunkCoord coord) {
-        String dimFolder = DimensionUtils.toFilesystemName(coord.dimension());
-        return storageRoot.resolve(dimFolder).resolve(coord.x() + "_" + coord.z() + ".bin");
-    }
-
-    /**
-     * Check if a chunk exists in storage.
-     */
+    @Override
     public boolean exists(ChunkCoord coord) {
-        lock.readLock().lock();
         try {
-            return Files.exists(getChunkPath(coord));
-        } finally {
-            lock.readLock().unlock();
+            Boolean present = withRegion(coord, false, false, region -> region.has(slotOf(coord)));
+            return present != null && present;
+        } catch (IOException e) {
+            XaeroSync.LOGGER.error("Failed to check chunk: {}", coord, e);
+            return false;
         }
     }
 
-    /**
-     * Read chunk metadata only (without loading the full data).
-     * Returns empty if chunk doesn't exist.
-     */
+    @Override
     public Optional<ChunkMetadata> readMetadata(ChunkCoord coord) {
-        lock.readLock().lock();
         try {
-            Path path = getChunkPath(coord);
-            if (!Files.exists(path)) {
-                return Optional.empty();
-            }
-
-            try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
-                return Optional.of(ChunkMetadata.read(dis));
-            }
+            return Optional.ofNullable(withRegion(coord, false, false, region -> region.getMetadata(slotOf(coord))));
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to read chunk metadata: {}", coord, e);
             return Optional.empty();
-        } finally {
-            lock.readLock().unlock();
         }
     }
 
-    /**
-     * Read full chunk data (metadata + compressed data).
-     * Returns null if chunk doesn't exist or read fails.
-     */
     @Nullable
+    @Override
     public ChunkData readChunk(ChunkCoord coord) {
-        lock.readLock().lock();
         try {
-            Path path = getChunkPath(coord);
-            if (!Files.exists(path)) {
-                return null;
-            }
-
-            try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
-                ChunkMetadata metadata = ChunkMetadata.read(dis);
-                byte[] data = dis.readAllBytes();
-                return new ChunkData(metadata, data);
-            }
+            return withRegion(coord, false, false, region -> {
+                int slot = slotOf(coord);
+                ChunkMetadata metadata = region.getMetadata(slot);
+                byte[] data = region.read(slot);
+                return metadata != null && data != null ? new ChunkData(metadata, data) : null;
+            });
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to read chunk data: {}", coord, e);
             return null;
-        } finally {
-            lock.readLock().unlock();
         }
     }
 
-    /**
-     * Write chunk data to storage.
-     * Creates parent directories if needed.
-     */
-    public boolean writeChunk(ChunkCoord coord, UUID contributor, long timestamp, byte[] data) {
-        lock.writeLock().lock();
+    @Override
+    public boolean writeChunk(ChunkCoord coord, UUID contributor, long timestamp, long contentHash, byte[] data) {
         try {
-            Path path = getChunkPath(coord);
-            Files.createDirectories(path.getParent());
-
-            try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(path.toFile()))) {
-                ChunkMetadata metadata = new ChunkMetadata(contributor, timestamp);
-                metadata.write(dos);
-                dos.write(data);
-            }
+            withRegion(coord, true, true, region -> {
+                region.write(slotOf(coord), new ChunkMetadata(contributor, timestamp, contentHash), data);
+                return null;
+            });
 
             XaeroSync.LOGGER.debug("Wrote chunk {} from {} at {}", coord, contributor, timestamp);
             return true;
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to write chunk data: {}", coord, e);
             return false;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
-    /**
-     * Delete a chunk from storage.
-     */
+    @Override
     public boolean deleteChunk(ChunkCoord coord) {
-        lock.writeLock().lock();
         try {
-            Path path = getChunkPath(coord);
-            return Files.deleteIfExists(path);
+            Boolean deleted = withRegion(coord, false, true, region -> region.delete(slotOf(coord)));
+            return deleted != null && deleted;
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to delete chunk: {}", coord, e);
             return false;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
     /**
-     * Scan storage and populate a registry with all existing chunks.
+     * Scan all region file headers and populate a registry.
+     * Only the slot tables are read, not the chunk payloads. Each region is locked only
+     * while its own header is read, so writes elsewhere carry on during a scan.
      */
+    @Override
     public void scanIntoRegistry(ChunkRegistry registry) {
-        lock.readLock().lock();
         try {
             if (!Files.exists(storageRoot)) {
                 return;
             }
 
             int scannedChunks = 0;
-            int failedChunks = 0;
+            int failedRegions = 0;
 
             try (var dimDirs = Files.newDirectoryStream(storageRoot, Files::isDirectory)) {
                 for (Path dimDir : dimDirs) {
@@ -194,74 +161,213 @@ public class ServerSyncStorage {
                         continue;
                     }
 
-                    try (var chunkFiles = Files.newDirectoryStream(dimDir, "*.bin")) {
-                        for (Path chunkFile : chunkFiles) {
-                            String filename = chunkFile.getFileName().toString();
-                            ChunkCoord coord = parseChunkFilename(dimension, filename);
-                            if (coord != null) {
-                                Optional<ChunkMetadata> metadata = readMetadataFromPath(chunkFile);
-                                if (metadata.isPresent()) {
-                                    registry.put(coord, metadata.get().timestamp());
-                                    scannedChunks++;
-                                } else {
-                                    failedChunks++;
-                                }
-                            } else {
-                                failedChunks++;
+                    try (var regionFiles = Files.newDirectoryStream(dimDir, "r.*" + REGION_EXTENSION)) {
+                        for (Path regionFile : regionFiles) {
+                            RegionKey key = parseRegionFilename(dimension, regionFile.getFileName().toString());
+                            if (key == null) {
+                                failedRegions++;
+                                continue;
+                            }
+
+                            int[] count = {0};
+                            Lock lock = acquire(key, false);
+                            try {
+                                RegionFile.scanHeader(regionFile, (slot, metadata) -> {
+                                    registry.put(key.chunkAt(slot), metadata);
+                                    count[0]++;
+                                });
+                                scannedChunks += count[0];
+                            } catch (IOException e) {
+                                XaeroSync.LOGGER.warn("Failed to scan region file {}", regionFile, e);
+                                failedRegions++;
+                            } finally {
+                                lock.unlock();
                             }
                         }
                     }
                 }
             }
 
-            if (failedChunks > 0) {
-                XaeroSync.LOGGER.warn("Failed to scan {} chunks during registry initialization", failedChunks);
+            if (failedRegions > 0) {
+                XaeroSync.LOGGER.warn("Failed to scan {} region files during registry initialization", failedRegions);
             }
             XaeroSync.LOGGER.info("Scanned {} chunks into registry", scannedChunks);
         } catch (IOException e) {
             XaeroSync.LOGGER.error("Failed to scan storage", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Take every stripe in a fixed order before the region map, same order as normal operations
+        for (ReadWriteLock lock : regionLocks) {
+            lock.writeLock().lock();
+        }
+        try {
+            synchronized (openRegions) {
+                for (RegionFile region : openRegions.values()) {
+                    closeRegion(region);
+                }
+                openRegions.clear();
+            }
+        } finally {
+            for (ReadWriteLock lock : regionLocks) {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return lockAcquisitions.get();
+    }
+
+    @Override
+    public long getLockContentions() {
+        return lockContentions.get();
+    }
+
+    // ==================== Locking ====================
+
+    private ReadWriteLock lockFor(RegionKey key) {
+        return regionLocks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Lock the stripe guarding a region, counting the acquisition as contended if it had to wait.
+     */
+    private Lock acquire(RegionKey key, boolean exclusive) {
+        ReadWriteLock stripe = lockFor(key);
+        Lock lock = exclusive ? stripe.writeLock() : stripe.readLock();
+        lockAcquisitions.incrementAndGet();
+        if (!lock.tryLock()) {
+            lockContentions.incrementAndGet();
+            lock.lock();
+        }
+        return lock;
+    }
+
+    // ==================== Region Files ====================
+
+    private static int slotOf(ChunkCoord coord) {
+        return RegionFile.slotIndex(coord.x(), coord.z());
+    }
+
+    /**
+     * Run an action against the region file containing a chunk.
+     * Returns null without running the action if the region doesn't exist and create is false.
+     * <p>
+     * The region's stripe is held for the duration of the action, shared for reads and
+     * exclusive for writes. Eviction needs the same stripe, so the region can't be closed
+     * underneath the action.
+     */
+    @Nullable
+    private <T> T withRegion(ChunkCoord coord, boolean create, boolean exclusive, RegionAction<T> action) throws IOException {
+        RegionKey key = RegionKey.of(coord);
+        Lock lock = acquire(key, exclusive);
+        try {
+            RegionFile region = getRegionFile(key, create);
+            return region != null ? action.apply(region) : null;
         } finally {
-            lock.readLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    private RegionFile getRegionFile(RegionKey key, boolean create) throws IOException {
+        synchronized (openRegions) {
+            RegionFile region = openRegions.get(key);
+            if (region != null) {
+                return region;
+            }
+
+            Path path = getRegionPath(key);
+            if (!create && !Files.exists(path)) {
+                return null;
+            }
+            Files.createDirectories(path.getParent());
+
+            region = RegionFile.open(path);
+            openRegions.put(key, region);
+            evictRegions();
+            return region;
+        }
+    }
+
+    /**
+     * Close least recently used regions beyond the open file limit.
+     * Must be called while holding the openRegions monitor. Regions whose stripe is busy
+     * are skipped rather than waited on, since blocking here could deadlock with a thread
+     * that holds the stripe and is waiting for the monitor.
+     */
+    private void evictRegions() {
+        Iterator<Map.Entry<RegionKey, RegionFile>> iterator = openRegions.entrySet().iterator();
+        while (openRegions.size() > MAX_OPEN_REGIONS && iterator.hasNext()) {
+            Map.Entry<RegionKey, RegionFile> eldest = iterator.next();
+            Lock lock = lockFor(eldest.getKey()).writeLock();
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                iterator.remove();
+                closeRegion(eldest.getValue());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void closeRegion(RegionFile region) {
+        try {
+            region.close();
+        } catch (IOException e) {
+            XaeroSync.LOGGER.warn("Failed to close region file {}", region.getPath(), e);
         }
     }
 
+    private Path getRegionPath(RegionKey key) {
+        String dimFolder = DimensionUtils.toFilesystemName(key.dimension());
+        return storageRoot.resolve(dimFolder).resolve("r." + key.x() + "." + key.z() + REGION_EXTENSION);
+    }
+
     /**
-     * Parse a chunk filename like "5_-3.bin" into coordinates.
+     * Parse a region filename like "r.2.-1.xsr" into a region key.
      */
     @Nullable
-    private ChunkCoord parseChunkFilename(ResourceLocation dimension, String filename) {
-        if (!filename.endsWith(".bin")) {
+    private RegionKey parseRegionFilename(ResourceLocation dimension, String filename) {
+        if (!filename.startsWith("r.") || !filename.endsWith(REGION_EXTENSION)) {
             return null;
         }
-        String name = filename.substring(0, filename.length() - 4);
-        String[] parts = name.split("_");
+        String name = filename.substring(2, filename.length() - REGION_EXTENSION.length());
+        String[] parts = name.split("\\.");
         if (parts.length != 2) {
             return null;
         }
         try {
-            int x = Integer.parseInt(parts[0]);
-            int z = Integer.parseInt(parts[1]);
-            return new ChunkCoord(dimension, x, z);
+            return new RegionKey(dimension, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
         } catch (NumberFormatException e) {
             return null;
         }
     }
 
-    /**
-     * Read metadata directly from a path (internal use).
-     */
-    private Optional<ChunkMetadata> readMetadataFromPath(Path path) {
-        try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
-            return Optional.of(ChunkMetadata.read(dis));
-        } catch (IOException e) {
-            XaeroSync.LOGGER.warn("Failed to read metadata from {}", path, e);
-            return Optional.empty();
-        }
+    @FunctionalInterface
+    private interface RegionAction<T> {
+        T apply(RegionFile region) throws IOException;
     }
 
     /**
-     * Container for chunk metadata and compressed data.
+     * Identifies a region file: a 32x32 block of tile chunks in one dimension.
      */
-    public record ChunkData(ChunkMetadata metadata, byte[] data) {
+    private record RegionKey(ResourceLocation dimension, int x, int z) {
+        static RegionKey of(ChunkCoord coord) {
+            return new RegionKey(coord.dimension(),
+                    coord.x() >> RegionFile.REGION_SHIFT, coord.z() >> RegionFile.REGION_SHIFT);
+        }
+
+        ChunkCoord chunkAt(int slot) {
+            int localX = slot % RegionFile.REGION_SIZE;
+            int localZ = slot / RegionFile.REGION_SIZE;
+            return new ChunkCoord(dimension, (x << RegionFile.REGION_SHIFT) + localX, (z << RegionFile.REGION_SHIFT) + localZ);
+        }
     }
 }
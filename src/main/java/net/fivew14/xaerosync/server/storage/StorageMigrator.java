@@ -0,0 +1,67 @@
+package net.fivew14.xaerosync.server.storage;
+
+import net.fivew14.xaerosync.XaeroSync;
+import net.fivew14.xaerosync.common.ChunkMetadata;
+
+import java.util.Optional;
+
+/**
+ * One-time migration from the one-file-per-chunk layout to region files.
+ * <p>
+ * Each legacy .bin file is copied into its region file and deleted once the copy
+ * succeeds, so an interrupted migration simply resumes on the next startup.
+ */
+public final class StorageMigrator {
+
+    private StorageMigrator() {
+    } // Utility class
+
+    /**
+     * Move any legacy chunk files found under the target's storage root into the target.
+     * Returns the number of chunks written to the target.
+     */
+    public static int migrateLegacy(ChunkStorage target) {
+        LegacyChunkStorage legacy = new LegacyChunkStorage(target.getStorageRoot());
+        if (!legacy.hasStoredChunks()) {
+            return 0;
+        }
+
+        XaeroSync.LOGGER.info("Migrating legacy chunk files in {} to region storage", target.getStorageRoot());
+        long startTime = System.currentTimeMillis();
+
+        int[] migrated = {0};
+        int[] skipped = {0};
+        int[] failed = {0};
+
+        legacy.forEachStoredChunk(coord -> {
+            ChunkStorage.ChunkData chunkData = legacy.readChunk(coord);
+            if (chunkData == null) {
+                failed[0]++;
+                return;
+            }
+
+            ChunkMetadata metadata = chunkData.metadata();
+            Optional<ChunkMetadata> existing = target.readMetadata(coord);
+            if (existing.isPresent() && existing.get().timestamp() >= metadata.timestamp()) {
+                // Already migrated (or newer data uploaded since), legacy copy is stale
+                skipped[0]++;
+            } else if (target.writeChunk(coord, metadata.contributor(), metadata.timestamp(),
+                    metadata.contentHash(), chunkData.data())) {
+                migrated[0]++;
+            } else {
+                failed[0]++;
+                return;
+            }
+
+            legacy.deleteChunk(coord);
+        });
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        XaeroSync.LOGGER.info("Storage migration finished in {}ms: {} migrated, {} already present, {} failed",
+                elapsed, migrated[0], skipped[0], failed[0]);
+        if (failed[0] > 0) {
+            XaeroSync.LOGGER.warn("{} legacy chunk files could not be migrated and were left in place", failed[0]);
+        }
+        return migrated[0];
+    }
+}